@@ -0,0 +1,449 @@
+package Waisy.benchmark;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import Waisy.benchmark.harness.BenchmarkImages;
+import Waisy.core.core.FrameProfiler;
+import Waisy.core.core.GameManager;
+import Waisy.core.core.GameSettings;
+import Waisy.core.graphics.BandedRenderer;
+import Waisy.core.graphics.BasicSprite;
+import Waisy.core.graphics.DepthSortKey;
+import Waisy.core.graphics.RasterRenderer;
+import Waisy.core.graphics.ResolutionScaler;
+import Waisy.core.graphics.ScrollingRenderer;
+import Waisy.core.graphics.SpriteManager;
+import Waisy.core.graphics.UpdateLOD;
+import Waisy.core.particles.ParticleEffect;
+import Waisy.core.particles.ParticlePool;
+import Waisy.core.structures.BasicGameState;
+import Waisy.platformer.ai.PathService;
+import Waisy.platformer.ai.ScriptAction;
+import Waisy.platformer.ai.ScriptProgram;
+import Waisy.platformer.ai.ScriptScheduler;
+import Waisy.platformer.ai.WalkabilityGrid;
+
+/**
+ * Checks that the engine's per-frame path doesn't allocate.
+ *
+ * Each scenario fills a BasicGameState with moving sprites, then runs
+ * GameManager.update and render headlessly for a while so the JIT
+ * settles, then counts the bytes the game thread allocates in each of
+ * the next frames with ThreadMXBean.getThreadAllocatedBytes, along
+ * with any threads the scenario's renderer draws on. A scenario fails
+ * if its frames average more than its budget.
+ *
+ * Most budgets are a handful of bytes, which is to say nothing: any
+ * new iterator, boxed number or temporary object on the path costs
+ * far more than that across a few thousand sprites. The renderers
+ * that go through Java2D clipping get a little more, since Java2D
+ * allocates a clip region every time the clip is set.
+ *
+ * Run it after engine changes. Exits with status 1 if any scenario
+ * is over budget, so a build can fail on it.
+ *
+ * Usage: AllocationBudgetCheck [-w warmupFrames] [-f frames] [regex]
+ * @author waisy
+ *
+ */
+public class AllocationBudgetCheck
+{
+	protected static final int SPRITE_COUNT = 2000;
+	protected static final int WORLD_WIDTH = 4000;
+
+	/**
+	 * A populated game to run frames of.
+	 */
+	protected static abstract class Scenario
+	{
+		protected String name;
+		/**
+		 * most bytes allocated per frame, on average
+		 */
+		protected long budget;
+
+		protected Scenario(String name, long budget)
+		{
+			this.name = name;
+			this.budget = budget;
+		}
+
+		/**
+		 * set up anything beyond the standard sprites
+		 */
+		protected void setup(GameManager gm, BasicGameState state)
+		{
+		}
+
+		/**
+		 * game logic run before each frame
+		 */
+		protected void frame(SpriteManager mgr)
+		{
+		}
+
+		/**
+		 * @return ids of other threads doing the frame's work, whose
+		 * allocations count too. null for just the game thread.
+		 */
+		protected long[] threadIds()
+		{
+			return null;
+		}
+
+		/**
+		 * undo anything setup changed outside the state
+		 */
+		protected void teardown(GameManager gm)
+		{
+		}
+	}
+
+	/**
+	 * sprite that drifts back and forth across the world
+	 */
+	protected static class Drifter extends BasicSprite
+	{
+		protected float vx;
+		protected float vy;
+
+		public Drifter(BufferedImage image, float vx, float vy)
+		{
+			super(image);
+			this.vx = vx;
+			this.vy = vy;
+		}
+
+		@Override
+		public void update(float dT)
+		{
+			x += vx * dT;
+			y += vy * dT;
+			if ((x < 0) || (x > WORLD_WIDTH))
+				vx = -vx;
+			if ((y < 0) || (y > GameSettings.SCREEN_HEIGHT))
+				vy = -vy;
+		}
+	}
+
+	protected static final ScriptAction<Drifter> TURN = new ScriptAction<Drifter>()
+	{
+		@Override
+		public void run(Drifter d)	{	d.vx = -d.vx;	}
+	};
+
+	protected static ArrayList<Scenario> scenarios()
+	{
+		ArrayList<Scenario> list = new ArrayList<Scenario>();
+
+		list.add(new Scenario("renderList", 16) {});
+
+		list.add(new Scenario("renderList+lod", 16)
+		{
+			@Override
+			protected void setup(GameManager gm, BasicGameState state)
+			{
+				state.getSpriteManager().setUpdateLOD(new UpdateLOD());
+			}
+		});
+
+		list.add(new Scenario("renderList+profiler", 16)
+		{
+			@Override
+			protected void setup(GameManager gm, BasicGameState state)
+			{
+				GameSettings.profiler = new FrameProfiler();
+				GameSettings.profiler.setOverlayVisible(true);
+			}
+
+			@Override
+			protected void teardown(GameManager gm)
+			{
+				GameSettings.profiler = null;
+			}
+		});
+
+		list.add(new Scenario("scaler", 16)
+		{
+			@Override
+			protected void setup(GameManager gm, BasicGameState state)
+			{
+				//a budget nothing meets keeps the scale at its least
+				state.setFrameRenderer(new ResolutionScaler(GameSettings.SCREEN_WIDTH,
+						GameSettings.SCREEN_HEIGHT, 0f, 0.75f, 0.75f));
+			}
+		});
+
+		//drawing an image whose pixels were written directly takes
+		//Java2D's slower path, which allocates a little
+		list.add(new Scenario("raster", 256)
+		{
+			@Override
+			protected void setup(GameManager gm, BasicGameState state)
+			{
+				state.setFrameRenderer(new RasterRenderer());
+			}
+		});
+
+		//the overlay drawn into the frame from kept strings
+		list.add(new Scenario("raster+profiler", 256)
+		{
+			@Override
+			protected void setup(GameManager gm, BasicGameState state)
+			{
+				state.setFrameRenderer(new RasterRenderer());
+				GameSettings.profiler = new FrameProfiler();
+				GameSettings.profiler.setOverlayVisible(true);
+			}
+
+			@Override
+			protected void teardown(GameManager gm)
+			{
+				GameSettings.profiler = null;
+			}
+		});
+
+		//a clip region per dirty rectangle. a handful of rectangles
+		//most frames, the renderer's limit at worst
+		list.add(new Scenario("scrolling", 1024)
+		{
+			@Override
+			protected void setup(GameManager gm, BasicGameState state)
+			{
+				state.setFrameRenderer(new ScrollingRenderer());
+			}
+		});
+
+		list.add(new Scenario("banded", 16)
+		{
+			protected BandedRenderer renderer;
+
+			@Override
+			protected void setup(GameManager gm, BasicGameState state)
+			{
+				renderer = new BandedRenderer(GameSettings.SCREEN_WIDTH,
+						GameSettings.SCREEN_HEIGHT, 2);
+				state.setFrameRenderer(renderer);
+			}
+
+			@Override
+			protected long[] threadIds()
+			{
+				return renderer.getWorkerThreadIds();
+			}
+
+			@Override
+			protected void teardown(GameManager gm)
+			{
+				renderer.close();
+			}
+		});
+
+		list.add(new Scenario("particles", 16)
+		{
+			protected ParticlePool pool;
+			protected ParticleEffect sparks;
+			protected int frame = 0;
+
+			@Override
+			protected void setup(GameManager gm, BasicGameState state)
+			{
+				pool = new ParticlePool(state.getSpriteManager(), SpriteManager.FOREGROUND, 16, 500);
+				sparks = new ParticleEffect(BenchmarkImages.bitmaskSprite(6, 6));
+				sparks.setGravity(0f, 300f);
+			}
+
+			@Override
+			protected void frame(SpriteManager mgr)
+			{
+				//a burst every few frames, wherever the camera is
+				if (frame++ % 4 == 0)
+					pool.burst(sparks, mgr.getCameraX() + (frame * 37) % 800, 300f, 200);
+			}
+		});
+
+		list.add(new Scenario("scripts+paths", 16)
+		{
+			protected ScriptScheduler scheduler;
+			protected PathService paths;
+
+			@Override
+			protected void setup(GameManager gm, BasicGameState state)
+			{
+				SpriteManager mgr = state.getSpriteManager();
+
+				ScriptProgram<Drifter> patrol = new ScriptProgram<Drifter>()
+						.waitFor(0.5f).call(TURN).loop();
+				scheduler = new ScriptScheduler();
+				int count = mgr.getLayerSize(SpriteManager.ENEMIES);
+				for (int i = 0; i < count; i++)
+					scheduler.start(patrol, (Drifter) mgr.getSprite(SpriteManager.ENEMIES, i));
+
+				WalkabilityGrid grid = new WalkabilityGrid(WORLD_WIDTH / 16,
+						GameSettings.SCREEN_HEIGHT / 16, 16);
+				grid.blockSprites(mgr, SpriteManager.MIDGROUND_ENVIRONMENT);
+				paths = new PathService(grid);
+				paths.chase(mgr.getSprite(SpriteManager.CHARACTERS, 0));
+
+				gm.addTickListener(scheduler);
+				gm.addTickListener(paths);
+			}
+
+			@Override
+			protected void teardown(GameManager gm)
+			{
+				gm.removeTickListener(scheduler);
+				gm.removeTickListener(paths);
+			}
+		});
+
+		return list;
+	}
+
+	/**
+	 * fill a state with sprites across every layer, the enemies
+	 * depth sorted
+	 */
+	protected static void populate(BasicGameState state)
+	{
+		Random random = new Random(7);
+		BufferedImage tile = BenchmarkImages.sprite(BufferedImage.TYPE_INT_RGB, 16, 16);
+		BufferedImage character = BenchmarkImages.sprite(BufferedImage.TYPE_INT_ARGB, 24, 32);
+
+		SpriteManager mgr = state.getSpriteManager();
+		mgr.setLayerSortKey(SpriteManager.ENEMIES, DepthSortKey.BOTTOM);
+
+		for (int i = 0; i < SPRITE_COUNT; i++)
+		{
+			int layer = i % SpriteManager.LAYER_COUNT;
+			boolean still = (layer == SpriteManager.BACKGROUND)
+					|| (layer == SpriteManager.MIDGROUND_ENVIRONMENT);
+			BasicSprite s = still
+					? new Drifter(tile, 0f, 0f)
+					: new Drifter(character, random.nextFloat() * 0.2f - 0.1f,
+							random.nextFloat() * 0.1f - 0.05f);
+			s.setX(random.nextInt(WORLD_WIDTH));
+			s.setY(random.nextInt(GameSettings.SCREEN_HEIGHT));
+			state.addSprite(s, layer);
+		}
+	}
+
+	/**
+	 * @return bytes allocated so far by the game thread and the others
+	 */
+	protected static long allocated(com.sun.management.ThreadMXBean threads, long id,
+			long[] others)
+	{
+		long bytes = threads.getThreadAllocatedBytes(id);
+		if (others != null)
+		{
+			for (int i = 0; i < others.length; i++)
+				bytes += threads.getThreadAllocatedBytes(others[i]);
+		}
+		return bytes;
+	}
+
+	/**
+	 * run a scenario
+	 * @return true if it stayed within budget
+	 */
+	protected static boolean check(Scenario scenario, int warmupFrames, int frames,
+			com.sun.management.ThreadMXBean threads)
+	{
+		GameManager gm = GameManager.getInstance();
+		BasicGameState state = new BasicGameState();
+		gm.Start(state);
+		populate(state);
+		scenario.setup(gm, state);
+
+		SpriteManager mgr = state.getSpriteManager();
+		BufferedImage screen = BenchmarkImages.frame(GameSettings.SCREEN_WIDTH,
+				GameSettings.SCREEN_HEIGHT);
+		Graphics2D g = screen.createGraphics();
+
+		long id = Thread.currentThread().getId();
+		long[] others = scenario.threadIds();
+		long total = 0;
+		long worst = 0;
+		try
+		{
+			for (int f = 0; f < warmupFrames + frames; f++)
+			{
+				long before = allocated(threads, id, others);
+
+				//pan back and forth across the world
+				int pan = f % (2 * WORLD_WIDTH);
+				mgr.setCamera((pan < WORLD_WIDTH) ? pan : 2 * WORLD_WIDTH - pan, 0f);
+				scenario.frame(mgr);
+				gm.update(16f);
+				gm.render(g);
+
+				long allocated = allocated(threads, id, others) - before;
+				if (f >= warmupFrames)
+				{
+					total += allocated;
+					worst = Math.max(worst, allocated);
+				}
+			}
+		}
+		finally
+		{
+			scenario.teardown(gm);
+			g.dispose();
+		}
+
+		long average = total / frames;
+		boolean pass = average <= scenario.budget;
+		System.out.println(String.format("%-24s %8d B/frame avg  %8d B worst  budget %6d  %s",
+				scenario.name, average, worst, scenario.budget, pass ? "ok" : "OVER BUDGET"));
+		return pass;
+	}
+
+	public static void main(String[] args)
+	{
+		int warmupFrames = 5000;
+		int frames = 1000;
+		Pattern filter = null;
+
+		for (int i = 0; i < args.length; i++)
+		{
+			switch (args[i])
+			{
+			case "-w":
+				warmupFrames = Integer.parseInt(args[++i]);
+				break;
+			case "-f":
+				frames = Integer.parseInt(args[++i]);
+				break;
+			default:
+				filter = Pattern.compile(args[i]);
+			}
+		}
+
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)
+				|| !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported())
+		{
+			System.out.println("This vm can't count allocated bytes per thread");
+			System.exit(2);
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		boolean pass = true;
+		for (Scenario s : scenarios())
+		{
+			if ((filter == null) || filter.matcher(s.name).find())
+				pass &= check(s, warmupFrames, frames, threads);
+		}
+
+		if (!pass)
+			System.exit(1);
+	}
+}
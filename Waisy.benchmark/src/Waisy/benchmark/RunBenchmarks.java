@@ -0,0 +1,156 @@
+package Waisy.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+import Waisy.benchmark.ai.PathfindingBenchmark;
+import Waisy.benchmark.ai.ScriptSchedulerBenchmark;
+import Waisy.benchmark.core.GameManagerBenchmark;
+import Waisy.benchmark.graphics.BandedRendererBenchmark;
+import Waisy.benchmark.graphics.BasicSpritePaintBenchmark;
+import Waisy.benchmark.graphics.ParticleBenchmark;
+import Waisy.benchmark.graphics.RasterBlitterBenchmark;
+import Waisy.benchmark.graphics.ResolutionScalerBenchmark;
+import Waisy.benchmark.graphics.SpriteManagerBenchmark;
+import Waisy.benchmark.harness.Benchmark;
+import Waisy.benchmark.harness.BenchmarkRunner;
+import Waisy.benchmark.structures.FlyweightImageFactoryBenchmark;
+import Waisy.benchmark.ui.TextBenchmark;
+import Waisy.core.graphics.RasterBlitter;
+
+/**
+ * Runs the engine benchmarks.
+ *
+ * usage: RunBenchmarks [-wi n] [-i n] [-t ms] [-o results.json] [regex]
+ *
+ * -wi   warmup iterations per benchmark (default 5)
+ * -i    measured iterations per benchmark (default 10)
+ * -t    length of each iteration in ms (default 500)
+ * -o    write the results as JSON to this file
+ * regex only run benchmarks whose name matches
+ *
+ * Run with -Djava.awt.headless=true on machines without a display.
+ * @author waisy
+ *
+ */
+public class RunBenchmarks
+{
+	/**
+	 * @return every benchmark, with every set of parameters
+	 */
+	public static ArrayList<Benchmark> all()
+	{
+		ArrayList<Benchmark> list = new ArrayList<>();
+
+		int[] spriteCounts = { 100, 1000, 10000 };
+		for (int count : spriteCounts)
+			list.add(new SpriteManagerBenchmark(false, count));
+		for (int count : spriteCounts)
+			list.add(new SpriteManagerBenchmark(true, count));
+
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int count : spriteCounts)
+		{
+			list.add(new BandedRendererBenchmark(1, count));
+			if (cores > 1)
+				list.add(new BandedRendererBenchmark(cores, count));
+		}
+
+		list.add(new FlyweightImageFactoryBenchmark(false));
+		list.add(new FlyweightImageFactoryBenchmark(true));
+
+		int[] types = { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_ARGB_PRE,
+				BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_4BYTE_ABGR,
+				BufferedImage.TYPE_BYTE_INDEXED };
+		String[] typeNames = { "INT_ARGB", "INT_ARGB_PRE", "INT_RGB", "4BYTE_ABGR", "BYTE_INDEXED" };
+		for (int size : new int[] { 16, 32 })
+		{
+			for (int i = 0; i < types.length; i++)
+				list.add(new BasicSpritePaintBenchmark(types[i], typeNames[i], size));
+		}
+
+		for (int size : new int[] { 16, 32 })
+		{
+			for (int kind = RasterBlitter.OPAQUE; kind <= RasterBlitter.TRANSLUCENT; kind++)
+			{
+				list.add(new RasterBlitterBenchmark(kind, size, false));
+				list.add(new RasterBlitterBenchmark(kind, size, true));
+			}
+		}
+
+		for (int mode = ParticleBenchmark.UPDATE; mode <= ParticleBenchmark.PAINT_RASTER; mode++)
+			list.add(new ParticleBenchmark(mode, 100000));
+
+		for (boolean antialiased : new boolean[] { true, false })
+		{
+			for (int mode = TextBenchmark.DRAW_STRING; mode <= TextBenchmark.RASTER_CACHED; mode++)
+				list.add(new TextBenchmark(mode, antialiased));
+		}
+
+		for (boolean translucent : new boolean[] { false, true })
+		{
+			for (float scale : new float[] { 1f, 0.75f, 0.5f })
+				list.add(new ResolutionScalerBenchmark(translucent, scale));
+		}
+
+		for (int count : new int[] { 10000, 100000 })
+			list.add(new ScriptSchedulerBenchmark(count));
+
+		list.add(new PathfindingBenchmark(false, 100));
+		for (int count : new int[] { 100, 10000 })
+			list.add(new PathfindingBenchmark(true, count));
+
+		list.add(new GameManagerBenchmark(true));
+		list.add(new GameManagerBenchmark(false));
+
+		return list;
+	}
+
+	public static void main(String[] args)
+			throws IOException
+	{
+		BenchmarkRunner runner = new BenchmarkRunner();
+		String output = null;
+		Pattern filter = null;
+
+		for (int i = 0; i < args.length; i++)
+		{
+			switch (args[i])
+			{
+			case "-wi":
+				runner.setWarmupIterations(Integer.parseInt(args[++i]));
+				break;
+			case "-i":
+				runner.setMeasurementIterations(Integer.parseInt(args[++i]));
+				break;
+			case "-t":
+				runner.setIterationMillis(Long.parseLong(args[++i]));
+				break;
+			case "-o":
+				output = args[++i];
+				break;
+			default:
+				filter = Pattern.compile(args[i]);
+			}
+		}
+
+		for (Benchmark b : all())
+		{
+			if ((filter == null) || filter.matcher(b.getName()).find())
+				runner.run(b);
+		}
+
+		if (output != null)
+		{
+			try (Writer out = new FileWriter(output))
+			{
+				runner.writeJson(out);
+			}
+			System.out.println("Results written to " + output);
+		}
+	}
+}
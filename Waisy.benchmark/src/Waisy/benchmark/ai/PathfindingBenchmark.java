@@ -0,0 +1,122 @@
+package Waisy.benchmark.ai;
+
+import java.util.Random;
+
+import Waisy.benchmark.harness.Benchmark;
+import Waisy.core.graphics.BasicSprite;
+import Waisy.platformer.ai.FlowField;
+import Waisy.platformer.ai.PathService;
+import Waisy.platformer.ai.WalkabilityGrid;
+
+/**
+ * Pathfinding on a 256x256 grid with a fifth of the cells blocked.
+ *
+ * With flow fields, one tick is every enemy looking up its direction
+ * from a shared field, plus the PathService ticking, with the target
+ * moving a cell every few ticks so fields keep being rebuilt.
+ * Otherwise one tick is every enemy running its own jump point
+ * search to the target, as it would without a shared field.
+ * @author waisy
+ *
+ */
+public class PathfindingBenchmark extends Benchmark
+{
+	protected static final int GRID_SIZE = 256;
+
+	protected boolean flowField;
+	protected int enemyCount;
+
+	protected WalkabilityGrid grid;
+	protected PathService service;
+	protected FlowField field;
+	protected BasicSprite target;
+	protected int[] enemyX;
+	protected int[] enemyY;
+	protected int tick;
+
+	/**
+	 * @param flowField true to share a flow field, false for a search
+	 * per enemy
+	 * @param enemyCount number of enemies chasing the target
+	 */
+	public PathfindingBenchmark(boolean flowField, int enemyCount)
+	{
+		this.flowField = flowField;
+		this.enemyCount = enemyCount;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "Pathfinding.tick";
+	}
+
+	@Override
+	public String getParams()
+	{
+		return (flowField ? "flowfield" : "jps") + ",enemies=" + enemyCount;
+	}
+
+	@Override
+	public void setup()
+	{
+		Random random = new Random(42);
+		grid = new WalkabilityGrid(GRID_SIZE, GRID_SIZE, 16);
+		for (int i = 0; i < GRID_SIZE * GRID_SIZE / 5; i++)
+			grid.setBlocked(random.nextInt(GRID_SIZE), random.nextInt(GRID_SIZE), true);
+
+		//clear a row for the target to walk along
+		int mid = GRID_SIZE / 2;
+		for (int x = 0; x < GRID_SIZE; x++)
+			grid.setBlocked(x, mid, false);
+
+		target = new BasicSprite();
+		target.setX(mid * 16);
+		target.setY(mid * 16);
+
+		service = new PathService(grid);
+		field = service.chase(target);
+		while (!field.isReady())
+			service.tick(16f);
+
+		enemyX = new int[enemyCount];
+		enemyY = new int[enemyCount];
+		for (int i = 0; i < enemyCount; i++)
+		{
+			do
+			{
+				enemyX[i] = random.nextInt(GRID_SIZE);
+				enemyY[i] = random.nextInt(GRID_SIZE);
+			} while (!grid.isWalkable(enemyX[i], enemyY[i]));
+		}
+		tick = 0;
+	}
+
+	@Override
+	public void run()
+	{
+		//move the target along its row a cell every 8 ticks
+		tick++;
+		int tx = (GRID_SIZE / 2 + tick / 8) % GRID_SIZE;
+		int ty = GRID_SIZE / 2;
+		target.setX(tx * 16);
+
+		int sum = 0;
+		if (flowField)
+		{
+			service.tick(16f);
+			for (int i = 0; i < enemyCount; i++)
+				sum += field.getDirection(enemyX[i], enemyY[i]);
+		}
+		else
+		{
+			for (int i = 0; i < enemyCount; i++)
+			{
+				int[] path = service.findPath(enemyX[i], enemyY[i], tx, ty);
+				if (path != null)
+					sum += path.length;
+			}
+		}
+		consume(sum);
+	}
+}
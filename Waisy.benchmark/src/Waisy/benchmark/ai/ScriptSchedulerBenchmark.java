@@ -0,0 +1,145 @@
+package Waisy.benchmark.ai;
+
+import Waisy.benchmark.harness.Benchmark;
+import Waisy.platformer.ai.ScriptAction;
+import Waisy.platformer.ai.ScriptCondition;
+import Waisy.platformer.ai.ScriptProgram;
+import Waisy.platformer.ai.ScriptScheduler;
+
+/**
+ * One 16ms tick of a ScriptScheduler running a patrol script
+ * (walk, wait, jump, wait to land, shoot 3 times) on a given number
+ * of entities, including moving the entities so they land. The
+ * entities start spread through the script so they don't all wake
+ * on the same tick.
+ * @author waisy
+ *
+ */
+public class ScriptSchedulerBenchmark extends Benchmark
+{
+	/**
+	 * bare-bones stand-in for an enemy sprite
+	 */
+	protected static class Walker
+	{
+		float x, y, vx, vy;
+		int shots;
+
+		void step(float seconds)
+		{
+			x += vx * seconds;
+			y += vy * seconds;
+			vy = (y < 0) ? vy + 900f * seconds : 0f;
+			if (y > 0)
+				y = 0;
+		}
+	}
+
+	protected static final ScriptAction<Walker> WALK = new ScriptAction<Walker>()
+	{
+		@Override
+		public void run(Walker w)	{	w.vx = 60f;	}
+	};
+
+	protected static final ScriptAction<Walker> STOP = new ScriptAction<Walker>()
+	{
+		@Override
+		public void run(Walker w)	{	w.vx = 0f;	}
+	};
+
+	protected static final ScriptAction<Walker> JUMP = new ScriptAction<Walker>()
+	{
+		@Override
+		public void run(Walker w)
+		{
+			w.y = -1f;
+			w.vy = -300f;
+		}
+	};
+
+	protected static final ScriptAction<Walker> SHOOT = new ScriptAction<Walker>()
+	{
+		@Override
+		public void run(Walker w)	{	w.shots++;	}
+	};
+
+	protected static final ScriptCondition<Walker> ON_GROUND = new ScriptCondition<Walker>()
+	{
+		@Override
+		public boolean test(Walker w)	{	return w.y >= 0;	}
+	};
+
+	protected int scriptCount;
+
+	protected ScriptScheduler scheduler;
+	protected Walker[] walkers;
+
+	/**
+	 * @param scriptCount number of scripted entities
+	 */
+	public ScriptSchedulerBenchmark(int scriptCount)
+	{
+		this.scriptCount = scriptCount;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "ScriptScheduler.tick";
+	}
+
+	@Override
+	public String getParams()
+	{
+		return "scripts=" + scriptCount;
+	}
+
+	@Override
+	public void setup()
+	{
+		ScriptProgram<Walker> patrol = new ScriptProgram<Walker>()
+				.call(WALK).waitFor(2f)
+				.call(STOP).waitFor(0.5f)
+				.call(JUMP).waitUntil(ON_GROUND)
+				.repeat(3)
+					.call(SHOOT).waitFor(0.3f)
+				.end()
+				.loop();
+
+		scheduler = new ScriptScheduler();
+		walkers = new Walker[scriptCount];
+		for (int i = 0; i < scriptCount; i++)
+		{
+			walkers[i] = new Walker();
+			scheduler.start(patrol, walkers[i]);
+
+			//stagger the scripts by ticking as they're added
+			if (i % (scriptCount / 200 + 1) == 0)
+				tick();
+		}
+	}
+
+	protected void tick()
+	{
+		for (int i = 0; i < walkers.length; i++)
+		{
+			//walkers not made yet during setup
+			if (walkers[i] != null)
+				walkers[i].step(0.016f);
+		}
+		scheduler.tick(16f);
+	}
+
+	@Override
+	public void run()
+	{
+		tick();
+		consume(scheduler.getActiveCount());
+	}
+
+	@Override
+	public void teardown()
+	{
+		scheduler.clear();
+	}
+}
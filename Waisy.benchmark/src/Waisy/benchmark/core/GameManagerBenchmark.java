@@ -0,0 +1,54 @@
+package Waisy.benchmark.core;
+
+import Waisy.benchmark.harness.Benchmark;
+import Waisy.core.core.GameManager;
+import Waisy.core.structures.BasicGameState;
+
+/**
+ * GameManager state changes. Each operation pushes a fresh state,
+ * either keeping the old one and reverting back to it, or
+ * throwing the old one away.
+ * @author waisy
+ *
+ */
+public class GameManagerBenchmark extends Benchmark
+{
+	protected boolean keepOldState;
+	protected GameManager gm;
+
+	/**
+	 * @param keepOldState true to benchmark changeState with the old
+	 * state kept followed by revertToPreviousState
+	 */
+	public GameManagerBenchmark(boolean keepOldState)
+	{
+		this.keepOldState = keepOldState;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "GameManager.changeState";
+	}
+
+	@Override
+	public String getParams()
+	{
+		return "keepOldState=" + keepOldState;
+	}
+
+	@Override
+	public void setup()
+	{
+		gm = GameManager.getInstance();
+		gm.Start(null);
+	}
+
+	@Override
+	public void run()
+	{
+		gm.changeState(new BasicGameState(), keepOldState);
+		if (keepOldState)
+			gm.revertToPreviousState();
+	}
+}
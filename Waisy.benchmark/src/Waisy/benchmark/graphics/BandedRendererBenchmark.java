@@ -0,0 +1,72 @@
+package Waisy.benchmark.graphics;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import Waisy.benchmark.harness.Benchmark;
+import Waisy.benchmark.harness.BenchmarkImages;
+import Waisy.core.core.GameSettings;
+import Waisy.core.graphics.BandedRenderer;
+import Waisy.core.graphics.SpriteManager;
+
+/**
+ * BandedRenderer drawing the same scene as SpriteManagerBenchmark,
+ * with a given number of threads. Compare against
+ * SpriteManager.renderList at the same sprite count.
+ * @author waisy
+ *
+ */
+public class BandedRendererBenchmark extends Benchmark
+{
+	protected int threads;
+	protected int spriteCount;
+
+	protected SpriteManager mgr;
+	protected BandedRenderer renderer;
+	protected BufferedImage frame;
+	protected Graphics2D g;
+
+	/**
+	 * @param threads threads drawing, including the benchmark thread
+	 * @param spriteCount number of sprites in the manager
+	 */
+	public BandedRendererBenchmark(int threads, int spriteCount)
+	{
+		this.threads = threads;
+		this.spriteCount = spriteCount;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "BandedRenderer.render";
+	}
+
+	@Override
+	public String getParams()
+	{
+		return "threads=" + threads + ",sprites=" + spriteCount;
+	}
+
+	@Override
+	public void setup()
+	{
+		mgr = SpriteManagerBenchmark.populate(spriteCount);
+		renderer = new BandedRenderer(GameSettings.SCREEN_WIDTH, GameSettings.SCREEN_HEIGHT, threads);
+		frame = BenchmarkImages.frame(GameSettings.SCREEN_WIDTH, GameSettings.SCREEN_HEIGHT);
+		g = frame.createGraphics();
+	}
+
+	@Override
+	public void run()
+	{
+		renderer.render(mgr, g);
+	}
+
+	@Override
+	public void teardown()
+	{
+		renderer.close();
+		g.dispose();
+	}
+}
@@ -0,0 +1,73 @@
+package Waisy.benchmark.graphics;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import Waisy.benchmark.harness.Benchmark;
+import Waisy.benchmark.harness.BenchmarkImages;
+import Waisy.core.graphics.BasicSprite;
+
+/**
+ * BasicSprite.paint for a sprite stored in a given image format,
+ * drawn into an INT_ARGB frame. Java2D has a fast loop for some
+ * format pairs and falls back to slow general loops for others,
+ * so this shows which formats sprites should be converted to.
+ * @author waisy
+ *
+ */
+public class BasicSpritePaintBenchmark extends Benchmark
+{
+	protected int imageType;
+	protected String typeName;
+	protected int size;
+
+	protected BasicSprite sprite;
+	protected BufferedImage frame;
+	protected Graphics2D g;
+
+	/**
+	 * @param imageType BufferedImage type of the sprite
+	 * @param typeName readable name of the type for the results
+	 * @param size width and height of the sprite
+	 */
+	public BasicSpritePaintBenchmark(int imageType, String typeName, int size)
+	{
+		this.imageType = imageType;
+		this.typeName = typeName;
+		this.size = size;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "BasicSprite.paint";
+	}
+
+	@Override
+	public String getParams()
+	{
+		return "format=" + typeName + ",size=" + size;
+	}
+
+	@Override
+	public void setup()
+	{
+		sprite = new BasicSprite(BenchmarkImages.sprite(imageType, size, size));
+		sprite.setX(10);
+		sprite.setY(10);
+		frame = BenchmarkImages.frame(256, 256);
+		g = frame.createGraphics();
+	}
+
+	@Override
+	public void run()
+	{
+		sprite.paint(g);
+	}
+
+	@Override
+	public void teardown()
+	{
+		g.dispose();
+	}
+}
@@ -0,0 +1,118 @@
+package Waisy.benchmark.graphics;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import Waisy.benchmark.harness.Benchmark;
+import Waisy.benchmark.harness.BenchmarkImages;
+import Waisy.core.graphics.IntFrameBuffer;
+import Waisy.core.particles.ParticleEffect;
+import Waisy.core.particles.ParticleEmitter;
+
+/**
+ * One 16ms frame of a screen full of particles, spread over 20
+ * emitters that keep making particles as fast as they die: either
+ * updating them, or drawing them with a Graphics or straight into
+ * an IntFrameBuffer.
+ * @author waisy
+ *
+ */
+public class ParticleBenchmark extends Benchmark
+{
+	public static final int UPDATE = 0;
+	public static final int PAINT = 1;
+	public static final int PAINT_RASTER = 2;
+
+	protected static final String[] MODE_NAMES = { "update", "paint", "raster" };
+
+	protected static final int EMITTERS = 20;
+
+	protected int mode;
+	protected int particleCount;
+
+	protected ParticleEmitter[] emitters;
+	protected BufferedImage frame;
+	protected Graphics2D g;
+	protected IntFrameBuffer fb;
+
+	/**
+	 * @param mode UPDATE, PAINT or PAINT_RASTER
+	 * @param particleCount particles alive across every emitter
+	 */
+	public ParticleBenchmark(int mode, int particleCount)
+	{
+		this.mode = mode;
+		this.particleCount = particleCount;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "ParticleEmitter";
+	}
+
+	@Override
+	public String getParams()
+	{
+		return "mode=" + MODE_NAMES[mode] + ",particles=" + particleCount;
+	}
+
+	@Override
+	public void setup()
+	{
+		//sparks that shrink as they die
+		ParticleEffect sparks = new ParticleEffect(BenchmarkImages.bitmaskSprite(8, 8),
+				BenchmarkImages.bitmaskSprite(7, 7), BenchmarkImages.bitmaskSprite(6, 6));
+		sparks.setLife(1000f, 3000f);
+		sparks.setSpeed(20f, 200f);
+		sparks.setGravity(0f, 50f);
+
+		//enough to replace the particles as they die, which is
+		//every 2 seconds on average
+		int perEmitter = particleCount / EMITTERS;
+		sparks.setRate(perEmitter / 2f);
+
+		emitters = new ParticleEmitter[EMITTERS];
+		for (int i = 0; i < EMITTERS; i++)
+		{
+			emitters[i] = new ParticleEmitter(perEmitter, sparks);
+			emitters[i].setX(40 + (i % 5) * 180);
+			emitters[i].setY(100 + (i / 5) * 130);
+			emitters[i].burst(perEmitter);
+			emitters[i].start();
+		}
+
+		frame = BenchmarkImages.frame(800, 600);
+		g = frame.createGraphics();
+		fb = new IntFrameBuffer(800, 600);
+	}
+
+	@Override
+	public void run()
+	{
+		int total = 0;
+		for (int i = 0; i < EMITTERS; i++)
+		{
+			ParticleEmitter e = emitters[i];
+			switch (mode)
+			{
+			case UPDATE:
+				e.update(16f);
+				break;
+			case PAINT:
+				e.paint(g);
+				break;
+			default:
+				e.paint(fb);
+			}
+			total += e.getParticleCount();
+		}
+		consume(total);
+	}
+
+	@Override
+	public void teardown()
+	{
+		g.dispose();
+	}
+}
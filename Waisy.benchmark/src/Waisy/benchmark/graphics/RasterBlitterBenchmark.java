@@ -0,0 +1,99 @@
+package Waisy.benchmark.graphics;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import Waisy.benchmark.harness.Benchmark;
+import Waisy.benchmark.harness.BenchmarkImages;
+import Waisy.core.graphics.BasicSprite;
+import Waisy.core.graphics.IntFrameBuffer;
+import Waisy.core.graphics.RasterBlitter;
+
+/**
+ * A row of 100 sprites drawn with paint(IntFrameBuffer), or with
+ * paint(Graphics) into the same frame, for each kind of image the
+ * RasterBlitter handles. One op is 100 sprites, so sprites per ms
+ * is 100000 / (ns per op).
+ * @author waisy
+ *
+ */
+public class RasterBlitterBenchmark extends Benchmark
+{
+	public static final int SPRITES = 100;
+
+	protected int kind;
+	protected int size;
+	protected boolean raster;
+
+	protected BasicSprite[] sprites = new BasicSprite[SPRITES];
+	protected IntFrameBuffer frame;
+	protected Graphics2D g;
+
+	/**
+	 * @param kind RasterBlitter.OPAQUE, BITMASK or TRANSLUCENT
+	 * @param size width and height of the sprites
+	 * @param raster true to draw with the blitter, false with drawImage
+	 */
+	public RasterBlitterBenchmark(int kind, int size, boolean raster)
+	{
+		this.kind = kind;
+		this.size = size;
+		this.raster = raster;
+	}
+
+	@Override
+	public String getName()
+	{
+		return raster ? "BasicSprite.paint(IntFrameBuffer)" : "BasicSprite.paint(Graphics)";
+	}
+
+	@Override
+	public String getParams()
+	{
+		String[] kinds = { "opaque", "bitmask", "translucent" };
+		return "kind=" + kinds[kind] + ",size=" + size;
+	}
+
+	@Override
+	public void setup()
+	{
+		BufferedImage img;
+		if (kind == RasterBlitter.OPAQUE)
+			img = BenchmarkImages.sprite(BufferedImage.TYPE_INT_RGB, size, size);
+		else if (kind == RasterBlitter.BITMASK)
+			img = BenchmarkImages.bitmaskSprite(size, size);
+		else
+			img = BenchmarkImages.sprite(BufferedImage.TYPE_INT_ARGB, size, size);
+
+		frame = new IntFrameBuffer(800, 600);
+		g = frame.getImage().createGraphics();
+
+		for (int i = 0; i < SPRITES; i++)
+		{
+			sprites[i] = new BasicSprite(img);
+			sprites[i].setX((i * 7) % (800 - size));
+			sprites[i].setY((i * 5) % (600 - size));
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		if (raster)
+		{
+			for (int i = 0; i < SPRITES; i++)
+				sprites[i].paint(frame);
+		}
+		else
+		{
+			for (int i = 0; i < SPRITES; i++)
+				sprites[i].paint(g);
+		}
+	}
+
+	@Override
+	public void teardown()
+	{
+		g.dispose();
+	}
+}
@@ -0,0 +1,92 @@
+package Waisy.benchmark.graphics;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import Waisy.benchmark.harness.Benchmark;
+import Waisy.benchmark.harness.BenchmarkImages;
+import Waisy.core.core.GameSettings;
+import Waisy.core.graphics.BasicSprite;
+import Waisy.core.graphics.ResolutionScaler;
+import Waisy.core.graphics.SpriteManager;
+
+/**
+ * One frame of a screen full of sprites drawn through a
+ * ResolutionScaler held at a fixed scale, stretch included: either
+ * opaque 32x32 tiles or translucent 24x32 characters. Scale 1 is the
+ * plain renderList the scaler falls back to.
+ * @author waisy
+ *
+ */
+public class ResolutionScalerBenchmark extends Benchmark
+{
+	protected static final int SPRITE_COUNT = 3000;
+
+	protected boolean translucent;
+	protected float scale;
+
+	protected SpriteManager mgr;
+	protected ResolutionScaler scaler;
+	protected BufferedImage frame;
+	protected Graphics2D g;
+
+	/**
+	 * @param translucent true for translucent sprites, false for opaque tiles
+	 * @param scale scale to draw at
+	 */
+	public ResolutionScalerBenchmark(boolean translucent, float scale)
+	{
+		this.translucent = translucent;
+		this.scale = scale;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "ResolutionScaler";
+	}
+
+	@Override
+	public String getParams()
+	{
+		return "sprites=" + (translucent ? "translucent" : "opaque") + ",scale=" + scale;
+	}
+
+	@Override
+	public void setup()
+	{
+		BufferedImage img = translucent
+				? BenchmarkImages.sprite(BufferedImage.TYPE_INT_ARGB, 24, 32)
+				: BenchmarkImages.sprite(BufferedImage.TYPE_INT_RGB, 32, 32);
+		Random random = new Random(42);
+
+		mgr = new SpriteManager();
+		for (int i = 0; i < SPRITE_COUNT; i++)
+		{
+			BasicSprite s = new BasicSprite(img);
+			s.setX(random.nextInt(GameSettings.SCREEN_WIDTH - 24));
+			s.setY(random.nextInt(GameSettings.SCREEN_HEIGHT - 32));
+			mgr.addSprite(s, i % mgr.getLayerCount());
+		}
+
+		//a budget nothing meets, with the scale pinned so it can't move
+		scaler = new ResolutionScaler(GameSettings.SCREEN_WIDTH, GameSettings.SCREEN_HEIGHT,
+				0f, scale, scale);
+		frame = BenchmarkImages.frame(GameSettings.SCREEN_WIDTH, GameSettings.SCREEN_HEIGHT);
+		g = frame.createGraphics();
+	}
+
+	@Override
+	public void run()
+	{
+		scaler.render(mgr, g);
+		consume(scaler.getRenderWidth());
+	}
+
+	@Override
+	public void teardown()
+	{
+		g.dispose();
+	}
+}
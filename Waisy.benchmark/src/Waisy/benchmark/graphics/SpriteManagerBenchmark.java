@@ -0,0 +1,94 @@
+package Waisy.benchmark.graphics;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import Waisy.benchmark.harness.Benchmark;
+import Waisy.benchmark.harness.BenchmarkImages;
+import Waisy.core.core.GameSettings;
+import Waisy.core.graphics.BasicSprite;
+import Waisy.core.graphics.SpriteManager;
+
+/**
+ * SpriteManager.updateList and renderList over a given number of
+ * 16x16 sprites spread across every layer of an 800x600 screen.
+ * Rendering is into an offscreen BufferedImage.
+ * @author waisy
+ *
+ */
+public class SpriteManagerBenchmark extends Benchmark
+{
+	protected boolean render;
+	protected int spriteCount;
+
+	protected SpriteManager mgr;
+	protected BufferedImage frame;
+	protected Graphics2D g;
+
+	/**
+	 * @param render true to benchmark renderList, false for updateList
+	 * @param spriteCount number of sprites in the manager
+	 */
+	public SpriteManagerBenchmark(boolean render, int spriteCount)
+	{
+		this.render = render;
+		this.spriteCount = spriteCount;
+	}
+
+	@Override
+	public String getName()
+	{
+		return render ? "SpriteManager.renderList" : "SpriteManager.updateList";
+	}
+
+	@Override
+	public String getParams()
+	{
+		return "sprites=" + spriteCount;
+	}
+
+	@Override
+	public void setup()
+	{
+		mgr = populate(spriteCount);
+		frame = BenchmarkImages.frame(GameSettings.SCREEN_WIDTH, GameSettings.SCREEN_HEIGHT);
+		g = frame.createGraphics();
+	}
+
+	/**
+	 * build a sprite manager holding spriteCount 16x16 sprites
+	 * spread over the screen and over every layer
+	 */
+	public static SpriteManager populate(int spriteCount)
+	{
+		SpriteManager mgr = new SpriteManager();
+		BufferedImage img = BenchmarkImages.sprite(BufferedImage.TYPE_INT_ARGB, 16, 16);
+		Random random = new Random(42);
+
+		for (int i = 0; i < spriteCount; i++)
+		{
+			BasicSprite s = new BasicSprite(img);
+			s.setX(random.nextInt(GameSettings.SCREEN_WIDTH - 16));
+			s.setY(random.nextInt(GameSettings.SCREEN_HEIGHT - 16));
+			mgr.addSprite(s, i % mgr.getLayerCount());
+		}
+
+		return mgr;
+	}
+
+	@Override
+	public void run()
+	{
+		if (render)
+			mgr.renderList(g);
+		else
+			mgr.updateList(16f);
+	}
+
+	@Override
+	public void teardown()
+	{
+		g.dispose();
+	}
+}
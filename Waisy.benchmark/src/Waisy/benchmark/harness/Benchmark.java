@@ -0,0 +1,65 @@
+package Waisy.benchmark.harness;
+
+/**
+ * A single benchmark. The runner calls setup once, then calls run
+ * over and over, timing how long each call takes on average.
+ *
+ * run should do one operation's worth of work and nothing else.
+ * Pass anything it computes to consume() so the JIT can't
+ * throw the work away.
+ * @author waisy
+ * @see BenchmarkRunner
+ */
+public abstract class Benchmark
+{
+	/**
+	 * results handed to consume. Read by the runner after each
+	 * iteration so the work can't be optimized away.
+	 */
+	protected long blackhole = 0;
+
+	/**
+	 * @return name of the benchmark, such as "SpriteManager.renderList"
+	 */
+	public abstract String getName();
+
+	/**
+	 * @return parameters of this run, such as "sprites=1000".
+	 * Empty if the benchmark has none.
+	 */
+	public String getParams()
+	{
+		return "";
+	}
+
+	/**
+	 * prepare the benchmark. Not timed.
+	 * @throws Exception setup failed. The benchmark is skipped.
+	 */
+	public void setup()
+			throws Exception
+	{
+	}
+
+	/**
+	 * do one operation. Timed.
+	 */
+	public abstract void run();
+
+	/**
+	 * clean up after the benchmark. Not timed.
+	 */
+	public void teardown()
+	{
+	}
+
+	protected void consume(long value)
+	{
+		blackhole ^= value;
+	}
+
+	protected void consume(Object o)
+	{
+		blackhole ^= System.identityHashCode(o);
+	}
+}
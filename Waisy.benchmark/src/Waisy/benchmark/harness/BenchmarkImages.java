@@ -0,0 +1,69 @@
+package Waisy.benchmark.harness;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Builds sprite images for benchmarks, so benchmarks don't depend
+ * on image files.
+ * @author waisy
+ *
+ */
+public class BenchmarkImages
+{
+	/**
+	 * Create a sprite image with a transparent border and a
+	 * semi-transparent stripe, so every alpha case is exercised.
+	 * Image types without alpha end up fully opaque.
+	 * @param type BufferedImage type
+	 * @param width image width
+	 * @param height image height
+	 * @return a new image
+	 */
+	public static BufferedImage sprite(int type, int width, int height)
+	{
+		BufferedImage img = new BufferedImage(width, height, type);
+		Graphics2D g = img.createGraphics();
+		Random random = new Random(width * 31 + height);
+
+		//solid body with a transparent 2px border
+		g.setColor(new Color(random.nextInt(0xFFFFFF)));
+		g.fillRect(2, 2, width - 4, height - 4);
+		//translucent stripe through the middle
+		g.setColor(new Color(255, 255, 255, 128));
+		g.fillRect(2, height / 2 - 1, width - 4, 2);
+
+		g.dispose();
+		return img;
+	}
+
+	/**
+	 * Create a sprite image with a transparent border and no
+	 * partly transparent pixels.
+	 * @param width image width
+	 * @param height image height
+	 * @return a new INT_ARGB image
+	 */
+	public static BufferedImage bitmaskSprite(int width, int height)
+	{
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = img.createGraphics();
+		Random random = new Random(width * 31 + height);
+
+		g.setColor(new Color(random.nextInt(0xFFFFFF)));
+		g.fillRect(2, 2, width - 4, height - 4);
+
+		g.dispose();
+		return img;
+	}
+
+	/**
+	 * @return a blank frame to render into
+	 */
+	public static BufferedImage frame(int width, int height)
+	{
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+	}
+}
@@ -0,0 +1,104 @@
+package Waisy.benchmark.harness;
+
+/**
+ * Timing results of one benchmark. Scores are in nanoseconds
+ * per operation, one per measurement iteration.
+ * @author waisy
+ *
+ */
+public class BenchmarkResult
+{
+	/**
+	 * two-sided 99.9% student t quantiles for 1 to 30 degrees of freedom
+	 */
+	protected static final double[] T_999 = { 636.619, 31.599, 12.924, 8.610, 6.869,
+			5.959, 5.408, 5.041, 4.781, 4.587, 4.437, 4.318, 4.221, 4.140, 4.073,
+			4.015, 3.965, 3.922, 3.883, 3.850, 3.819, 3.792, 3.768, 3.745, 3.725,
+			3.707, 3.690, 3.674, 3.659, 3.646 };
+
+	protected String name;
+	protected String params;
+	protected double[] nanosPerOp;
+
+	public BenchmarkResult(String name, String params, double[] nanosPerOp)
+	{
+		this.name = name;
+		this.params = params;
+		this.nanosPerOp = nanosPerOp;
+	}
+
+	public String getName()			{	return name;	}
+	public String getParams()		{	return params;	}
+
+	/**
+	 * @return ns/op of each measurement iteration
+	 */
+	public double[] getRawData()	{	return nanosPerOp;	}
+
+	/**
+	 * @return mean ns/op over every measurement iteration
+	 */
+	public double getMean()
+	{
+		double sum = 0;
+		for (double d : nanosPerOp)
+			sum += d;
+		return sum / nanosPerOp.length;
+	}
+
+	/**
+	 * @return sample standard deviation of the ns/op
+	 */
+	public double getStdDev()
+	{
+		if (nanosPerOp.length < 2)
+			return 0;
+
+		double mean = getMean();
+		double sum = 0;
+		for (double d : nanosPerOp)
+			sum += (d - mean) * (d - mean);
+		return Math.sqrt(sum / (nanosPerOp.length - 1));
+	}
+
+	/**
+	 * @return half-width of the 99.9% confidence interval of the mean,
+	 * the way JMH computes scoreError. NaN with fewer than 2 iterations.
+	 */
+	public double getScoreError()
+	{
+		int n = nanosPerOp.length;
+		if (n < 2)
+			return Double.NaN;
+
+		int df = n - 1;
+		//past the table the quantile closes in on the normal one,
+		//3.291, roughly as 1/df
+		double t = (df <= T_999.length) ? T_999[df - 1]
+				: 3.291 + (T_999[T_999.length - 1] - 3.291) * T_999.length / df;
+		return t * getStdDev() / Math.sqrt(n);
+	}
+
+	public double getMin()
+	{
+		double min = Double.MAX_VALUE;
+		for (double d : nanosPerOp)
+			min = Math.min(min, d);
+		return min;
+	}
+
+	public double getMax()
+	{
+		double max = 0;
+		for (double d : nanosPerOp)
+			max = Math.max(max, d);
+		return max;
+	}
+
+	@Override
+	public String toString()
+	{
+		String label = params.isEmpty() ? name : name + " (" + params + ")";
+		return String.format("%-60s %14.1f ns/op  +- %10.1f (99.9%%)", label, getMean(), getScoreError());
+	}
+}
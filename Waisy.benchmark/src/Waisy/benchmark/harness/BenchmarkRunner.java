@@ -0,0 +1,200 @@
+package Waisy.benchmark.harness;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs benchmarks and collects their results.
+ *
+ * Each benchmark gets a number of warmup iterations, so the JIT has
+ * compiled the hot path, then a number of measured iterations. An
+ * iteration calls run() in growing batches until the iteration time
+ * is used up, so fast operations aren't dominated by reading the clock.
+ *
+ * Results can be written as JSON in the same layout JMH uses
+ * (benchmark, params, mode, primaryMetric), so they can be fed to
+ * the same tools for tracking regressions between engine versions.
+ * scoreError is the half-width of the 99.9% confidence interval, as
+ * in JMH.
+ *
+ * Unlike JMH, every benchmark runs in this one JVM, one after
+ * another, rather than in forked JVMs of their own, so a benchmark's
+ * score can be swayed by what the JIT saw in the benchmarks before
+ * it. The JSON reports forks as 0 to say so. When that matters, run
+ * one benchmark per process by passing a regex.
+ * @author waisy
+ *
+ */
+public class BenchmarkRunner
+{
+	protected int warmupIterations = 5;
+	protected int measurementIterations = 10;
+	protected long iterationNanos = 500L * 1000 * 1000;
+
+	/**
+	 * every result so far. written out by writeJson
+	 */
+	protected ArrayList<BenchmarkResult> results = new ArrayList<>();
+
+	/**
+	 * published blackhole values, so the JIT can't prove they're unused
+	 */
+	public static volatile long sink;
+
+	public void setWarmupIterations(int iterations)			{	warmupIterations = iterations;	}
+	public void setMeasurementIterations(int iterations)	{	measurementIterations = iterations;	}
+	public void setIterationMillis(long ms)					{	iterationNanos = ms * 1000 * 1000;	}
+
+	public List<BenchmarkResult> getResults()
+	{
+		return results;
+	}
+
+	/**
+	 * run a benchmark and keep its result
+	 * @param b benchmark to run
+	 * @return the result, or null if setup failed
+	 */
+	public BenchmarkResult run(Benchmark b)
+	{
+		try
+		{
+			b.setup();
+		}
+		catch (Exception e)
+		{
+			System.out.println("Skipping " + b.getName() + ": " + e);
+			return null;
+		}
+
+		double[] scores = new double[measurementIterations];
+		try
+		{
+			for (int i = 0; i < warmupIterations; i++)
+				iteration(b);
+
+			for (int i = 0; i < measurementIterations; i++)
+				scores[i] = iteration(b);
+		}
+		finally
+		{
+			b.teardown();
+		}
+
+		BenchmarkResult result = new BenchmarkResult(b.getName(), b.getParams(), scores);
+		results.add(result);
+		System.out.println(result);
+		return result;
+	}
+
+	/**
+	 * run one iteration
+	 * @return average ns/op
+	 */
+	protected double iteration(Benchmark b)
+	{
+		long ops = 0;
+		long batch = 1;
+		long start = System.nanoTime();
+		long elapsed = 0;
+
+		while (elapsed < iterationNanos)
+		{
+			long batchStart = System.nanoTime();
+			for (long i = 0; i < batch; i++)
+				b.run();
+			long now = System.nanoTime();
+
+			ops += batch;
+			elapsed = now - start;
+
+			//grow the batch until a batch takes about 10ms
+			if (now - batchStart < 10L * 1000 * 1000)
+				batch *= 2;
+		}
+
+		sink ^= b.blackhole;
+		return (double) elapsed / ops;
+	}
+
+	/**
+	 * Write every result as a JMH-style JSON array.
+	 * Scores are reported in ns/op, mode "avgt".
+	 * @param out writer to write to. Not closed.
+	 * @throws IOException the writer failed
+	 */
+	public void writeJson(Writer out)
+			throws IOException
+	{
+		out.write("[\n");
+		for (int i = 0; i < results.size(); i++)
+		{
+			BenchmarkResult r = results.get(i);
+			out.write("  {\n");
+			out.write("    \"benchmark\" : \"" + escape(r.getName()) + "\",\n");
+			out.write("    \"mode\" : \"avgt\",\n");
+			out.write("    \"forks\" : 0,\n");
+			out.write("    \"warmupIterations\" : " + warmupIterations + ",\n");
+			out.write("    \"measurementIterations\" : " + measurementIterations + ",\n");
+			out.write("    \"params\" : {");
+			writeParams(r.getParams(), out);
+			out.write("},\n");
+			out.write("    \"primaryMetric\" : {\n");
+			out.write("      \"score\" : " + number(r.getMean()) + ",\n");
+			out.write("      \"scoreError\" : " + number(r.getScoreError()) + ",\n");
+			out.write("      \"scoreConfidence\" : [" + number(r.getMean() - r.getScoreError())
+					+ ", " + number(r.getMean() + r.getScoreError()) + "],\n");
+			out.write("      \"scoreUnit\" : \"ns/op\",\n");
+			out.write("      \"min\" : " + number(r.getMin()) + ",\n");
+			out.write("      \"max\" : " + number(r.getMax()) + ",\n");
+			out.write("      \"rawData\" : [");
+			double[] raw = r.getRawData();
+			for (int j = 0; j < raw.length; j++)
+			{
+				if (j > 0)
+					out.write(", ");
+				out.write(number(raw[j]));
+			}
+			out.write("]\n");
+			out.write("    }\n");
+			out.write((i < results.size() - 1) ? "  },\n" : "  }\n");
+		}
+		out.write("]\n");
+	}
+
+	/**
+	 * params are "key=value,key=value"
+	 */
+	protected void writeParams(String params, Writer out)
+			throws IOException
+	{
+		if (params.isEmpty())
+			return;
+
+		String[] pairs = params.split(",");
+		for (int i = 0; i < pairs.length; i++)
+		{
+			String[] kv = pairs[i].split("=", 2);
+			if (i > 0)
+				out.write(", ");
+			out.write("\"" + escape(kv[0].trim()) + "\" : \""
+					+ escape((kv.length > 1) ? kv[1].trim() : "") + "\"");
+		}
+	}
+
+	protected static String number(double d)
+	{
+		//json has no NaN, so write it as a string like JMH does
+		if (Double.isNaN(d))
+			return "\"NaN\"";
+		return String.format(Locale.ROOT, "%.3f", d);
+	}
+
+	protected static String escape(String s)
+	{
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+}
@@ -0,0 +1,86 @@
+package Waisy.benchmark.structures;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import Waisy.benchmark.harness.Benchmark;
+import Waisy.core.structures.FlyweightImageFactory;
+
+/**
+ * FlyweightImageFactory lookups. "get" is the steady-state case of
+ * retrieving an already loaded sprite; "load" flushes the factory
+ * each time so every call decodes the image from the classpath.
+ * @author waisy
+ *
+ */
+public class FlyweightImageFactoryBenchmark extends Benchmark
+{
+	/**
+	 * small png shipped with the benchmarks
+	 */
+	public static final String TILE_PATH = "Waisy/benchmark/res/tile16.png";
+
+	protected boolean load;
+	protected FlyweightImageFactory factory;
+
+	/**
+	 * discards the "successfully loaded" line BasicSprite prints for every
+	 * load, which would otherwise be most of what's being measured
+	 */
+	protected PrintStream stdout;
+
+	/**
+	 * @param load true to benchmark loading, false for retrieving
+	 */
+	public FlyweightImageFactoryBenchmark(boolean load)
+	{
+		this.load = load;
+	}
+
+	@Override
+	public String getName()
+	{
+		return load ? "FlyweightImageFactory.load" : "FlyweightImageFactory.get";
+	}
+
+	@Override
+	public void setup()
+			throws IOException
+	{
+		factory = new FlyweightImageFactory();
+		//make sure the resource is there before timing anything
+		factory.getBasicSprite("tile", TILE_PATH);
+
+		stdout = System.out;
+		System.setOut(new PrintStream(new OutputStream()
+		{
+			@Override
+			public void write(int b)
+			{
+			}
+		}));
+	}
+
+	@Override
+	public void run()
+	{
+		if (load)
+			factory.flushFactory();
+
+		try
+		{
+			consume(factory.getBasicSprite("tile", TILE_PATH));
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void teardown()
+	{
+		System.setOut(stdout);
+	}
+}
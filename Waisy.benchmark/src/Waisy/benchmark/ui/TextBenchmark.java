@@ -0,0 +1,135 @@
+package Waisy.benchmark.ui;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import Waisy.benchmark.harness.Benchmark;
+import Waisy.benchmark.harness.BenchmarkImages;
+import Waisy.core.graphics.IntFrameBuffer;
+import Waisy.core.ui.AtlasTextRenderer;
+import Waisy.core.ui.GlyphAtlas;
+
+/**
+ * One frame of HUD text: a score, a coin count and a timer, the timer
+ * changing every frame. Drawn either with Graphics.drawChars, glyph by
+ * glyph from a GlyphAtlas, with an AtlasTextRenderer caching the
+ * strings that don't change, glyph by glyph straight into an
+ * IntFrameBuffer, or into an IntFrameBuffer with the renderer caching
+ * the strings that don't change.
+ *
+ * Text is drawn either antialiased or with hard edges, which is how
+ * drawChars draws by default and what the profiler overlay uses.
+ * @author waisy
+ *
+ */
+public class TextBenchmark extends Benchmark
+{
+	public static final int DRAW_STRING = 0;
+	public static final int ATLAS = 1;
+	public static final int CACHED = 2;
+	public static final int RASTER = 3;
+	public static final int RASTER_CACHED = 4;
+
+	protected static final String[] MODE_NAMES = { "drawString", "atlas", "cached", "raster",
+			"rasterCached" };
+
+	protected int mode;
+	protected boolean antialiased;
+
+	protected char[] score = "SCORE 0012450".toCharArray();
+	protected char[] coins = "COINS x 42".toCharArray();
+	protected char[] timer = "TIME 000".toCharArray();
+	protected int frame = 0;
+
+	protected BufferedImage image;
+	protected Graphics2D g;
+	protected GlyphAtlas atlas;
+	protected AtlasTextRenderer renderer;
+	protected IntFrameBuffer fb;
+
+	/**
+	 * @param mode DRAW_STRING, ATLAS, CACHED, RASTER or RASTER_CACHED
+	 * @param antialiased true for smooth edges, false for hard pixel edges
+	 */
+	public TextBenchmark(int mode, boolean antialiased)
+	{
+		this.mode = mode;
+		this.antialiased = antialiased;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "HudText";
+	}
+
+	@Override
+	public String getParams()
+	{
+		return "mode=" + MODE_NAMES[mode] + " aa=" + antialiased;
+	}
+
+	@Override
+	public void setup()
+	{
+		Font font = new Font(Font.SANS_SERIF, Font.BOLD, 16);
+		image = BenchmarkImages.frame(800, 600);
+		g = image.createGraphics();
+		g.setFont(font);
+		g.setColor(Color.white);
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, antialiased
+				? RenderingHints.VALUE_TEXT_ANTIALIAS_ON : RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+
+		atlas = new GlyphAtlas(font, Color.white, antialiased, GlyphAtlas.ASCII);
+		renderer = new AtlasTextRenderer(atlas);
+		fb = new IntFrameBuffer(800, 600);
+	}
+
+	@Override
+	public void run()
+	{
+		//the timer's last digits tick over every frame
+		frame++;
+		timer[7] = (char) ('0' + frame % 10);
+		timer[6] = (char) ('0' + (frame / 10) % 10);
+		timer[5] = (char) ('0' + (frame / 100) % 10);
+
+		switch (mode)
+		{
+		case DRAW_STRING:
+			g.drawChars(score, 0, score.length, 10, 20);
+			g.drawChars(coins, 0, coins.length, 10, 40);
+			g.drawChars(timer, 0, timer.length, 700, 20);
+			break;
+		case ATLAS:
+			atlas.drawChars(g, score, 0, score.length, 10, 20);
+			atlas.drawChars(g, coins, 0, coins.length, 10, 40);
+			atlas.drawChars(g, timer, 0, timer.length, 700, 20);
+			break;
+		case CACHED:
+			renderer.drawChars(g, score, 0, score.length, 10, 20);
+			renderer.drawChars(g, coins, 0, coins.length, 10, 40);
+			renderer.drawChars(g, timer, 0, timer.length, 700, 20);
+			break;
+		case RASTER:
+			atlas.drawChars(fb, score, 0, score.length, 10, 20);
+			atlas.drawChars(fb, coins, 0, coins.length, 10, 40);
+			atlas.drawChars(fb, timer, 0, timer.length, 700, 20);
+			break;
+		default:
+			renderer.drawChars(fb, score, 0, score.length, 10, 20);
+			renderer.drawChars(fb, coins, 0, coins.length, 10, 40);
+			renderer.drawChars(fb, timer, 0, timer.length, 700, 20);
+		}
+		consume(frame);
+	}
+
+	@Override
+	public void teardown()
+	{
+		g.dispose();
+	}
+}
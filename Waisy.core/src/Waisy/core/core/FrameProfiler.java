@@ -0,0 +1,454 @@
+package Waisy.core.core;
+
+import java.awt.Font;
+import java.awt.Graphics;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+import Waisy.core.graphics.IntFrameBuffer;
+import Waisy.core.graphics.SpriteManager;
+import Waisy.core.ui.AtlasTextRenderer;
+import Waisy.core.ui.GlyphAtlas;
+
+/**
+ * Times where each frame goes. The GameManager and SpriteManager
+ * report every phase of the frame (state update and render, each
+ * layer's update and render, UI) into fixed-size histograms, and
+ * count the sprites drawn and culled. Once per frame the profiler
+ * also samples how many bytes the game thread allocated and how
+ * long the garbage collector ran.
+ *
+ * To turn profiling on, set GameSettings.profiler to a FrameProfiler.
+ * When it is null (the default), the engine skips every timing call,
+ * so there is no cost to leaving the hooks in.
+ *
+ * Poll the histograms from the game thread, or turn on the overlay
+ * to have the GameManager draw a summary over the game. Under the
+ * RasterRenderer the overlay is drawn into the frame's pixels instead,
+ * from kept strings, and its time counts towards the render phase.
+ * @author waisy
+ *
+ */
+public class FrameProfiler
+{
+	public static final int PHASE_UPDATE = 0;
+	public static final int PHASE_RENDER = 1;
+	public static final int PHASE_UI = 2;
+	/**
+	 * time from the start of one frame to the start of the next
+	 */
+	public static final int PHASE_FRAME = 3;
+
+	public static final int PHASE_COUNT = 4;
+
+	protected static final String[] PHASE_NAMES = { "update", "render", "ui", "frame" };
+
+	/**
+	 * a line per phase, then sprite counts, then allocations
+	 */
+	protected static final int OVERLAY_LINES = PHASE_COUNT + 2;
+
+	/**
+	 * font overlays drawn into a frame buffer use, the same as a
+	 * Graphics' default so both look alike
+	 */
+	protected static final Font OVERLAY_FONT = new Font(Font.DIALOG, Font.PLAIN, 12);
+
+	protected LatencyHistogram[] phases = new LatencyHistogram[PHASE_COUNT];
+	protected LatencyHistogram[] layerUpdates = new LatencyHistogram[SpriteManager.LAYER_COUNT];
+	protected LatencyHistogram[] layerRenders = new LatencyHistogram[SpriteManager.LAYER_COUNT];
+
+	/**
+	 * bytes allocated by the game thread per frame
+	 */
+	protected LatencyHistogram allocations = new LatencyHistogram();
+
+	//sprite counts of the frame in progress and of the last full frame
+	protected int spritesDrawn = 0;
+	protected int spritesCulled = 0;
+	protected int lastSpritesDrawn = 0;
+	protected int lastSpritesCulled = 0;
+
+	/**
+	 * scale the last frame was rendered at, 1 for full size
+	 */
+	protected float renderScale = 1f;
+
+	protected long frameStart = 0;
+	protected long frameCount = 0;
+
+	//allocation and gc sampling
+	protected com.sun.management.ThreadMXBean allocationBean = null;
+	protected List<GarbageCollectorMXBean> gcBeans;
+	protected long lastAllocatedBytes = -1;
+	protected long lastFrameAllocatedBytes = -1;
+	protected long lastGcMillis = 0;
+	protected long lastFrameGcMillis = 0;
+	protected long totalGcMillis = 0;
+
+	protected boolean overlayVisible = false;
+
+	/**
+	 * overlay line being built. reused every frame so drawing the
+	 * overlay doesn't allocate
+	 */
+	protected char[] line = new char[128];
+	protected int lineLength = 0;
+
+	/**
+	 * draws the overlay into frame buffers. made the first time it's
+	 * needed, and again if the font colour changes.
+	 */
+	protected AtlasTextRenderer overlayText = null;
+
+	/**
+	 * true once the overlay has been drawn into the frame, so the
+	 * GameManager's draw of it is skipped
+	 */
+	protected boolean overlayDrawn = false;
+
+	public FrameProfiler()
+	{
+		for (int i = 0; i < PHASE_COUNT; i++)
+			phases[i] = new LatencyHistogram();
+		for (int i = 0; i < SpriteManager.LAYER_COUNT; i++)
+		{
+			layerUpdates[i] = new LatencyHistogram();
+			layerRenders[i] = new LatencyHistogram();
+		}
+
+		//allocation counting is a HotSpot extension. do without it
+		//on vms that don't have it.
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean)
+		{
+			allocationBean = (com.sun.management.ThreadMXBean) threads;
+			if (!allocationBean.isThreadAllocatedMemorySupported())
+				allocationBean = null;
+			else if (!allocationBean.isThreadAllocatedMemoryEnabled())
+				allocationBean.setThreadAllocatedMemoryEnabled(true);
+		}
+
+		gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+		lastGcMillis = gcMillis();
+	}
+
+	//------------------ recording. called by the engine
+
+	/**
+	 * Mark the start of a frame. Called by the GameManager at the
+	 * start of each update. Closes off the previous frame's counts
+	 * and samples allocations and gc time since the last frame.
+	 */
+	public void beginFrame()
+	{
+		long now = System.nanoTime();
+		if (frameStart != 0)
+			phases[PHASE_FRAME].record(now - frameStart);
+		frameStart = now;
+		frameCount++;
+
+		lastSpritesDrawn = spritesDrawn;
+		lastSpritesCulled = spritesCulled;
+		spritesDrawn = 0;
+		spritesCulled = 0;
+		renderScale = 1f;
+
+		if (allocationBean != null)
+		{
+			long allocated = allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			if (lastAllocatedBytes >= 0)
+			{
+				lastFrameAllocatedBytes = allocated - lastAllocatedBytes;
+				allocations.record(lastFrameAllocatedBytes);
+			}
+			lastAllocatedBytes = allocated;
+		}
+
+		long gc = gcMillis();
+		lastFrameGcMillis = gc - lastGcMillis;
+		totalGcMillis += lastFrameGcMillis;
+		lastGcMillis = gc;
+	}
+
+	/**
+	 * record how long a phase of the frame took
+	 * @param phase one of the PHASE constants
+	 * @param nanos time taken
+	 */
+	public void recordPhase(int phase, long nanos)
+	{
+		phases[phase].record(nanos);
+	}
+
+	/**
+	 * record how long a layer took to update. Layers beyond the
+	 * standard SpriteManager layers are not tracked.
+	 */
+	public void recordLayerUpdate(int layer, long nanos)
+	{
+		if (layer < layerUpdates.length)
+			layerUpdates[layer].record(nanos);
+	}
+
+	/**
+	 * record how long a layer took to render. Layers beyond the
+	 * standard SpriteManager layers are not tracked.
+	 */
+	public void recordLayerRender(int layer, long nanos)
+	{
+		if (layer < layerRenders.length)
+			layerRenders[layer].record(nanos);
+	}
+
+	/**
+	 * record sprite counts from one render pass
+	 * @param drawn sprites painted
+	 * @param culled sprites skipped for being off screen
+	 */
+	public void countSprites(int drawn, int culled)
+	{
+		spritesDrawn += drawn;
+		spritesCulled += culled;
+	}
+
+	/**
+	 * Called by renderers that draw at a lower resolution. Frames
+	 * that don't call it count as full size.
+	 * @param scale scale the frame was rendered at, 1 for full size
+	 */
+	public void setRenderScale(float scale)
+	{
+		renderScale = scale;
+	}
+
+	protected long gcMillis()
+	{
+		long total = 0;
+		for (int i = 0; i < gcBeans.size(); i++)
+		{
+			long t = gcBeans.get(i).getCollectionTime();
+			if (t > 0)
+				total += t;
+		}
+		return total;
+	}
+
+	//------------------ polling
+
+	/**
+	 * @param phase one of the PHASE constants
+	 * @return the histogram of the phase's times in ns
+	 */
+	public LatencyHistogram getPhase(int phase)		{	return phases[phase];	}
+
+	/**
+	 * @param layer SpriteManager layer constant
+	 * @return the histogram of the layer's update times in ns
+	 */
+	public LatencyHistogram getLayerUpdate(int layer)	{	return layerUpdates[layer];	}
+
+	/**
+	 * @param layer SpriteManager layer constant
+	 * @return the histogram of the layer's render times in ns
+	 */
+	public LatencyHistogram getLayerRender(int layer)	{	return layerRenders[layer];	}
+
+	/**
+	 * @return histogram of bytes allocated by the game thread per frame.
+	 * Empty if the vm can't report allocations.
+	 */
+	public LatencyHistogram getAllocations()		{	return allocations;	}
+
+	public long getFrameCount()				{	return frameCount;	}
+	public int getLastSpritesDrawn()		{	return lastSpritesDrawn;	}
+	public int getLastSpritesCulled()		{	return lastSpritesCulled;	}
+	public float getRenderScale()			{	return renderScale;	}
+
+	/**
+	 * @return bytes allocated by the game thread during the last frame,
+	 * or -1 if the vm can't report allocations
+	 */
+	public long getLastFrameAllocatedBytes()	{	return lastFrameAllocatedBytes;	}
+
+	/**
+	 * @return ms spent in garbage collection during the last frame
+	 */
+	public long getLastFrameGcMillis()		{	return lastFrameGcMillis;	}
+
+	/**
+	 * @return ms spent in garbage collection since profiling started
+	 */
+	public long getTotalGcMillis()			{	return totalGcMillis;	}
+
+	/**
+	 * clear every histogram and counter
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < PHASE_COUNT; i++)
+			phases[i].reset();
+		for (int i = 0; i < SpriteManager.LAYER_COUNT; i++)
+		{
+			layerUpdates[i].reset();
+			layerRenders[i].reset();
+		}
+		allocations.reset();
+		frameCount = 0;
+		frameStart = 0;
+		totalGcMillis = 0;
+	}
+
+	//------------------ overlay
+
+	/**
+	 * show or hide the on-screen summary drawn by the GameManager
+	 */
+	public void setOverlayVisible(boolean visible)	{	overlayVisible = visible;	}
+	public boolean isOverlayVisible()				{	return overlayVisible;	}
+
+	/**
+	 * Draw a summary of the phase timings in the top-left corner.
+	 * The text is built in a reused buffer rather than with strings,
+	 * so the overlay doesn't show up in the allocation numbers it draws.
+	 * Draws nothing if the overlay was already drawn into this frame's
+	 * pixels by renderOverlay(IntFrameBuffer).
+	 * @param g graphics to draw into
+	 */
+	public void renderOverlay(Graphics g)
+	{
+		if (overlayDrawn)
+		{
+			overlayDrawn = false;
+			return;
+		}
+
+		int lineHeight = g.getFontMetrics().getHeight();
+		g.setColor(GameSettings.COLOR_FONT);
+		for (int i = 0; i < OVERLAY_LINES; i++)
+		{
+			buildOverlayLine(i);
+			g.drawChars(line, 0, lineLength, 4, lineHeight * (i + 1));
+		}
+	}
+
+	/**
+	 * Draw the summary straight into a frame's pixels, for renderers
+	 * that draw the whole frame into an IntFrameBuffer. Most lines are
+	 * the same from frame to frame, so they're drawn from strings the
+	 * text renderer keeps, which is quicker than Graphics.drawChars.
+	 * The GameManager then skips drawing the overlay itself.
+	 * @param fb frame to draw into
+	 */
+	public void renderOverlay(IntFrameBuffer fb)
+	{
+		AtlasTextRenderer text = overlayText;
+		if ((text == null) || !text.getAtlas().matches(OVERLAY_FONT, GameSettings.COLOR_FONT))
+		{
+			//hard edges, as drawChars has by default, also keep the
+			//strings' pixels solid or clear so they're copied unblended
+			text = new AtlasTextRenderer(new GlyphAtlas(OVERLAY_FONT, GameSettings.COLOR_FONT,
+					false, GlyphAtlas.ASCII));
+			overlayText = text;
+		}
+
+		int lineHeight = text.getAtlas().getLineHeight();
+		for (int i = 0; i < OVERLAY_LINES; i++)
+		{
+			buildOverlayLine(i);
+			text.drawChars(fb, line, 0, lineLength, 4, lineHeight * (i + 1));
+		}
+		overlayDrawn = true;
+	}
+
+	/**
+	 * build an overlay line in the line buffer
+	 * @param n line to build, 0 up to OVERLAY_LINES
+	 */
+	protected void buildOverlayLine(int n)
+	{
+		lineLength = 0;
+		if (n < PHASE_COUNT)
+		{
+			appendText(PHASE_NAMES[n], 7);
+			appendText("p50 ", 0);
+			appendMillis(phases[n].getPercentile(50));
+			appendText("  p99 ", 0);
+			appendMillis(phases[n].getPercentile(99));
+			appendText("  max ", 0);
+			appendMillis(phases[n].getMax());
+		}
+		else if (n == PHASE_COUNT)
+		{
+			appendText("sprites drawn ", 0);
+			appendNumber(lastSpritesDrawn, 0);
+			appendText("  culled ", 0);
+			appendNumber(lastSpritesCulled, 0);
+			appendText("  scale ", 0);
+			appendNumber(Math.round(renderScale * 100f), 0);
+			appendText("%", 0);
+		}
+		else
+		{
+			appendText("alloc/frame ", 0);
+			appendNumber(lastFrameAllocatedBytes, 0);
+			appendText("B  gc/frame ", 0);
+			appendNumber(lastFrameGcMillis, 0);
+			appendText("ms  gc total ", 0);
+			appendNumber(totalGcMillis, 0);
+			appendText("ms", 0);
+		}
+	}
+
+	/**
+	 * add text to the overlay line, padded with spaces on the right
+	 */
+	protected void appendText(String text, int width)
+	{
+		int length = text.length();
+		text.getChars(0, length, line, lineLength);
+		lineLength += length;
+		for (int pad = length; pad < width; pad++)
+			line[lineLength++] = ' ';
+	}
+
+	/**
+	 * add a number to the overlay line, padded with spaces on the left
+	 */
+	protected void appendNumber(long value, int width)
+	{
+		//write the digits backwards at the end of the line buffer,
+		//then move them into place
+		int start = line.length;
+		long v = (value < 0) ? -value : value;
+		do
+		{
+			line[--start] = (char) ('0' + v % 10);
+			v /= 10;
+		} while (v > 0);
+		if (value < 0)
+			line[--start] = '-';
+
+		int digits = line.length - start;
+		for (int pad = digits; pad < width; pad++)
+			line[lineLength++] = ' ';
+		System.arraycopy(line, start, line, lineLength, digits);
+		lineLength += digits;
+	}
+
+	/**
+	 * add a time in ns to the overlay line as ms to 2 decimal places
+	 */
+	protected void appendMillis(long nanos)
+	{
+		long hundredths = (nanos + 5000) / 10000;
+		appendNumber(hundredths / 100, 3);
+		line[lineLength++] = '.';
+		line[lineLength++] = (char) ('0' + hundredths / 10 % 10);
+		line[lineLength++] = (char) ('0' + hundredths % 10);
+		line[lineLength++] = 'm';
+		line[lineLength++] = 's';
+	}
+}
@@ -1,6 +1,8 @@
 package Waisy.core.core;
 
 import java.awt.Graphics;
+import java.io.IOException;
+import java.util.ArrayList;
 
 import Waisy.core.error.GameManagerUninitializedError;
 import Waisy.core.graphics.BasicSprite;
@@ -24,6 +26,16 @@ public class GameManager
 	 */
 	protected long previoustime = 0;
 	
+	/**
+	 * records each tick for replaying later. null when not recording.
+	 */
+	protected TickRecorder tickRecorder = null;
+	
+	/**
+	 * run every update before the current state
+	 */
+	protected ArrayList<TickListener> tickListeners = new ArrayList<TickListener>();
+	
 	//TEMPORARY for testing. will be changed into state management
 	protected SpriteManager mgr;
 	
@@ -122,14 +134,88 @@ public class GameManager
 		long currtime = System.currentTimeMillis();
 		float dT = (float) (currtime - previoustime);
 
+		update(dT);
+		
+		//reset previous update values.
+		previoustime = currtime;
+	}
+	
+	/**
+	 * update all sprites in the current state with a given delta
+	 * time rather than the time since the last update. Used for
+	 * replays and fixed-step updates.
+	 * @param dT delta time in ms
+	 * @throws error GameManagerUninitializedError when there
+	 * is no current state. This occurs when a GameManager is updated
+	 * before starting.
+	 */
+	public void update(float dT)
+	{
 		if (currState == null)
 			throw new GameManagerUninitializedError();
 		
+		FrameProfiler profiler = GameSettings.profiler;
+		if (profiler != null)
+			profiler.beginFrame();
+		
+		if (tickRecorder != null)
+		{
+			try
+			{
+				tickRecorder.recordTick(dT);
+			}
+			catch (IOException e)
+			{
+				//don't take the game down over a recording.
+				//stop recording and let the game carry on. the
+				//recorder keeps the error for getLastError.
+				tickRecorder = null;
+			}
+		}
+		
 		//all clear
+		long start = (profiler != null) ? System.nanoTime() : 0;
+		
+		for (int i = 0; i < tickListeners.size(); i++)
+			tickListeners.get(i).tick(dT);
+		
 		currState.update(dT);
 		
-		//reset previous update values.
-		previoustime = currtime;
+		if (profiler != null)
+			profiler.recordPhase(FrameProfiler.PHASE_UPDATE, System.nanoTime() - start);
+	}
+	
+	/**
+	 * Record every tick from now on. Feed input events to the
+	 * recorder as they arrive so they are recorded with their tick.
+	 * If a tick can't be written, recording stops and the error is
+	 * kept by the recorder.
+	 * @param recorder recorder to write ticks to. null to stop recording.
+	 * @see TickReplayer
+	 */
+	public void setTickRecorder(TickRecorder recorder)
+	{
+		tickRecorder = recorder;
+	}
+	
+	/**
+	 * Run a listener every update, before the current state is
+	 * updated. Listeners run in the order they were added.
+	 * @param listener listener to add
+	 */
+	public void addTickListener(TickListener listener)
+	{
+		if (!tickListeners.contains(listener))
+			tickListeners.add(listener);
+	}
+	
+	/**
+	 * @param listener listener to stop running
+	 * @return true if the listener was found and removed
+	 */
+	public boolean removeTickListener(TickListener listener)
+	{
+		return tickListeners.remove(listener);
 	}
 	
 	/**
@@ -157,10 +243,28 @@ public class GameManager
 		if (currState == null)
 			throw new GameManagerUninitializedError();
 		
+		FrameProfiler profiler = GameSettings.profiler;
+		long start = (profiler != null) ? System.nanoTime() : 0;
+		
 		//all clear
 		currState.render(g);
 		
+		if (profiler != null)
+		{
+			long uiStart = System.nanoTime();
+			profiler.recordPhase(FrameProfiler.PHASE_RENDER, uiStart - start);
+			start = uiStart;
+		}
+		
 		//TODO: render UI
+		
+		if (profiler != null)
+		{
+			if (profiler.isOverlayVisible())
+				profiler.renderOverlay(g);
+			
+			profiler.recordPhase(FrameProfiler.PHASE_UI, System.nanoTime() - start);
+		}
 	}
 	
 	//----------- state handling
@@ -1,8 +1,11 @@
 package Waisy.core.core;
 
 import java.awt.Color;
+import java.io.File;
 
+import Waisy.core.file.SnapshotWriter;
 import Waisy.core.structures.FlyweightImageFactory;
+import Waisy.core.structures.FlyweightSoundFactory;
 
 /**
  * This is a class of static variables for settings which 
@@ -23,4 +26,12 @@ public class GameSettings
 	
 	//main manager references, for those which are not singletons
 	public static FlyweightImageFactory imageFactory = new FlyweightImageFactory();
+	public static FlyweightSoundFactory soundFactory = new FlyweightSoundFactory();
+	public static SnapshotWriter snapshotWriter = new SnapshotWriter();
+	
+	//frame profiler. null turns profiling off
+	public static FrameProfiler profiler = null;
+	
+	//save settings. default save file used by states
+	public static File SAVE_FILE = new File("save", "state.wsav");
 }
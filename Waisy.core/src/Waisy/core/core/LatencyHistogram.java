@@ -0,0 +1,119 @@
+package Waisy.core.core;
+
+/**
+ * A fixed-size histogram of non-negative long values, usually
+ * nanoseconds. Recording never allocates, so it is safe to use
+ * inside the game loop.
+ *
+ * Values are kept in log-linear buckets: each power of two is split
+ * into 16 buckets, so any reported value is within about 6% of the
+ * true value. The maximum is tracked exactly.
+ * @author waisy
+ *
+ */
+public class LatencyHistogram
+{
+	/**
+	 * buckets per power of two, as a number of bits
+	 */
+	protected static final int SUB_BUCKET_BITS = 4;
+	protected static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * enough buckets for any positive long
+	 */
+	protected static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	protected long[] counts = new long[BUCKET_COUNT];
+	protected long count = 0;
+	protected long total = 0;
+	protected long max = 0;
+
+	/**
+	 * record a value. Negative values are recorded as 0.
+	 * @param value value to record
+	 */
+	public void record(long value)
+	{
+		if (value < 0)
+			value = 0;
+
+		counts[bucket(value)]++;
+		count++;
+		total += value;
+		if (value > max)
+			max = value;
+	}
+
+	/**
+	 * Get a percentile of the recorded values.
+	 * @param percentile percentile between 0 and 100, such as 50 or 99
+	 * @return the value at the percentile, or 0 if nothing has been recorded
+	 */
+	public long getPercentile(double percentile)
+	{
+		if (count == 0)
+			return 0;
+
+		long target = (long) Math.ceil(count * (percentile / 100.0));
+		if (target < 1)
+			target = 1;
+
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++)
+		{
+			seen += counts[i];
+			if (seen >= target)
+				return Math.min(bucketTop(i), max);
+		}
+		return max;
+	}
+
+	public long getCount()	{	return count;	}
+	public long getMax()	{	return max;	}
+
+	/**
+	 * @return the mean of the recorded values, or 0 if nothing has been recorded
+	 */
+	public double getMean()
+	{
+		return (count == 0) ? 0 : (double) total / count;
+	}
+
+	/**
+	 * clear every recorded value
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = 0;
+		count = 0;
+		total = 0;
+		max = 0;
+	}
+
+	protected static int bucket(long value)
+	{
+		if (value < SUB_BUCKETS)
+			return (int) value;
+
+		//power of two of the value, then the top bits below it
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (exp - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return the highest value that falls into a bucket
+	 */
+	protected static long bucketTop(int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+
+		int exp = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+		long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		long bottom = (SUB_BUCKETS + sub) << (exp - SUB_BUCKET_BITS);
+		return bottom + (1L << (exp - SUB_BUCKET_BITS)) - 1;
+	}
+}
@@ -0,0 +1,18 @@
+package Waisy.core.core;
+
+/**
+ * Something run once per game update, alongside the current state.
+ * Used by systems that live outside any one state, such as AI
+ * script schedulers.
+ * @author waisy
+ * @see GameManager#addTickListener(TickListener)
+ */
+public interface TickListener
+{
+	/**
+	 * called by the GameManager every update, before the current
+	 * state is updated
+	 * @param dT delta time in ms
+	 */
+	public void tick(float dT);
+}
@@ -0,0 +1,164 @@
+package Waisy.core.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import Waisy.core.input.InputEventListener;
+
+/**
+ * Records every tick's delta time along with the input events
+ * that arrived before it, so a run can be replayed exactly with
+ * TickReplayer.
+ *
+ * Attach it with GameManager.setTickRecorder and feed it input
+ * events as they arrive (it is an InputEventListener, so it can sit
+ * alongside the game's own input handling). Events are held until
+ * the next tick and written out with it. Events may come from any
+ * thread, such as the AWT event thread, while ticks are recorded on
+ * the game thread.
+ *
+ * If a tick can't be written, the GameManager stops recording. The
+ * error is kept and can be read with getLastError.
+ *
+ * The stream is big-endian: int magic, short version, then per
+ * tick a float dT, a short event count, and an int type and int
+ * code per event. The stream simply ends after the last tick.
+ * @author waisy
+ * @see TickReplayer
+ */
+public class TickRecorder implements InputEventListener
+{
+	/**
+	 * "WREC" in ascii
+	 */
+	public static final int MAGIC = 0x57524543;
+
+	public static final short VERSION = 1;
+
+	protected DataOutputStream out;
+
+	/**
+	 * events waiting for the next tick, as type/code pairs. Guarded
+	 * by this.
+	 */
+	protected int[] events = new int[32];
+	protected int eventCount = 0;
+
+	/**
+	 * events being written with a tick. swapped with events under the
+	 * lock so writing doesn't hold up the thread delivering events.
+	 */
+	protected int[] writing = new int[32];
+
+	protected long tickCount = 0;
+	protected volatile IOException lastError = null;
+
+	/**
+	 * @param stream stream to record to. Closed by close().
+	 * @throws IOException the header couldn't be written
+	 */
+	public TickRecorder(OutputStream stream)
+			throws IOException
+	{
+		out = new DataOutputStream(new BufferedOutputStream(stream));
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+	}
+
+	/**
+	 * Record an input event. It will be written with the next tick
+	 * and replayed just before that tick.
+	 */
+	@Override
+	public synchronized void inputEvent(int type, int code)
+	{
+		if (eventCount * 2 + 2 > events.length)
+		{
+			int[] grown = new int[events.length * 2];
+			System.arraycopy(events, 0, grown, 0, eventCount * 2);
+			events = grown;
+		}
+
+		events[eventCount * 2] = type;
+		events[eventCount * 2 + 1] = code;
+		eventCount++;
+	}
+
+	/**
+	 * Record a tick and every event held since the last one.
+	 * Called by the GameManager on each update.
+	 * @param dT delta time of the tick
+	 * @throws IOException the tick couldn't be written
+	 */
+	public void recordTick(float dT)
+			throws IOException
+	{
+		//take the held events, leaving an empty array for new ones
+		int count;
+		int[] taken;
+		synchronized (this)
+		{
+			count = eventCount;
+			taken = events;
+			events = writing;
+			eventCount = 0;
+		}
+		writing = taken;
+
+		try
+		{
+			if (count > Short.MAX_VALUE)
+				throw new IOException("Too many input events in one tick: " + count);
+
+			out.writeFloat(dT);
+			out.writeShort(count);
+			for (int i = 0; i < count * 2; i++)
+				out.writeInt(taken[i]);
+		}
+		catch (IOException e)
+		{
+			lastError = e;
+			throw e;
+		}
+
+		tickCount++;
+	}
+
+	/**
+	 * @return number of ticks recorded
+	 */
+	public long getTickCount()
+	{
+		return tickCount;
+	}
+
+	/**
+	 * @return the error that stopped recording, or null
+	 */
+	public IOException getLastError()
+	{
+		return lastError;
+	}
+
+	/**
+	 * flush everything recorded so far to the stream
+	 * @throws IOException the stream failed
+	 */
+	public void flush()
+			throws IOException
+	{
+		out.flush();
+	}
+
+	/**
+	 * finish recording and close the stream
+	 * @throws IOException the stream failed
+	 */
+	public void close()
+			throws IOException
+	{
+		out.close();
+	}
+}
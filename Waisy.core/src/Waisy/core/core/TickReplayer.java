@@ -0,0 +1,136 @@
+package Waisy.core.core;
+
+import java.awt.Graphics;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import Waisy.core.input.InputEventListener;
+
+/**
+ * Replays a stream written by TickRecorder. Each tick's input events
+ * are handed to the input listener, then the GameManager is updated
+ * with exactly the recorded delta time. Wall-clock time is never
+ * read, so a replay runs as fast as the engine can go and gives the
+ * same workload every time. This is what you want for profiling a
+ * frame spike or checking a change didn't make things slower.
+ * @author waisy
+ * @see TickRecorder
+ */
+public class TickReplayer
+{
+	protected DataInputStream in;
+
+	/**
+	 * where replayed input events are sent. May be null.
+	 */
+	protected InputEventListener input;
+
+	protected long tickCount = 0;
+
+	/**
+	 * @param stream recorded stream. Closed by close().
+	 * @param input listener to receive the recorded input events.
+	 * null to drop them.
+	 * @throws IOException the stream isn't a tick recording
+	 */
+	public TickReplayer(InputStream stream, InputEventListener input)
+			throws IOException
+	{
+		this.in = new DataInputStream(new BufferedInputStream(stream));
+		this.input = input;
+
+		if (in.readInt() != TickRecorder.MAGIC)
+			throw new IOException("Not a tick recording");
+		short version = in.readShort();
+		if (version != TickRecorder.VERSION)
+			throw new IOException("Unsupported tick recording version " + version);
+	}
+
+	/**
+	 * Replay the next tick: send its input events, then update the
+	 * GameManager with its delta time.
+	 * @param gm game manager to update. Must be started.
+	 * @return false once the recording has run out
+	 * @throws IOException the stream failed or is truncated
+	 */
+	public boolean step(GameManager gm)
+			throws IOException
+	{
+		float dT;
+		try
+		{
+			dT = in.readFloat();
+		}
+		catch (EOFException e)
+		{
+			return false; //clean end of the recording
+		}
+
+		int events = in.readShort();
+		for (int i = 0; i < events; i++)
+		{
+			int type = in.readInt();
+			int code = in.readInt();
+			if (input != null)
+				input.inputEvent(type, code);
+		}
+
+		gm.update(dT);
+		tickCount++;
+		return true;
+	}
+
+	/**
+	 * Replay the whole recording as fast as possible without rendering.
+	 * @param gm game manager to update. Must be started.
+	 * @return number of ticks replayed
+	 * @throws IOException the stream failed or is truncated
+	 */
+	public long replayAll(GameManager gm)
+			throws IOException
+	{
+		return replayAll(gm, null);
+	}
+
+	/**
+	 * Replay the whole recording as fast as possible, rendering
+	 * after each tick. Render into an offscreen image to profile
+	 * rendering without a window.
+	 * @param gm game manager to update. Must be started.
+	 * @param g graphics to render into after each tick. null to skip rendering.
+	 * @return number of ticks replayed
+	 * @throws IOException the stream failed or is truncated
+	 */
+	public long replayAll(GameManager gm, Graphics g)
+			throws IOException
+	{
+		long start = tickCount;
+		while (step(gm))
+		{
+			if (g != null)
+				gm.render(g);
+		}
+		return tickCount - start;
+	}
+
+	/**
+	 * @return number of ticks replayed so far
+	 */
+	public long getTickCount()
+	{
+		return tickCount;
+	}
+
+	/**
+	 * close the recording stream
+	 * @throws IOException the stream failed
+	 */
+	public void close()
+			throws IOException
+	{
+		in.close();
+	}
+}
@@ -0,0 +1,60 @@
+package Waisy.core.file;
+
+import java.nio.ByteBuffer;
+
+import Waisy.core.graphics.BasicSprite;
+import Waisy.core.structures.FlyweightImageFactory;
+
+/**
+ * Default sprite serializer. Rebuilds plain BasicSprites sharing the
+ * image stored under their asset key in the flyweight factory and
+ * saves no custom data.
+ *
+ * Games with their own sprite classes should extend this or
+ * write their own SpriteSerializer.
+ * @author waisy
+ *
+ */
+public class BasicSpriteSerializer implements SpriteSerializer
+{
+	/**
+	 * factory holding the images to rebuild sprites with
+	 */
+	protected FlyweightImageFactory imageFactory;
+
+	/**
+	 * @param imageFactory factory holding the images to rebuild sprites
+	 * with. Assets must already be loaded into it.
+	 */
+	public BasicSpriteSerializer(FlyweightImageFactory imageFactory)
+	{
+		this.imageFactory = imageFactory;
+	}
+
+	@Override
+	public BasicSprite createSprite(String assetKey)
+	{
+		BasicSprite s;
+		BasicSprite template = (assetKey != null) ? imageFactory.getSprite(assetKey) : null;
+
+		if (template != null)
+			s = new BasicSprite(template.getImage());
+		else
+			s = new BasicSprite(); //unknown asset. nothing to draw
+
+		s.setAssetKey(assetKey);
+		return s;
+	}
+
+	@Override
+	public void writeCustom(BasicSprite s, ByteBuffer out)
+	{
+		//no custom data
+	}
+
+	@Override
+	public void readCustom(BasicSprite s, ByteBuffer in)
+	{
+		//no custom data
+	}
+}
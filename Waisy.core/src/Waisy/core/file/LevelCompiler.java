@@ -0,0 +1,326 @@
+package Waisy.core.file;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Offline compiler which turns a level xml file into the compiled
+ * binary level format described in LevelFormat.
+ *
+ * Parsing xml is slow compared to reading a flat file, so levels
+ * should be compiled once at build time and shipped as binaries.
+ * Run it from the command line with:
+ *
+ * java Waisy.core.file.LevelCompiler level.xml level.wlvl
+ *
+ * The compiler is also used by BasicGameState.loadStateFromXML
+ * to compile a level in memory, so both paths build their layers
+ * through the same LevelLoader.
+ * @author waisy
+ * @see LevelFormat
+ * @see LevelLoader
+ */
+public class LevelCompiler
+{
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * string table. index in the list is the string's id
+	 */
+	protected ArrayList<String> strings = new ArrayList<>();
+	protected HashMap<String, Integer> stringIds = new HashMap<>();
+
+	/**
+	 * asset keys mapped to their index in the asset manifest
+	 */
+	protected HashMap<String, Integer> assetIds = new HashMap<>();
+	protected ArrayList<int[]> assets = new ArrayList<>();
+
+	/**
+	 * compile a level xml stream into a binary stream
+	 * @param xml level xml
+	 * @param out destination for the compiled level. Not closed.
+	 * @throws IOException the xml couldn't be read or is not a valid level
+	 */
+	public void compile(InputStream xml, OutputStream out)
+			throws IOException
+	{
+		Element level = parse(xml).getDocumentElement();
+		if (!"level".equals(level.getNodeName()))
+			throw new IOException("Level xml root must be <level>, found <"
+					+ level.getNodeName() + ">");
+
+		//clear out anything from a previous compile
+		strings.clear();
+		stringIds.clear();
+		assetIds.clear();
+		assets.clear();
+
+		//the manifest has to be known before anything can reference it
+		NodeList assetNodes = level.getElementsByTagName("asset");
+		for (int i = 0; i < assetNodes.getLength(); i++)
+		{
+			Element a = (Element) assetNodes.item(i);
+			String key = required(a, "key");
+			if (assetIds.containsKey(key))
+				throw new IOException("Duplicate asset key: " + key);
+
+			assetIds.put(key, assets.size());
+			assets.add(new int[] { stringId(key), stringId(required(a, "path")) });
+		}
+
+		int background = -1;
+		NodeList bkgNodes = level.getElementsByTagName("background");
+		if (bkgNodes.getLength() > 0)
+			background = assetId(required((Element) bkgNodes.item(0), "asset"));
+
+		//write the body first so the string table is complete
+		ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+		DataOutputStream body = new DataOutputStream(bodyBytes);
+
+		body.writeInt(assets.size());
+		for (int[] a : assets)
+		{
+			body.writeInt(a[0]);
+			body.writeInt(a[1]);
+		}
+		body.writeInt(background);
+
+		writeTiles(level.getElementsByTagName("tiles"), body);
+		writeSprites(level.getElementsByTagName("sprite"), body);
+		body.flush();
+
+		//now write out the full file
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(LevelFormat.MAGIC);
+		data.writeShort(LevelFormat.VERSION);
+		data.writeShort(0);
+
+		data.writeInt(strings.size());
+		for (String s : strings)
+		{
+			byte[] b = s.getBytes(UTF8);
+			if (b.length > Short.MAX_VALUE)
+				throw new IOException("String too long for level file: " + s);
+			data.writeShort(b.length);
+			data.write(b);
+		}
+
+		bodyBytes.writeTo(data);
+		data.flush();
+	}
+
+	/**
+	 * compile a level xml stream in memory
+	 * @param xml level xml
+	 * @return the compiled level, ready for LevelLoader
+	 * @throws IOException the xml couldn't be read or is not a valid level
+	 */
+	public ByteBuffer compile(InputStream xml)
+			throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		compile(xml, out);
+		return ByteBuffer.wrap(out.toByteArray());
+	}
+
+	protected void writeTiles(NodeList tiles, DataOutputStream out)
+			throws IOException
+	{
+		out.writeInt(tiles.getLength());
+		for (int i = 0; i < tiles.getLength(); i++)
+		{
+			Element t = (Element) tiles.item(i);
+			int columns = intAttribute(t, "columns");
+			int rows = intAttribute(t, "rows");
+			int tileWidth = intAttribute(t, "tileWidth");
+			int tileHeight = intAttribute(t, "tileHeight");
+			if ((tileWidth > Short.MAX_VALUE) || (tileHeight > Short.MAX_VALUE))
+				throw new IOException("Tile size too large");
+			if ((columns < 0) || (rows < 0))
+				throw new IOException("Tile map size can't be negative: "
+						+ columns + "x" + rows);
+
+			String[] cells = t.getTextContent().trim().split("\\s+");
+			if ((cells.length == 1) && cells[0].isEmpty())
+				cells = new String[0];
+			if (cells.length != columns * rows)
+				throw new IOException("Tile map expected " + (columns * rows)
+						+ " cells but found " + cells.length);
+
+			out.writeInt(layer(t));
+			out.writeInt(intAttribute(t, "x", 0));
+			out.writeInt(intAttribute(t, "y", 0));
+			out.writeShort(tileWidth);
+			out.writeShort(tileHeight);
+			out.writeInt(columns);
+			out.writeInt(rows);
+
+			for (String cell : cells)
+			{
+				if (cell.equals(LevelFormat.EMPTY_TILE_TOKEN) || cell.equals("0"))
+					out.writeShort(LevelFormat.EMPTY_TILE);
+				else
+				{
+					int asset = assetId(cell);
+					if (asset + 1 > 0xFFFF)
+						throw new IOException("Too many assets for a tile map");
+					out.writeShort(asset + 1);
+				}
+			}
+		}
+	}
+
+	protected void writeSprites(NodeList sprites, DataOutputStream out)
+			throws IOException
+	{
+		out.writeInt(sprites.getLength());
+		for (int i = 0; i < sprites.getLength(); i++)
+		{
+			Element s = (Element) sprites.item(i);
+			out.writeInt(layer(s));
+			out.writeInt(assetId(required(s, "asset")));
+			out.writeFloat(floatAttribute(s, "x"));
+			out.writeFloat(floatAttribute(s, "y"));
+		}
+	}
+
+	//------------------ helpers
+
+	protected Document parse(InputStream xml)
+			throws IOException
+	{
+		try
+		{
+			DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+			Document doc = builder.parse(xml);
+			doc.getDocumentElement().normalize();
+			return doc;
+		}
+		catch (ParserConfigurationException | SAXException e)
+		{
+			throw new IOException("Unable to parse level xml", e);
+		}
+	}
+
+	protected int stringId(String s)
+	{
+		Integer id = stringIds.get(s);
+		if (id == null)
+		{
+			id = strings.size();
+			strings.add(s);
+			stringIds.put(s, id);
+		}
+		return id;
+	}
+
+	protected int assetId(String key)
+			throws IOException
+	{
+		Integer id = assetIds.get(key);
+		if (id == null)
+			throw new IOException("Unknown asset: " + key);
+		return id;
+	}
+
+	protected int layer(Element e)
+			throws IOException
+	{
+		try
+		{
+			return LevelFormat.parseLayer(required(e, "layer"));
+		}
+		catch (IllegalArgumentException ex)
+		{
+			throw new IOException(ex.getMessage());
+		}
+	}
+
+	protected String required(Element e, String attribute)
+			throws IOException
+	{
+		if (!e.hasAttribute(attribute))
+			throw new IOException("<" + e.getNodeName() + "> is missing the "
+					+ attribute + " attribute");
+		return e.getAttribute(attribute);
+	}
+
+	protected int intAttribute(Element e, String attribute)
+			throws IOException
+	{
+		try
+		{
+			return Integer.parseInt(required(e, attribute).trim());
+		}
+		catch (NumberFormatException ex)
+		{
+			throw new IOException("<" + e.getNodeName() + "> " + attribute
+					+ " is not a number");
+		}
+	}
+
+	protected int intAttribute(Element e, String attribute, int defaultValue)
+			throws IOException
+	{
+		if (!e.hasAttribute(attribute))
+			return defaultValue;
+		return intAttribute(e, attribute);
+	}
+
+	protected float floatAttribute(Element e, String attribute)
+			throws IOException
+	{
+		try
+		{
+			return Float.parseFloat(required(e, attribute).trim());
+		}
+		catch (NumberFormatException ex)
+		{
+			throw new IOException("<" + e.getNodeName() + "> " + attribute
+					+ " is not a number");
+		}
+	}
+
+	/**
+	 * Command line entry point.
+	 * @param args input xml path and output binary path
+	 */
+	public static void main(String[] args)
+			throws IOException
+	{
+		if (args.length != 2)
+		{
+			System.out.println("usage: LevelCompiler <level.xml> <level.wlvl>");
+			return;
+		}
+
+		try (InputStream in = new FileInputStream(args[0]);
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1])))
+		{
+			new LevelCompiler().compile(in, out);
+		}
+
+		System.out.println("Level " + args[0] + " compiled to " + args[1]);
+	}
+}
@@ -0,0 +1,119 @@
+package Waisy.core.file;
+
+import Waisy.core.graphics.SpriteManager;
+
+/**
+ * Constants describing the compiled binary level format.
+ *
+ * A compiled level is a flat, big-endian file laid out in this order:
+ *
+ * header:    int magic, short version, short flags (unused, 0)
+ * strings:   int count, then per string a short byte length and
+ *            the UTF-8 bytes
+ * assets:    int count, then per asset an int key string index and
+ *            an int path string index
+ * background: int asset index of the static background, -1 for none
+ * tile maps: int count, then per map int layer, int x, int y,
+ *            short tile width, short tile height, int columns, int rows,
+ *            followed by columns * rows shorts in row order. Each short
+ *            is an asset index + 1, with 0 meaning an empty cell.
+ * sprites:   int count, then per sprite int layer, int asset index,
+ *            float x, float y
+ *
+ * Everything is a fixed size except the string table, so the loader
+ * can walk the mapped file without any parsing.
+ *
+ * The level xml this is compiled from looks like this:
+ *
+ * <level>
+ *   <assets>
+ *     <asset key="brick" path="img/brick.png"/>
+ *   </assets>
+ *   <background asset="sky"/>
+ *   <tiles layer="midground" x="0" y="0" tileWidth="16" tileHeight="16"
+ *          columns="3" rows="2">
+ *     brick . brick
+ *     brick brick brick
+ *   </tiles>
+ *   <sprite layer="enemies" asset="goomba" x="40" y="32"/>
+ * </level>
+ *
+ * Layers may be given by number or by name (see LAYER_NAMES).
+ * A "." or "0" in a tile map is an empty cell.
+ * @author waisy
+ *
+ */
+public class LevelFormat
+{
+	/**
+	 * "WLVL" in ascii
+	 */
+	public static final int MAGIC = 0x574C564C;
+
+	public static final short VERSION = 1;
+
+	/**
+	 * size of the fixed header in bytes
+	 */
+	public static final int HEADER_SIZE = 8;
+
+	/**
+	 * size of a single sprite record in bytes
+	 */
+	public static final int SPRITE_RECORD_SIZE = 16;
+
+	/**
+	 * tile map cell value for an empty cell
+	 */
+	public static final short EMPTY_TILE = 0;
+
+	/**
+	 * tile map token for an empty cell in the level xml
+	 */
+	public static final String EMPTY_TILE_TOKEN = ".";
+
+	/**
+	 * layer names usable in the level xml, indexed by the
+	 * SpriteManager layer constant they stand for.
+	 */
+	public static final String[] LAYER_NAMES =
+		{
+			"background",	//SpriteManager.BACKGROUND
+			"midground",	//SpriteManager.MIDGROUND_ENVIRONMENT
+			"enemies",		//SpriteManager.ENEMIES
+			"characters",	//SpriteManager.CHARACTERS
+			"foreground"	//SpriteManager.FOREGROUND
+		};
+
+	/**
+	 * convert a layer attribute from the level xml to
+	 * the matching SpriteManager layer.
+	 * @param layer layer name or number
+	 * @return SpriteManager layer constant
+	 * @throws IllegalArgumentException if the layer isn't known
+	 */
+	public static int parseLayer(String layer)
+	{
+		for (int i = 0; i < LAYER_NAMES.length; i++)
+		{
+			if (LAYER_NAMES[i].equalsIgnoreCase(layer))
+				return i;
+		}
+
+		//not a name. try a number
+		int l;
+		try
+		{
+			l = Integer.parseInt(layer.trim());
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Unknown layer: " + layer);
+		}
+
+		if ((l < SpriteManager.BACKGROUND) || (l > SpriteManager.FOREGROUND))
+			throw new IllegalArgumentException("Unknown layer: " + layer);
+
+		return l;
+	}
+}
@@ -0,0 +1,310 @@
+package Waisy.core.file;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+import Waisy.core.graphics.BasicSprite;
+import Waisy.core.graphics.SpriteManager;
+import Waisy.core.structures.FlyweightImageFactory;
+
+/**
+ * Loads a compiled binary level into a SpriteManager.
+ *
+ * Level files are memory-mapped and the layers are built straight
+ * from the mapped buffer. There is no parsing step, so load time is
+ * spent almost entirely on decoding the level's images, and those
+ * go through the flyweight factory so each image is only decoded once.
+ *
+ * Every tile and sprite gets its own BasicSprite sharing the
+ * flyweight's image, so positions can differ while the pixels
+ * are only held once.
+ *
+ * The whole level is checked and its sprites built before any are
+ * added, so a level that fails to load leaves the sprite manager as
+ * it was.
+ * @author waisy
+ * @see LevelFormat
+ * @see LevelCompiler
+ */
+public class LevelLoader
+{
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * factory used to load and share the level's images
+	 */
+	protected FlyweightImageFactory imageFactory;
+
+	/**
+	 * asset keys of the level currently being loaded, by asset index
+	 */
+	protected String[] keys;
+
+	/**
+	 * @param imageFactory factory to load and share the level's images.
+	 */
+	public LevelLoader(FlyweightImageFactory imageFactory)
+	{
+		this.imageFactory = imageFactory;
+	}
+
+	/**
+	 * Memory-map a compiled level file.
+	 * @param file compiled level
+	 * @return a read-only buffer over the whole file
+	 * @throws IOException the file couldn't be opened
+	 */
+	public static MappedByteBuffer map(File file)
+			throws IOException
+	{
+		//the mapping stays valid after the channel is closed
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Memory-map a compiled level file and load it into the sprite manager.
+	 * @param file compiled level
+	 * @param mgr sprite manager to fill. Existing sprites are kept.
+	 * @throws IOException the file couldn't be read, is not a valid level,
+	 * or an image failed to load
+	 */
+	public void load(File file, SpriteManager mgr)
+			throws IOException
+	{
+		load(map(file), mgr);
+	}
+
+	/**
+	 * Load a compiled level into the sprite manager.
+	 * The buffer's position is not changed.
+	 * @param level compiled level, either mapped or compiled in memory
+	 * @param mgr sprite manager to fill. Existing sprites are kept.
+	 * Nothing is added if the level fails to load.
+	 * @throws IOException the buffer is not a valid level
+	 * or an image failed to load
+	 */
+	public void load(ByteBuffer level, SpriteManager mgr)
+			throws IOException
+	{
+		ByteBuffer buf = level.duplicate();
+		try
+		{
+			if (buf.getInt() != LevelFormat.MAGIC)
+				throw new IOException("Not a compiled level file");
+
+			short version = buf.getShort();
+			if (version != LevelFormat.VERSION)
+				throw new IOException("Unsupported level version " + version);
+			buf.getShort(); //flags
+
+			String[] strings = readStrings(buf);
+			BufferedImage[] assets = readAssets(buf, strings);
+
+			//build everything before touching the sprite manager, so
+			//a bad level leaves the current sprites as they are
+			BasicSprite background = null;
+			int backgroundAsset = buf.getInt();
+			if (backgroundAsset >= 0)
+				background = newSprite(assets, backgroundAsset);
+
+			ArrayList<ArrayList<BasicSprite>> layers =
+					new ArrayList<ArrayList<BasicSprite>>(mgr.getLayerCount());
+			for (int l = 0; l < mgr.getLayerCount(); l++)
+				layers.add(new ArrayList<BasicSprite>());
+
+			readTiles(buf, assets, layers);
+			readSprites(buf, assets, layers);
+
+			//everything checks out. add the level
+			if (background != null)
+				mgr.setStaticBackground(background);
+
+			for (int l = 0; l < layers.size(); l++)
+			{
+				ArrayList<BasicSprite> layer = layers.get(l);
+				if (layer.isEmpty())
+					continue;
+
+				//size the layer once rather than letting the vector grow
+				//a few elements at a time.
+				mgr.ensureLayerCapacity(l, mgr.getLayerSize(l) + layer.size());
+				for (int i = 0; i < layer.size(); i++)
+					mgr.addSprite(layer.get(i), l);
+			}
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new IOException("Level file is truncated", e);
+		}
+	}
+
+	protected String[] readStrings(ByteBuffer buf)
+			throws IOException
+	{
+		String[] strings = new String[count(buf, 2)];
+		byte[] bytes = new byte[64];
+
+		for (int i = 0; i < strings.length; i++)
+		{
+			int length = buf.getShort();
+			if ((length < 0) || (length > buf.remaining()))
+				throw new IOException("Level file has a bad string length " + length);
+			if (length > bytes.length)
+				bytes = new byte[length];
+
+			buf.get(bytes, 0, length);
+			strings[i] = new String(bytes, 0, length, UTF8);
+		}
+
+		return strings;
+	}
+
+	/**
+	 * load every asset in the manifest through the flyweight factory
+	 */
+	protected BufferedImage[] readAssets(ByteBuffer buf, String[] strings)
+			throws IOException
+	{
+		BufferedImage[] assets = new BufferedImage[count(buf, 8)];
+		keys = new String[assets.length];
+
+		for (int i = 0; i < assets.length; i++)
+		{
+			keys[i] = string(strings, buf.getInt());
+			String path = string(strings, buf.getInt());
+			try
+			{
+				assets[i] = imageFactory.getBasicSprite(keys[i], path).getImage();
+			}
+			catch (IllegalArgumentException e)
+			{
+				//ImageIO's answer to a resource that doesn't exist
+				throw new IOException("Level asset not found: " + path, e);
+			}
+		}
+
+		return assets;
+	}
+
+	protected void readTiles(ByteBuffer buf, BufferedImage[] assets,
+			ArrayList<ArrayList<BasicSprite>> layers)
+			throws IOException
+	{
+		int maps = buf.getInt();
+
+		for (int m = 0; m < maps; m++)
+		{
+			ArrayList<BasicSprite> layer = layers.get(layer(buf.getInt(), layers));
+			int originX = buf.getInt();
+			int originY = buf.getInt();
+			int tileWidth = buf.getShort();
+			int tileHeight = buf.getShort();
+			int columns = buf.getInt();
+			int rows = buf.getInt();
+			if ((columns < 0) || (rows < 0) || ((long) columns * rows * 2 > buf.remaining()))
+				throw new IOException("Level file has a bad tile map size "
+						+ columns + "x" + rows);
+
+			layer.ensureCapacity(layer.size() + columns * rows);
+
+			for (int r = 0; r < rows; r++)
+			{
+				for (int c = 0; c < columns; c++)
+				{
+					int cell = buf.getShort() & 0xFFFF;
+					if (cell == LevelFormat.EMPTY_TILE)
+						continue;
+
+					BasicSprite s = newSprite(assets, cell - 1);
+					s.setX(originX + c * tileWidth);
+					s.setY(originY + r * tileHeight);
+					layer.add(s);
+				}
+			}
+		}
+	}
+
+	protected void readSprites(ByteBuffer buf, BufferedImage[] assets,
+			ArrayList<ArrayList<BasicSprite>> layers)
+			throws IOException
+	{
+		int count = count(buf, LevelFormat.SPRITE_RECORD_SIZE);
+		int start = buf.position();
+
+		//records are a fixed size, so count each layer's sprites
+		//first and size the layers before adding anything.
+		int[] perLayer = new int[layers.size()];
+		for (int i = 0; i < count; i++)
+			perLayer[layer(buf.getInt(start + i * LevelFormat.SPRITE_RECORD_SIZE), layers)]++;
+
+		for (int l = 0; l < perLayer.length; l++)
+		{
+			if (perLayer[l] > 0)
+				layers.get(l).ensureCapacity(layers.get(l).size() + perLayer[l]);
+		}
+
+		for (int i = 0; i < count; i++)
+		{
+			int layer = buf.getInt();
+			BasicSprite s = newSprite(assets, buf.getInt());
+			s.setX(buf.getFloat());
+			s.setY(buf.getFloat());
+			layers.get(layer).add(s);
+		}
+	}
+
+	/**
+	 * create a sprite sharing an asset's image
+	 */
+	protected BasicSprite newSprite(BufferedImage[] assets, int index)
+			throws IOException
+	{
+		if ((index < 0) || (index >= assets.length))
+			throw new IOException("Level references unknown asset " + index);
+
+		BasicSprite s = new BasicSprite(assets[index]);
+		s.setAssetKey(keys[index]);
+		return s;
+	}
+
+	/**
+	 * read the number of records in a section, checking that many
+	 * records fit in what's left of the buffer
+	 * @param recordSize least size of each record in bytes
+	 */
+	protected int count(ByteBuffer buf, int recordSize)
+			throws IOException
+	{
+		int count = buf.getInt();
+		if ((count < 0) || ((long) count * recordSize > buf.remaining()))
+			throw new IOException("Level file has a bad record count " + count);
+		return count;
+	}
+
+	protected String string(String[] strings, int index)
+			throws IOException
+	{
+		if ((index < 0) || (index >= strings.length))
+			throw new IOException("Level references unknown string " + index);
+		return strings[index];
+	}
+
+	protected int layer(int layer, ArrayList<ArrayList<BasicSprite>> layers)
+			throws IOException
+	{
+		if ((layer < 0) || (layer >= layers.size()))
+			throw new IOException("Level references unknown layer " + layer);
+		return layer;
+	}
+}
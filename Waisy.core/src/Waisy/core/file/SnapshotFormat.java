@@ -0,0 +1,59 @@
+package Waisy.core.file;
+
+/**
+ * Constants describing the binary save state snapshot format.
+ *
+ * A snapshot is a flat, big-endian file laid out in this order:
+ *
+ * header:     int magic, short version, short flags (unused, 0),
+ *             long capture time (ms), int string table offset
+ * background: a sprite record, or an int -2 if there is none
+ * layers:     int layer count, then per layer an int sprite count
+ *             followed by that many sprite records
+ * strings:    at the string table offset. int count, then per string
+ *             a short byte length and the UTF-8 bytes
+ *
+ * A sprite record is an int asset key string index (-1 for no key),
+ * float x, float y, int custom data length, then the custom data
+ * written by the SpriteSerializer.
+ *
+ * The string table is written last so the game thread can write
+ * sprites in a single pass without knowing every key up front.
+ * @author waisy
+ * @see SnapshotWriter
+ * @see SnapshotReader
+ */
+public class SnapshotFormat
+{
+	/**
+	 * "WSAV" in ascii
+	 */
+	public static final int MAGIC = 0x57534156;
+
+	public static final short VERSION = 1;
+
+	/**
+	 * size of the fixed header in bytes
+	 */
+	public static final int HEADER_SIZE = 20;
+
+	/**
+	 * position of the string table offset in the header
+	 */
+	public static final int STRING_TABLE_OFFSET_POSITION = 16;
+
+	/**
+	 * asset key index for a sprite without a key
+	 */
+	public static final int NO_KEY = -1;
+
+	/**
+	 * asset key index marking a missing static background
+	 */
+	public static final int NO_SPRITE = -2;
+
+	/**
+	 * longest asset key in UTF-8 bytes. Key lengths are stored as shorts.
+	 */
+	public static final int MAX_KEY_LENGTH = Short.MAX_VALUE;
+}
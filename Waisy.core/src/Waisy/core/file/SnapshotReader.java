@@ -0,0 +1,155 @@
+package Waisy.core.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import Waisy.core.graphics.BasicSprite;
+import Waisy.core.graphics.SpriteManager;
+
+/**
+ * Loads save state snapshots written by SnapshotWriter.
+ * @author waisy
+ * @see SnapshotFormat
+ */
+public class SnapshotReader
+{
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Load a snapshot file into a sprite manager, replacing every
+	 * sprite currently held by the manager.
+	 * @param file snapshot to load
+	 * @param mgr sprite manager to fill
+	 * @param serializer hook for rebuilding sprites and their custom data
+	 * @throws IOException the file couldn't be read or is not a valid snapshot
+	 */
+	public void load(File file, SpriteManager mgr, SpriteSerializer serializer)
+			throws IOException
+	{
+		load(ByteBuffer.wrap(Files.readAllBytes(file.toPath())), mgr, serializer);
+	}
+
+	/**
+	 * Load a snapshot into a sprite manager, replacing every
+	 * sprite currently held by the manager.
+	 * @param snapshot snapshot data. The buffer's position is not changed.
+	 * @param mgr sprite manager to fill
+	 * @param serializer hook for rebuilding sprites and their custom data
+	 * @throws IOException the buffer is not a valid snapshot
+	 */
+	public void load(ByteBuffer snapshot, SpriteManager mgr, SpriteSerializer serializer)
+			throws IOException
+	{
+		ByteBuffer buf = snapshot.duplicate();
+		try
+		{
+			if (buf.getInt() != SnapshotFormat.MAGIC)
+				throw new IOException("Not a save state snapshot");
+
+			short version = buf.getShort();
+			if (version != SnapshotFormat.VERSION)
+				throw new IOException("Unsupported snapshot version " + version);
+			buf.getShort(); //flags
+			buf.getLong(); //capture time
+
+			String[] keys = readStrings(buf, buf.getInt());
+
+			//decode everything before touching the sprite manager, so
+			//a corrupt snapshot leaves the current sprites as they are
+			BasicSprite background = null;
+			if (buf.getInt(buf.position()) == SnapshotFormat.NO_SPRITE)
+				buf.getInt();
+			else
+				background = readSprite(buf, keys, serializer);
+
+			int layerCount = buf.getInt();
+			if ((layerCount < 0) || (layerCount > mgr.getLayerCount()))
+				throw new IOException("Snapshot has " + layerCount
+						+ " layers but the sprite manager only has " + mgr.getLayerCount());
+
+			ArrayList<ArrayList<BasicSprite>> layers = new ArrayList<ArrayList<BasicSprite>>(layerCount);
+			for (int l = 0; l < layerCount; l++)
+			{
+				int count = buf.getInt();
+				if ((count < 0) || (count > buf.remaining()))
+					throw new IOException("Snapshot has a bad sprite count " + count);
+
+				ArrayList<BasicSprite> layer = new ArrayList<BasicSprite>(count);
+				for (int i = 0; i < count; i++)
+					layer.add(readSprite(buf, keys, serializer));
+				layers.add(layer);
+			}
+
+			//everything checks out. replace the current sprites
+			mgr.clear();
+			if (background != null)
+				mgr.setStaticBackground(background);
+
+			for (int l = 0; l < layerCount; l++)
+			{
+				ArrayList<BasicSprite> layer = layers.get(l);
+				mgr.ensureLayerCapacity(l, layer.size());
+				for (int i = 0; i < layer.size(); i++)
+					mgr.addSprite(layer.get(i), l);
+			}
+		}
+		catch (BufferUnderflowException | IndexOutOfBoundsException e)
+		{
+			throw new IOException("Snapshot is truncated or corrupt", e);
+		}
+	}
+
+	protected String[] readStrings(ByteBuffer buf, int offset)
+			throws IOException
+	{
+		if ((offset < 0) || (offset > buf.limit()))
+			throw new IOException("Snapshot has a bad string table offset " + offset);
+
+		ByteBuffer table = buf.duplicate();
+		table.position(offset);
+
+		int count = table.getInt();
+		if ((count < 0) || (count > table.remaining()))
+			throw new IOException("Snapshot has a bad string count " + count);
+
+		String[] strings = new String[count];
+		for (int i = 0; i < strings.length; i++)
+		{
+			int length = table.getShort();
+			if (length < 0)
+				throw new IOException("Snapshot has a bad string length " + length);
+			byte[] b = new byte[length];
+			table.get(b);
+			strings[i] = new String(b, UTF8);
+		}
+
+		return strings;
+	}
+
+	protected BasicSprite readSprite(ByteBuffer buf, String[] keys, SpriteSerializer serializer)
+			throws IOException
+	{
+		int key = buf.getInt();
+		if ((key != SnapshotFormat.NO_KEY) && ((key < 0) || (key >= keys.length)))
+			throw new IOException("Snapshot references unknown key " + key);
+		BasicSprite s = serializer.createSprite((key == SnapshotFormat.NO_KEY) ? null : keys[key]);
+		s.setX(buf.getFloat());
+		s.setY(buf.getFloat());
+
+		//hand the serializer only this sprite's bytes
+		int length = buf.getInt();
+		if ((length < 0) || (length > buf.remaining()))
+			throw new IOException("Snapshot has a bad custom data length " + length);
+		ByteBuffer custom = buf.slice();
+		custom.limit(length);
+		serializer.readCustom(s, custom);
+		buf.position(buf.position() + length);
+
+		return s;
+	}
+}
@@ -0,0 +1,354 @@
+package Waisy.core.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import Waisy.core.graphics.BasicSprite;
+import Waisy.core.graphics.SpriteManager;
+
+/**
+ * Captures save state snapshots on the game thread and writes
+ * them to disk on a background thread.
+ *
+ * Capturing only copies sprite data into a reusable buffer, so it
+ * is cheap enough to run in the middle of a frame. Writing, syncing,
+ * and swapping the file into place all happen on the writer thread.
+ * Files are written to a temporary file then renamed over the
+ * target, so a crash mid-save never leaves a half-written save.
+ *
+ * The writer holds two buffers. If both are still waiting to be
+ * written when another capture is asked for, the capture is skipped
+ * rather than making the game thread wait. This is what you want
+ * for autosaves; for a save the player asked for, call
+ * waitForWrites() and capture again if it was skipped.
+ *
+ * Captures must all be made from the same thread.
+ * @author waisy
+ * @see SnapshotFormat
+ * @see SnapshotReader
+ */
+public class SnapshotWriter
+{
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * starting size of each capture buffer. Buffers grow as needed
+	 * and keep their size afterwards.
+	 */
+	public static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * a capture buffer and where it's going
+	 */
+	protected static class Job
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		File target;
+	}
+
+	/**
+	 * buffers free for capturing into
+	 */
+	protected ArrayBlockingQueue<Job> free = new ArrayBlockingQueue<>(2);
+	/**
+	 * captured buffers waiting for the writer thread
+	 */
+	protected ArrayBlockingQueue<Job> pending = new ArrayBlockingQueue<>(2);
+
+	/**
+	 * asset keys seen so far and their string table index. Keys are
+	 * kept between captures so a steady-state capture allocates nothing.
+	 */
+	protected HashMap<String, Integer> keyIds = new HashMap<>();
+	protected ArrayList<byte[]> keyBytes = new ArrayList<>();
+
+	protected Thread writerThread = null;
+
+	/**
+	 * number of jobs captured but not yet written. Guarded by this.
+	 */
+	protected int inFlight = 0;
+
+	protected long captureCount = 0;
+	protected long skippedCount = 0;
+	protected long lastCaptureNanos = 0;
+	protected volatile IOException lastError = null;
+
+	public SnapshotWriter()
+	{
+		free.add(new Job());
+		free.add(new Job());
+	}
+
+	/**
+	 * Capture a snapshot of the sprite manager and queue it to be
+	 * written to the target file.
+	 * @param mgr sprites to save
+	 * @param serializer hook for saving custom sprite data
+	 * @param target file to write. Replaced if it exists.
+	 * @return true if the snapshot was captured. false if the previous
+	 * snapshots haven't finished writing and this one was skipped.
+	 * @throws IllegalArgumentException a sprite's asset key is longer
+	 * than SnapshotFormat.MAX_KEY_LENGTH bytes
+	 */
+	public boolean capture(SpriteManager mgr, SpriteSerializer serializer, File target)
+	{
+		Job job = free.poll();
+		if (job == null)
+		{
+			skippedCount++;
+			return false;
+		}
+
+		long start = System.nanoTime();
+		try
+		{
+			while (true)
+			{
+				try
+				{
+					encode(mgr, serializer, job.buffer);
+					break;
+				}
+				catch (BufferOverflowException e)
+				{
+					//too big. grow the buffer and start over. the buffer
+					//keeps its new size so this only happens while the
+					//state is growing.
+					job.buffer = ByteBuffer.allocate(job.buffer.capacity() * 2);
+				}
+			}
+		}
+		catch (RuntimeException e)
+		{
+			//hand the buffer back so later captures still have it
+			free.add(job);
+			throw e;
+		}
+		lastCaptureNanos = System.nanoTime() - start;
+		captureCount++;
+
+		job.target = target;
+		synchronized (this)
+		{
+			inFlight++;
+		}
+		startWriter();
+		pending.add(job);
+
+		return true;
+	}
+
+	/**
+	 * Block until every captured snapshot has been written.
+	 * @throws InterruptedException interrupted while waiting
+	 */
+	public synchronized void waitForWrites()
+			throws InterruptedException
+	{
+		while (inFlight > 0)
+			wait();
+	}
+
+	/**
+	 * @return time the last capture took on the game thread, in nanoseconds
+	 */
+	public long getLastCaptureNanos()	{	return lastCaptureNanos;	}
+
+	/**
+	 * @return number of snapshots captured
+	 */
+	public long getCaptureCount()		{	return captureCount;	}
+
+	/**
+	 * @return number of captures skipped because the writer was busy
+	 */
+	public long getSkippedCount()		{	return skippedCount;	}
+
+	/**
+	 * @return the last error hit by the writer thread, or null
+	 */
+	public IOException getLastError()	{	return lastError;	}
+
+	//------------------ capture
+
+	/**
+	 * write a snapshot into the buffer and flip it for writing
+	 * @throws BufferOverflowException the buffer is too small
+	 */
+	protected void encode(SpriteManager mgr, SpriteSerializer serializer, ByteBuffer buf)
+	{
+		buf.clear();
+		buf.putInt(SnapshotFormat.MAGIC);
+		buf.putShort(SnapshotFormat.VERSION);
+		buf.putShort((short) 0);
+		buf.putLong(System.currentTimeMillis());
+		buf.putInt(0); //string table offset, filled in below
+
+		BasicSprite bkg = mgr.getStaticBackground();
+		if (bkg != null)
+			writeSprite(bkg, serializer, buf);
+		else
+			buf.putInt(SnapshotFormat.NO_SPRITE);
+
+		int layers = mgr.getLayerCount();
+		buf.putInt(layers);
+		for (int l = 0; l < layers; l++)
+		{
+			int count = mgr.getLayerSize(l);
+			buf.putInt(count);
+			for (int i = 0; i < count; i++)
+				writeSprite(mgr.getSprite(l, i), serializer, buf);
+		}
+
+		//every key is known now, so write the table
+		buf.putInt(SnapshotFormat.STRING_TABLE_OFFSET_POSITION, buf.position());
+		buf.putInt(keyBytes.size());
+		for (int i = 0; i < keyBytes.size(); i++)
+		{
+			byte[] b = keyBytes.get(i);
+			buf.putShort((short) b.length);
+			buf.put(b);
+		}
+
+		buf.flip();
+	}
+
+	protected void writeSprite(BasicSprite s, SpriteSerializer serializer, ByteBuffer buf)
+	{
+		buf.putInt(keyId(s.getAssetKey()));
+		buf.putFloat(s.getX());
+		buf.putFloat(s.getY());
+
+		//custom data is prefixed with its length so the reader
+		//can hand each sprite exactly its own bytes.
+		int lengthPosition = buf.position();
+		buf.putInt(0);
+		int start = buf.position();
+		serializer.writeCustom(s, buf);
+		buf.putInt(lengthPosition, buf.position() - start);
+	}
+
+	protected int keyId(String key)
+	{
+		if (key == null)
+			return SnapshotFormat.NO_KEY;
+
+		Integer id = keyIds.get(key);
+		if (id == null)
+		{
+			//first time we've seen this key
+			byte[] b = key.getBytes(UTF8);
+			if (b.length > SnapshotFormat.MAX_KEY_LENGTH)
+				throw new IllegalArgumentException("Asset key is " + b.length
+						+ " bytes, longer than a snapshot can hold: " + key);
+
+			id = keyBytes.size();
+			keyBytes.add(b);
+			keyIds.put(key, id);
+		}
+		return id;
+	}
+
+	//------------------ writing
+
+	protected synchronized void startWriter()
+	{
+		if (writerThread != null)
+			return;
+
+		writerThread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				writeLoop();
+			}
+		}, "Waisy snapshot writer");
+		//don't keep the game alive just for the writer
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	protected void writeLoop()
+	{
+		while (true)
+		{
+			Job job;
+			try
+			{
+				job = pending.take();
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+
+			try
+			{
+				write(job.buffer, job.target);
+			}
+			catch (IOException e)
+			{
+				lastError = e;
+			}
+			catch (RuntimeException e)
+			{
+				//keep the thread alive. a dead writer would leave every
+				//later capture skipped and waitForWrites stuck
+				lastError = new IOException("Snapshot write failed", e);
+			}
+			finally
+			{
+				job.target = null;
+				free.add(job);
+				synchronized (this)
+				{
+					inFlight--;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * write the buffer to a temporary file and swap it into place
+	 */
+	protected void write(ByteBuffer buf, File target)
+			throws IOException
+	{
+		Path path = target.toPath().toAbsolutePath();
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		if (path.getParent() != null)
+			Files.createDirectories(path.getParent());
+
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			while (buf.hasRemaining())
+				channel.write(buf);
+			channel.force(true);
+		}
+
+		try
+		{
+			Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package Waisy.core.file;
+
+import java.nio.ByteBuffer;
+
+import Waisy.core.graphics.BasicSprite;
+
+/**
+ * Hook used by save state snapshots to rebuild sprites and to
+ * save any custom per-sprite data (health, timers, ai state, etc).
+ *
+ * Snapshots are captured on the game thread, so writeCustom should
+ * be quick and should avoid allocating. Only write primitives
+ * straight into the buffer.
+ * @author waisy
+ * @see BasicSpriteSerializer
+ */
+public interface SpriteSerializer
+{
+	/**
+	 * Create a sprite when loading a save. The position is set
+	 * afterwards, then readCustom is called.
+	 * @param assetKey asset key saved with the sprite. May be null
+	 * if the sprite didn't have one.
+	 * @return a new sprite
+	 */
+	public BasicSprite createSprite(String assetKey);
+
+	/**
+	 * Write any custom data for the sprite. Write nothing if the
+	 * sprite has no extra data.
+	 * @param s sprite being saved
+	 * @param out buffer to write into. Data is limited to what
+	 * fits in the buffer; the snapshot grows its buffer and
+	 * retries if it overflows.
+	 */
+	public void writeCustom(BasicSprite s, ByteBuffer out);
+
+	/**
+	 * Read back custom data written by writeCustom.
+	 * @param s sprite being loaded
+	 * @param in buffer holding exactly the bytes written for this sprite
+	 */
+	public void readCustom(BasicSprite s, ByteBuffer in);
+}
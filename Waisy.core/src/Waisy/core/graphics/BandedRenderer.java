@@ -0,0 +1,308 @@
+package Waisy.core.graphics;
+
+import java.awt.AlphaComposite;
+import java.awt.Composite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import Waisy.core.core.GameSettings;
+
+/**
+ * Renderer that draws each frame on several cores at once.
+ *
+ * The frame is drawn into an INT_ARGB buffer that is cut into
+ * horizontal bands. Worker threads, and the game thread itself,
+ * take bands one at a time and draw every sprite that crosses the
+ * band, in layer order, clipped to the band. Once every band is
+ * done the finished buffer is drawn to the screen in one go.
+ *
+ * Software blending is bound by the CPU, so this helps most with
+ * large screens, lots of translucent sprites, or many overlapping
+ * layers. For a few hundred small opaque sprites, renderList on one
+ * thread is usually just as fast.
+ *
+ * Sprites are only read while bands are drawn, but a sprite's paint
+ * is called once for every band it crosses, from whichever thread
+ * drew that band. Sprites that change state in paint need to be
+ * drawn another way.
+ *
+ * Call close() when done with the renderer to stop the workers.
+ * Frames drawn after that are drawn by the game thread alone.
+ * @author waisy
+ *
+ */
+public class BandedRenderer implements FrameRenderer
+{
+	protected int width;
+	protected int height;
+
+	protected BufferedImage buffer;
+
+	/**
+	 * area, graphics clipped to the area, and clip scratch of each band
+	 */
+	protected Rectangle[] bands;
+	protected Graphics2D[] bandGraphics;
+	protected Rectangle[] bandClips;
+
+	protected Thread[] workers;
+
+	//frame in progress. guarded by this
+	protected SpriteManager current = null;
+	protected long frame = 0;
+	protected int nextBand = 0;
+	protected int bandsLeft = 0;
+	protected boolean running = true;
+
+	/**
+	 * first failure while drawing a band this frame. rethrown
+	 * on the game thread.
+	 */
+	protected volatile RuntimeException bandError = null;
+
+	/**
+	 * create a renderer the size of the screen, using every core
+	 */
+	public BandedRenderer()
+	{
+		this(GameSettings.SCREEN_WIDTH, GameSettings.SCREEN_HEIGHT,
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param width width of the frame
+	 * @param height height of the frame
+	 * @param threads number of threads drawing, including the game
+	 * thread. The frame is cut into four bands per thread so a thread
+	 * that finishes early can pick up more of the work.
+	 */
+	public BandedRenderer(int width, int height, int threads)
+	{
+		this(width, height, threads, threads * 4);
+	}
+
+	/**
+	 * @param width width of the frame
+	 * @param height height of the frame
+	 * @param threads number of threads drawing, including the game thread
+	 * @param bandCount number of bands to cut the frame into
+	 */
+	public BandedRenderer(int width, int height, int threads, int bandCount)
+	{
+		if (threads < 1)
+			threads = 1;
+		bandCount = Math.max(1, Math.min(bandCount, height));
+
+		this.width = width;
+		this.height = height;
+
+		buffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+
+		bands = new Rectangle[bandCount];
+		bandGraphics = new Graphics2D[bandCount];
+		bandClips = new Rectangle[bandCount];
+		for (int i = 0; i < bandCount; i++)
+		{
+			//spread any leftover rows over the bands
+			int top = height * i / bandCount;
+			int bottom = height * (i + 1) / bandCount;
+			bands[i] = new Rectangle(0, top, width, bottom - top);
+
+			bandGraphics[i] = buffer.createGraphics();
+			bandGraphics[i].setClip(bands[i]);
+			bandClips[i] = new Rectangle();
+		}
+
+		//the game thread draws bands too, so it needs one less worker
+		workers = new Thread[threads - 1];
+		for (int i = 0; i < workers.length; i++)
+		{
+			workers[i] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					workLoop();
+				}
+			}, "Waisy render band " + (i + 1));
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	@Override
+	public void render(SpriteManager mgr, Graphics g)
+	{
+		//sort once up front. bands only read the sprites
+		mgr.sortLayers();
+
+		long thisFrame;
+		synchronized (this)
+		{
+			current = mgr;
+			nextBand = 0;
+			bandsLeft = bands.length;
+			bandError = null;
+			thisFrame = ++frame;
+			notifyAll();
+		}
+
+		drawBands(mgr, thisFrame);
+
+		boolean interrupted = false;
+		synchronized (this)
+		{
+			while (bandsLeft > 0)
+			{
+				try
+				{
+					wait();
+				}
+				catch (InterruptedException e)
+				{
+					//finish the frame, the workers are still using it
+					interrupted = true;
+				}
+			}
+			current = null;
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		RuntimeException error = bandError;
+		if (error != null)
+			throw error;
+
+		present(g);
+	}
+
+	/**
+	 * Draw the finished buffer. Every pixel of the buffer is opaque
+	 * after the background fill, so it's copied straight over rather
+	 * than blended.
+	 */
+	protected void present(Graphics g)
+	{
+		if (!(g instanceof Graphics2D))
+		{
+			g.drawImage(buffer, 0, 0, null);
+			return;
+		}
+
+		Graphics2D g2 = (Graphics2D) g;
+		Composite composite = g2.getComposite();
+		g2.setComposite(AlphaComposite.Src);
+		g2.drawImage(buffer, 0, 0, null);
+		g2.setComposite(composite);
+	}
+
+	protected void workLoop()
+	{
+		long seen = 0;
+		while (true)
+		{
+			SpriteManager mgr;
+			synchronized (this)
+			{
+				while (running && (frame == seen))
+				{
+					try
+					{
+						wait();
+					}
+					catch (InterruptedException e)
+					{
+						return;
+					}
+				}
+				if (!running)
+					return;
+
+				seen = frame;
+				mgr = current;
+			}
+
+			drawBands(mgr, seen);
+		}
+	}
+
+	/**
+	 * draw bands until there are none left in the frame
+	 */
+	protected void drawBands(SpriteManager mgr, long thisFrame)
+	{
+		int band;
+		while ((band = takeBand(thisFrame)) >= 0)
+		{
+			try
+			{
+				drawBand(mgr, band);
+			}
+			catch (RuntimeException e)
+			{
+				bandError = e;
+			}
+			finally
+			{
+				synchronized (this)
+				{
+					if (--bandsLeft == 0)
+						notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the next band to draw, or -1 if the frame is done or over
+	 */
+	protected synchronized int takeBand(long thisFrame)
+	{
+		if ((frame != thisFrame) || (nextBand >= bands.length))
+			return -1;
+		return nextBand++;
+	}
+
+	protected void drawBand(SpriteManager mgr, int band)
+	{
+		Graphics2D g = bandGraphics[band];
+		Rectangle r = bands[band];
+
+		g.setColor(GameSettings.COLOR_BACKGROUND);
+		g.fillRect(r.x, r.y, r.width, r.height);
+		mgr.renderSprites(g, bandClips[band], null);
+	}
+
+	/**
+	 * @return the number of bands the frame is cut into
+	 */
+	public int getBandCount()		{	return bands.length;	}
+
+	/**
+	 * @return the number of threads drawing, including the game thread
+	 */
+	public int getThreadCount()		{	return workers.length + 1;	}
+
+	/**
+	 * @return ids of the worker threads, not counting the game thread.
+	 * For tools that measure what the workers do.
+	 */
+	public long[] getWorkerThreadIds()
+	{
+		long[] ids = new long[workers.length];
+		for (int i = 0; i < workers.length; i++)
+			ids[i] = workers[i].getId();
+		return ids;
+	}
+
+	/**
+	 * stop the worker threads
+	 */
+	public synchronized void close()
+	{
+		running = false;
+		notifyAll();
+	}
+}
@@ -1,6 +1,7 @@
 package Waisy.core.graphics;
 
 import java.awt.Graphics;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
@@ -33,11 +34,41 @@ public class BasicSprite extends Object
 	protected float x = 0f;
 	protected float y = 0f;
 	
+	/**
+	 * explicit depth, for layers sorted by DepthSortKey.Z
+	 */
+	protected float z = 0f;
+	
+	/**
+	 * key of the flyweight asset this sprite's image came from,
+	 * if any. Save states use this to rebuild the sprite.
+	 */
+	protected String assetKey = null;
+	
+	/**
+	 * time held back by the UpdateLOD since the sprite's last update,
+	 * and the tick offset it staggers the sprite's updates by. The
+	 * offset is below 0 until the LOD first sees the sprite.
+	 */
+	protected float lodPendingDT = 0f;
+	protected int lodPhase = -1;
+	
 	public BasicSprite()
 	{
 		sprite = null;
 	}
 	
+	/**
+	 * Overloaded constructor. Shares an already loaded image
+	 * rather than loading it again. This is how tiles and repeat
+	 * enemies should be created from a flyweight's sprite.
+	 * @param image loaded image to share. The image is not copied.
+	 */
+	public BasicSprite(BufferedImage image)
+	{
+		sprite = image;
+	}
+	
 	/**
 	 * Overloaded constructor. Shortcut.
 	 * Base constructor + load sprite function
@@ -79,12 +110,76 @@ public class BasicSprite extends Object
 	    		+ "successfully loaded");
 	}
 	
+	/**
+	 * Retrieve the image used by this sprite. The image is shared,
+	 * not copied, so don't draw into it unless you mean to change
+	 * every sprite using it.
+	 * @return the image, or null if none has been loaded
+	 */
+	public BufferedImage getImage()		{	return sprite;	}
+	
+	public String getAssetKey()				{	return assetKey;	}
+	public void setAssetKey(String assetKey)	{	this.assetKey = assetKey;	}
+	
+	/**
+	 * @return width of the sprite's image, 0 if there is none
+	 */
+	public int getWidth()	{	return (sprite != null) ? sprite.getWidth() : 0;	}
+	
+	/**
+	 * @return height of the sprite's image, 0 if there is none
+	 */
+	public int getHeight()	{	return (sprite != null) ? sprite.getHeight() : 0;	}
+	
+	/**
+	 * Check whether any part of the sprite would be drawn within
+	 * a clip area. Used by the SpriteManager to skip sprites that are
+	 * wholly off screen. Child classes that draw outside their
+	 * image's bounds should overload this.
+	 * @param clip clip bounds to test against
+	 * @return true if the sprite may draw inside the clip
+	 */
+	public boolean isOnScreen(Rectangle clip)
+	{
+		//nothing to measure. let paint decide.
+		if (sprite == null)
+			return true;
+		
+		int sx = (int)x;
+		int sy = (int)y;
+		return (sx < clip.x + clip.width) && (sx + sprite.getWidth() > clip.x)
+				&& (sy < clip.y + clip.height) && (sy + sprite.getHeight() > clip.y);
+	}
+	
+	/**
+	 * Get the area the sprite draws over, in world pixels. Renderers
+	 * that reuse the last frame repaint this area when it changes.
+	 * Child classes that draw outside their image's bounds should
+	 * overload this along with isOnScreen.
+	 * @param r rectangle to hold the bounds
+	 */
+	public void getDrawBounds(Rectangle r)
+	{
+		r.setBounds((int) getX(), (int) getY(), getWidth(), getHeight());
+	}
+	
+	/**
+	 * @return a number that changes whenever the sprite looks different
+	 * without its draw bounds changing. Renderers that reuse the last
+	 * frame repaint the sprite when it changes. Always 0 for a plain
+	 * sprite.
+	 */
+	public int getPaintVersion()	{	return 0;	}
+	
 	public float getX() 		{	return x;	}
 	public void setX(float x) 	{	this.x = x; }
 
 	public float getY() 		{ 	return y;	}
 	public void setY(float y) 	{	this.y = y;	}
 	
+	public float getZ() 		{ 	return z;	}
+	public void setZ(float z) 	{	this.z = z;	}
+	
 	/**
 	 * render this sprite. This simply renders the
 	 * sprite at x,y. Child classes that need
@@ -107,6 +202,41 @@ public class BasicSprite extends Object
 		g.drawImage(sprite, (int)x, (int)y, null);
 	}
 	
+	/**
+	 * Render this sprite into a frame drawn at a lower resolution,
+	 * from a copy of its image made at that scale. Used by the
+	 * ResolutionScaler. Child classes that overload paint(Graphics)
+	 * should overload this too, drawing their images through the
+	 * cache at scaled positions.
+	 * @param g Graphics of the smaller frame, translated by the
+	 * camera at the frame's scale
+	 * @param images copies of images at the frame's scale
+	 */
+	public void paint(Graphics g, ScaledImageCache images)
+	{
+		if (sprite == null)
+			return;
+		
+		g.drawImage(images.get(sprite), images.scale(x), images.scale(y), null);
+	}
+	
+	/**
+	 * Render this sprite straight into a frame's pixels. Much faster
+	 * than paint(Graphics) for small sprites. Child classes that
+	 * overload paint(Graphics) should overload this too, or be drawn
+	 * with a Graphics instead.
+	 * @param fb frame to draw into
+	 * @see RasterBlitter
+	 */
+	public void paint(IntFrameBuffer fb)
+	{
+		if (sprite == null)
+			return;
+		
+		//blitters are shared by every sprite with the same image
+		fb.blitterFor(sprite).blit(fb, (int)x, (int)y);
+	}
+	
 	
 	/**
 	 * update the sprite according to time changed since last update.
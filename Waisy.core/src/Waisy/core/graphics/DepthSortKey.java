@@ -0,0 +1,44 @@
+package Waisy.core.graphics;
+
+/**
+ * Gives the depth a sprite is drawn at within a sorted SpriteManager
+ * layer. Sprites with a lower depth are drawn first, so they appear
+ * behind sprites with a higher depth.
+ * @author waisy
+ * @see SpriteManager#setLayerSortKey(int, DepthSortKey)
+ */
+public interface DepthSortKey
+{
+	/**
+	 * Sort by the bottom edge of the sprite (y + height). This is
+	 * the usual order for top-down and overlapping characters:
+	 * whoever stands lower on the screen is in front.
+	 */
+	public static final DepthSortKey BOTTOM = new DepthSortKey()
+	{
+		@Override
+		public float getDepth(BasicSprite s)
+		{
+			return s.getY() + s.getHeight();
+		}
+	};
+
+	/**
+	 * Sort by the sprite's explicit z value.
+	 * @see BasicSprite#setZ(float)
+	 */
+	public static final DepthSortKey Z = new DepthSortKey()
+	{
+		@Override
+		public float getDepth(BasicSprite s)
+		{
+			return s.getZ();
+		}
+	};
+
+	/**
+	 * @param s sprite to measure
+	 * @return the sprite's depth. Lower depths are drawn first.
+	 */
+	public float getDepth(BasicSprite s);
+}
@@ -0,0 +1,21 @@
+package Waisy.core.graphics;
+
+import java.awt.Graphics;
+
+/**
+ * Draws a SpriteManager's sprites to the screen. A state uses its
+ * sprite manager's renderList unless it's given a FrameRenderer,
+ * which lets a state swap in a renderer suited to its scene,
+ * such as one that reuses the previous frame while scrolling.
+ * @author waisy
+ * @see Waisy.core.structures.BasicGameState#setFrameRenderer(FrameRenderer)
+ */
+public interface FrameRenderer
+{
+	/**
+	 * draw a frame
+	 * @param mgr sprites to draw
+	 * @param g Graphics object of the main frame
+	 */
+	public void render(SpriteManager mgr, Graphics g);
+}
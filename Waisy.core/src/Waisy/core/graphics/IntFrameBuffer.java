@@ -0,0 +1,157 @@
+package Waisy.core.graphics;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * A frame whose pixels sprites write straight into, through a
+ * RasterBlitter, instead of going through Graphics.drawImage.
+ *
+ * The frame is an INT_RGB BufferedImage, so it can still be drawn
+ * to the screen, or drawn into with a Graphics for anything the
+ * blitter doesn't handle. Like a Graphics, it has a clip, which
+ * every blit is cut to, and a translation added to every blit.
+ *
+ * Taking the pixel array stops Java2D from caching the image on the
+ * video card, which is fine for a frame that changes every frame.
+ * @author waisy
+ * @see RasterBlitter
+ */
+public class IntFrameBuffer
+{
+	protected BufferedImage image;
+	protected int[] pixels;
+	protected int width;
+	protected int height;
+
+	//clip, as inclusive min and exclusive max, in frame coordinates
+	protected int clipMinX, clipMinY, clipMaxX, clipMaxY;
+
+	//added to every blit
+	protected int translateX = 0;
+	protected int translateY = 0;
+
+	/**
+	 * number of places in the blitter cache. A power of 2.
+	 */
+	protected static final int BLITTER_SLOTS = 64;
+
+	/**
+	 * blitters drawn lately, placed by their image's identity hash,
+	 * so most sprites don't have to go to RasterBlitter's shared cache
+	 */
+	protected BufferedImage[] blitterImages = new BufferedImage[BLITTER_SLOTS];
+	protected RasterBlitter[] blitters = new RasterBlitter[BLITTER_SLOTS];
+	protected int blitterForgets = 0;
+
+	/**
+	 * @param width width of the frame
+	 * @param height height of the frame
+	 */
+	public IntFrameBuffer(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+		setClip(null);
+	}
+
+	/**
+	 * @return the image holding the frame, to draw to the screen
+	 */
+	public BufferedImage getImage()		{	return image;	}
+
+	/**
+	 * @return the frame's pixels, as 0xRRGGBB, a row at a time
+	 */
+	public int[] getPixels()			{	return pixels;	}
+
+	public int getWidth()				{	return width;	}
+	public int getHeight()				{	return height;	}
+
+	/**
+	 * Fill the whole frame, ignoring the clip.
+	 * @param rgb colour as 0xRRGGBB
+	 */
+	public void clear(int rgb)
+	{
+		Arrays.fill(pixels, rgb);
+	}
+
+	/**
+	 * Limit blits to part of the frame.
+	 * @param clip area in frame coordinates, ignoring the translation.
+	 * null for the whole frame.
+	 */
+	public void setClip(Rectangle clip)
+	{
+		if (clip == null)
+		{
+			clipMinX = 0;
+			clipMinY = 0;
+			clipMaxX = width;
+			clipMaxY = height;
+			return;
+		}
+
+		clipMinX = Math.max(clip.x, 0);
+		clipMinY = Math.max(clip.y, 0);
+		clipMaxX = Math.min(clip.x + clip.width, width);
+		clipMaxY = Math.min(clip.y + clip.height, height);
+	}
+
+	/**
+	 * Fill in the clip bounds in translated coordinates, the same as
+	 * Graphics.getClipBounds, for culling sprites.
+	 * @param r rectangle to fill in
+	 * @return r
+	 */
+	public Rectangle getClipBounds(Rectangle r)
+	{
+		r.setBounds(clipMinX - translateX, clipMinY - translateY,
+				clipMaxX - clipMinX, clipMaxY - clipMinY);
+		return r;
+	}
+
+	/**
+	 * Get the blitter for an image, from the frame's own small cache
+	 * if it has been drawn lately. The frame holds on to the last few
+	 * images it drew until they're replaced.
+	 * @param image sprite image
+	 * @return the image's blitter
+	 * @see RasterBlitter#forImage(BufferedImage)
+	 */
+	public RasterBlitter blitterFor(BufferedImage image)
+	{
+		//an image's pixels were changed. start over
+		int forgets = RasterBlitter.getForgetCount();
+		if (forgets != blitterForgets)
+		{
+			Arrays.fill(blitterImages, null);
+			Arrays.fill(blitters, null);
+			blitterForgets = forgets;
+		}
+
+		int slot = System.identityHashCode(image) & (BLITTER_SLOTS - 1);
+		if (blitterImages[slot] != image)
+		{
+			blitters[slot] = RasterBlitter.forImage(image);
+			blitterImages[slot] = image;
+		}
+		return blitters[slot];
+	}
+
+	/**
+	 * Move the origin, the same as Graphics.translate.
+	 */
+	public void translate(int x, int y)
+	{
+		translateX += x;
+		translateY += y;
+	}
+}
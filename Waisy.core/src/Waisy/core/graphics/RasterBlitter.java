@@ -0,0 +1,302 @@
+package Waisy.core.graphics;
+
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Copies a sprite image straight into an IntFrameBuffer's pixels.
+ *
+ * Graphics.drawImage checks the clip and composite and looks up a
+ * drawing loop on every call, which costs more than the drawing
+ * itself for small tiles. A blitter does that work once, when it's
+ * made: it takes a copy of the image's pixels and picks one of three
+ * loops for it.
+ * - OPAQUE: every pixel is solid. Rows are copied whole.
+ * - BITMASK: every pixel is solid or clear. The solid runs of each
+ *   row are worked out up front, and only those are copied.
+ * - TRANSLUCENT: anything else. Pixels are blended one at a time,
+ *   skipping solid and clear ones.
+ *
+ * Blending treats the frame as opaque, and rounds slightly
+ * differently from drawImage, so translucent pixels can be a step
+ * or two off in each colour channel.
+ *
+ * Blitters are shared by every sprite with the same image; use
+ * forImage to get one. The pixels are copied when the blitter is
+ * made, so call forget after drawing into an image that has been
+ * blitted, or update for a blitter made with new.
+ * @author waisy
+ * @see IntFrameBuffer
+ */
+public class RasterBlitter
+{
+	public static final int OPAQUE = 0;
+	public static final int BITMASK = 1;
+	public static final int TRANSLUCENT = 2;
+
+	/**
+	 * blitters made so far. Values don't refer to their image, so
+	 * images are still collected once nothing else uses them.
+	 */
+	protected static final Map<BufferedImage, RasterBlitter> cache =
+			new WeakHashMap<BufferedImage, RasterBlitter>();
+
+	/**
+	 * number of times forget has been called, so frame buffers know
+	 * to drop the blitters they hold
+	 */
+	protected static volatile int forgetCount = 0;
+
+	/**
+	 * runs this long or shorter are copied a pixel at a time
+	 */
+	protected static final int SHORT_RUN = 8;
+
+	protected int width;
+	protected int height;
+	protected int kind;
+
+	/**
+	 * the image's pixels as 0xAARRGGBB, a row at a time
+	 */
+	protected int[] pixels;
+
+	/**
+	 * solid runs of BITMASK images, as start and length pairs.
+	 * The runs of row y are pairs rowRuns[y] up to rowRuns[y + 1].
+	 */
+	protected int[] runs;
+	protected int[] rowRuns;
+
+	/**
+	 * Get the blitter for an image, making it the first time.
+	 * @param image sprite image
+	 * @return the image's blitter
+	 */
+	public static RasterBlitter forImage(BufferedImage image)
+	{
+		synchronized (cache)
+		{
+			RasterBlitter b = cache.get(image);
+			if (b == null)
+			{
+				b = new RasterBlitter(image);
+				cache.put(image, b);
+			}
+			return b;
+		}
+	}
+
+	/**
+	 * Drop the blitter for an image, so the next one made sees the
+	 * image's current pixels. Frame buffers holding the old blitter
+	 * pick up the new one the next time they're drawn into.
+	 * @param image image that was changed
+	 */
+	public static void forget(BufferedImage image)
+	{
+		synchronized (cache)
+		{
+			cache.remove(image);
+			forgetCount++;
+		}
+	}
+
+	/**
+	 * @return number of times forget has been called
+	 */
+	public static int getForgetCount()
+	{
+		return forgetCount;
+	}
+
+	/**
+	 * make a blitter for an image. Use forImage to share blitters.
+	 */
+	public RasterBlitter(BufferedImage image)
+	{
+		update(image);
+	}
+
+	/**
+	 * Take the image's pixels again, after drawing into it. For a
+	 * blitter of your own; shared blitters are refreshed with forget.
+	 * The arrays are reused when they're big enough, so redrawing an
+	 * image the same size or smaller doesn't allocate.
+	 * @param image image to copy, which may differ from the last one
+	 */
+	public void update(BufferedImage image)
+	{
+		width = image.getWidth();
+		height = image.getHeight();
+		if ((pixels == null) || (pixels.length < width * height))
+			pixels = new int[width * height];
+		image.getRGB(0, 0, width, height, pixels, 0, width);
+
+		//find which loop the image needs
+		boolean solid = true;
+		boolean partial = false;
+		int runCount = 0;
+		for (int y = 0; y < height; y++)
+		{
+			boolean inRun = false;
+			for (int x = 0; x < width; x++)
+			{
+				int a = pixels[y * width + x] >>> 24;
+				if (a != 0xFF)
+					solid = false;
+				if ((a != 0) && (a != 0xFF))
+					partial = true;
+				if ((a == 0xFF) && !inRun)
+					runCount++;
+				inRun = (a == 0xFF);
+			}
+		}
+
+		if (solid)
+			kind = OPAQUE;
+		else if (partial)
+			kind = TRANSLUCENT;
+		else
+		{
+			kind = BITMASK;
+			buildRuns(runCount);
+		}
+	}
+
+	protected void buildRuns(int runCount)
+	{
+		if ((runs == null) || (runs.length < runCount * 2))
+			runs = new int[runCount * 2];
+		if ((rowRuns == null) || (rowRuns.length < height + 1))
+			rowRuns = new int[height + 1];
+
+		int r = 0;
+		for (int y = 0; y < height; y++)
+		{
+			rowRuns[y] = r;
+			int x = 0;
+			while (x < width)
+			{
+				//skip the clear pixels, then measure the solid ones
+				while ((x < width) && ((pixels[y * width + x] >>> 24) == 0))
+					x++;
+				int start = x;
+				while ((x < width) && ((pixels[y * width + x] >>> 24) != 0))
+					x++;
+				if (x > start)
+				{
+					runs[r * 2] = start;
+					runs[r * 2 + 1] = x - start;
+					r++;
+				}
+			}
+		}
+		rowRuns[height] = r;
+	}
+
+	/**
+	 * @return which loop the image is drawn with: OPAQUE, BITMASK or TRANSLUCENT
+	 */
+	public int getKind()		{	return kind;	}
+
+	public int getWidth()		{	return width;	}
+	public int getHeight()		{	return height;	}
+
+	/**
+	 * Draw the image into a frame.
+	 * @param dst frame to draw into. Its clip and translation apply.
+	 * @param x left edge of the image
+	 * @param y top edge of the image
+	 */
+	public void blit(IntFrameBuffer dst, int x, int y)
+	{
+		x += dst.translateX;
+		y += dst.translateY;
+
+		//cut to the clip
+		int minX = Math.max(x, dst.clipMinX);
+		int minY = Math.max(y, dst.clipMinY);
+		int maxX = Math.min(x + width, dst.clipMaxX);
+		int maxY = Math.min(y + height, dst.clipMaxY);
+		if ((minX >= maxX) || (minY >= maxY))
+			return;
+
+		int[] out = dst.pixels;
+		int[] pixels = this.pixels;
+		int stride = dst.width;
+		int srcMinX = minX - x;
+		int span = maxX - minX;
+
+		switch (kind)
+		{
+		case OPAQUE:
+			for (int row = minY; row < maxY; row++)
+				System.arraycopy(pixels, (row - y) * width + srcMinX, out, row * stride + minX, span);
+			break;
+
+		case BITMASK:
+			int[] runs = this.runs;
+			int[] rowRuns = this.rowRuns;
+			//runs only need cutting when the sides are clipped
+			boolean cut = (srcMinX > 0) || (span < width);
+			int cutMaxX = srcMinX + span;
+			for (int row = minY; row < maxY; row++)
+			{
+				int sy = row - y;
+				int srcRow = sy * width;
+				int dstRow = row * stride + x;
+				int last = rowRuns[sy + 1] * 2;
+				for (int r = rowRuns[sy] * 2; r < last; r += 2)
+				{
+					int start = runs[r];
+					int end = start + runs[r + 1];
+					if (cut)
+					{
+						start = Math.max(start, srcMinX);
+						end = Math.min(end, cutMaxX);
+					}
+					if (end - start > SHORT_RUN)
+						System.arraycopy(pixels, srcRow + start, out, dstRow + start, end - start);
+					else
+					{
+						//arraycopy costs more than a few pixels, as in text
+						for (int i = start; i < end; i++)
+							out[dstRow + i] = pixels[srcRow + i];
+					}
+				}
+			}
+			break;
+
+		default:
+			for (int row = minY; row < maxY; row++)
+			{
+				int si = (row - y) * width + srcMinX;
+				int di = row * stride + minX;
+				for (int i = 0; i < span; i++, si++, di++)
+				{
+					int s = pixels[si];
+					int a = s >>> 24;
+					if (a == 0)
+						continue;
+					if (a == 0xFF)
+					{
+						out[di] = s;
+						continue;
+					}
+
+					//scale alpha to 0-256 so the divide is a shift,
+					//then blend red and blue together, and green alone
+					int d = out[di];
+					int sa = a + (a >> 7);
+					int da = 256 - sa;
+					int rb = (((s & 0xFF00FF) * sa + (d & 0xFF00FF) * da) >>> 8) & 0xFF00FF;
+					int g = (((s & 0x00FF00) * sa + (d & 0x00FF00) * da) >>> 8) & 0x00FF00;
+					out[di] = 0xFF000000 | rb | g;
+				}
+			}
+			break;
+		}
+	}
+}
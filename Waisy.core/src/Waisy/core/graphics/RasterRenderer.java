@@ -0,0 +1,61 @@
+package Waisy.core.graphics;
+
+import java.awt.Graphics;
+import java.awt.Rectangle;
+
+import Waisy.core.core.FrameProfiler;
+import Waisy.core.core.GameSettings;
+
+/**
+ * Renderer that draws every sprite with paint(IntFrameBuffer),
+ * writing straight into the frame's pixels rather than through
+ * Graphics.drawImage. Best for scenes built from lots of small
+ * tiles. Sprites that only know how to paint with a Graphics
+ * need the default renderer instead.
+ * @author waisy
+ * @see RasterBlitter
+ */
+public class RasterRenderer implements FrameRenderer
+{
+	protected IntFrameBuffer frame;
+	protected Rectangle clipBounds = new Rectangle();
+
+	/**
+	 * create a renderer the size of the screen
+	 */
+	public RasterRenderer()
+	{
+		this(GameSettings.SCREEN_WIDTH, GameSettings.SCREEN_HEIGHT);
+	}
+
+	/**
+	 * @param width width of the frame
+	 * @param height height of the frame
+	 */
+	public RasterRenderer(int width, int height)
+	{
+		frame = new IntFrameBuffer(width, height);
+	}
+
+	@Override
+	public void render(SpriteManager mgr, Graphics g)
+	{
+		mgr.sortLayers();
+
+		frame.clear(GameSettings.COLOR_BACKGROUND.getRGB());
+		FrameProfiler profiler = GameSettings.profiler;
+		mgr.renderSprites(frame, clipBounds, profiler);
+
+		//drawn into the frame, where the profiler's kept lines are
+		//quicker than drawChars, rather than by the GameManager
+		if ((profiler != null) && profiler.isOverlayVisible())
+			profiler.renderOverlay(frame);
+
+		g.drawImage(frame.getImage(), 0, 0, null);
+	}
+
+	/**
+	 * @return the frame sprites are drawn into
+	 */
+	public IntFrameBuffer getFrame()	{	return frame;	}
+}
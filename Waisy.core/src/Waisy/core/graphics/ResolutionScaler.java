@@ -0,0 +1,448 @@
+package Waisy.core.graphics;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+
+import Waisy.core.core.FrameProfiler;
+import Waisy.core.core.GameSettings;
+
+/**
+ * Renderer that draws the frame into a smaller buffer when frames take
+ * too long to render, then stretches the buffer over the screen.
+ *
+ * Sprites aren't drawn through a scaling transform, which Java2D's
+ * software loops draw several times slower than plain images. Instead
+ * each sprite image is shrunk once per scale into a ScaledImageCache,
+ * and the copies are drawn at their own size at scaled positions, so
+ * a smaller frame really is less work. The buffer is stretched over
+ * the screen with a single scaled drawImage.
+ *
+ * The scaler times every frame it renders, including the stretch,
+ * and keeps a running average. When the average stays over the frame
+ * budget it steps the scale down, and when it stays well under the
+ * budget it steps back up, within the scales it was given. Stepping
+ * down takes a few slow frames but stepping up takes many fast ones,
+ * and between the two thresholds the scale is left alone, so a scene
+ * that sits near the budget settles on one scale rather than
+ * flicking between two. After each step the scaler waits for the
+ * average to catch up before judging it again.
+ *
+ * A smaller frame only helps when filling pixels is what's slow. A
+ * screen of small opaque tiles costs about the same per sprite at any
+ * size, and the stretch then makes it slower. So after stepping down
+ * the scaler checks the step helped; if it didn't it steps back up
+ * and stops there, rather than trying again every few seconds and
+ * hitching each time. The scene can change, though, so the floor
+ * doesn't last: it's cleared when frames get much slower than they
+ * were when it was set, such as when more sprites arrive, and after
+ * a minute or so in case frames are now slow from filling pixels.
+ * Changing the budget or setting the scale clears it as well.
+ *
+ * At full scale the sprite manager's renderList draws straight to the
+ * screen, so the scaler costs nothing until it's needed. Sprites that
+ * overload paint(Graphics) need to overload paint(Graphics,
+ * ScaledImageCache) as well. The UI is drawn after the state, at full
+ * resolution, so text stays sharp.
+ *
+ * Each scale visited keeps its own copies of the images drawn at it;
+ * call flushImages() when a level's images are done with, as with the
+ * flyweight factories.
+ * @author waisy
+ * @see Waisy.core.structures.BasicGameState#setFrameRenderer(FrameRenderer)
+ */
+public class ResolutionScaler implements FrameRenderer
+{
+	public static final float DEFAULT_MIN_SCALE = 0.5f;
+	public static final float DEFAULT_STEP = 0.125f;
+
+	/**
+	 * step down when the average is over this much of the budget
+	 */
+	protected static final float STEP_DOWN_LOAD = 0.95f;
+	/**
+	 * step up when the average is under this much of the budget
+	 */
+	protected static final float STEP_UP_LOAD = 0.7f;
+
+	/**
+	 * frames in a row the average has to be over or under before
+	 * the scale changes
+	 */
+	protected static final int STEP_DOWN_FRAMES = 10;
+	protected static final int STEP_UP_FRAMES = 90;
+
+	/**
+	 * frames to wait after a change for the average to catch up
+	 */
+	protected static final int SETTLE_FRAMES = 30;
+
+	/**
+	 * weight of each new frame in the running average
+	 */
+	protected static final float AVERAGE_WEIGHT = 0.1f;
+
+	/**
+	 * the floor is cleared when the average rises over this much of
+	 * the average when it was set
+	 */
+	protected static final float FLOOR_RESET_LOAD = 1.5f;
+	/**
+	 * frames the floor lasts before it's cleared
+	 */
+	protected static final int FLOOR_FRAMES = 3600;
+
+	protected int width;
+	protected int height;
+	protected long budgetNanos;
+
+	protected float minScale;
+	protected float maxScale;
+	protected float step = DEFAULT_STEP;
+	protected Object interpolation = RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR;
+
+	protected float scale;
+	protected int renderWidth;
+	protected int renderHeight;
+
+	/**
+	 * frame drawn at a lower scale, made when first needed at the
+	 * most it will ever be drawn at. Opaque, since it's cleared to the
+	 * background every frame; Java2D stretches a translucent one
+	 * through a slower path that allocates.
+	 */
+	protected BufferedImage buffer = null;
+	protected Graphics2D bufferGraphics = null;
+	protected Rectangle clipBounds = new Rectangle();
+
+	/**
+	 * image copies for each scale drawn at so far, and the one for
+	 * the current scale
+	 */
+	protected ArrayList<ScaledImageCache> caches = new ArrayList<ScaledImageCache>();
+	protected ScaledImageCache images = null;
+
+	/**
+	 * size of the buffer's clip, which is only set when it changes
+	 * since setting it makes a new region
+	 */
+	protected int clipWidth = 0;
+	protected int clipHeight = 0;
+
+	/**
+	 * running average of the frame time in ns. below 0 before the
+	 * first frame.
+	 */
+	protected float averageNanos = -1f;
+	protected int slowFrames = 0;
+	protected int fastFrames = 0;
+	protected int settleFrames = 0;
+
+	/**
+	 * scale stepped down from and the average there, until the step
+	 * has been judged. stepFromScale is below 0 when there's nothing
+	 * to judge.
+	 */
+	protected float stepFromScale = -1f;
+	protected float stepFromNanos = 0f;
+
+	/**
+	 * least scale that has been any faster, at or above minScale
+	 */
+	protected float floorScale;
+	/**
+	 * average at the floor when it was set, and frames since then
+	 */
+	protected float floorNanos = 0f;
+	protected int floorFrames = 0;
+
+	/**
+	 * scaler for the whole screen, scaling down as far as half size
+	 * @param budgetMillis most time a frame should take to render, in ms
+	 */
+	public ResolutionScaler(float budgetMillis)
+	{
+		this(GameSettings.SCREEN_WIDTH, GameSettings.SCREEN_HEIGHT, budgetMillis,
+				DEFAULT_MIN_SCALE, 1f);
+	}
+
+	/**
+	 * @param width width of the screen
+	 * @param height height of the screen
+	 * @param budgetMillis most time a frame should take to render, in ms
+	 * @param minScale least scale to draw at, above 0
+	 * @param maxScale most scale to draw at, up to 1. Frames start at this.
+	 */
+	public ResolutionScaler(int width, int height, float budgetMillis, float minScale, float maxScale)
+	{
+		if ((minScale <= 0f) || (minScale > maxScale) || (maxScale > 1f))
+			throw new IllegalArgumentException("scales must be 0 < min <= max <= 1, not "
+					+ minScale + " to " + maxScale);
+
+		this.width = width;
+		this.height = height;
+		this.minScale = minScale;
+		this.maxScale = maxScale;
+		setBudget(budgetMillis);
+		changeScale(maxScale);
+	}
+
+	//------------------ rendering
+
+	@Override
+	public void render(SpriteManager mgr, Graphics g)
+	{
+		long start = System.nanoTime();
+
+		if (scale >= 1f)
+			mgr.renderList(g);
+		else
+		{
+			mgr.sortLayers();
+			Graphics2D bg = begin((Graphics2D) g);
+			mgr.renderSprites(bg, images, clipBounds, GameSettings.profiler);
+			end(g);
+		}
+
+		FrameProfiler profiler = GameSettings.profiler;
+		if (profiler != null)
+			profiler.setRenderScale(scale);
+
+		adjust(System.nanoTime() - start);
+	}
+
+	/**
+	 * get the buffer ready for a frame at the current scale
+	 * @param screen graphics of the screen, to make the buffer from
+	 * @return graphics of the buffer, cleared and clipped to the frame
+	 */
+	protected Graphics2D begin(Graphics2D screen)
+	{
+		if (buffer == null)
+		{
+			int w = (int) Math.ceil(width * maxScale);
+			int h = (int) Math.ceil(height * maxScale);
+			buffer = screen.getDeviceConfiguration().createCompatibleImage(w, h,
+					Transparency.OPAQUE);
+			bufferGraphics = buffer.createGraphics();
+		}
+
+		Graphics2D g = bufferGraphics;
+		if ((clipWidth != renderWidth) || (clipHeight != renderHeight))
+		{
+			g.setClip(0, 0, renderWidth, renderHeight);
+			clipWidth = renderWidth;
+			clipHeight = renderHeight;
+		}
+
+		g.setColor(GameSettings.COLOR_BACKGROUND);
+		g.fillRect(0, 0, renderWidth, renderHeight);
+		return g;
+	}
+
+	/**
+	 * stretch the frame drawn into the buffer over the screen
+	 * @param screen graphics of the screen
+	 */
+	protected void end(Graphics screen)
+	{
+		Graphics2D g = (Graphics2D) screen;
+		Object old = g.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+		g.drawImage(buffer, 0, 0, width, height, 0, 0, renderWidth, renderHeight, null);
+		if (old != null)
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, old);
+	}
+
+	//------------------ choosing the scale
+
+	/**
+	 * add a frame's time to the average and step the scale if it has
+	 * been over or under budget for long enough
+	 * @param nanos time the frame took to render
+	 */
+	protected void adjust(long nanos)
+	{
+		if (averageNanos < 0f)
+			averageNanos = nanos;
+		else
+			averageNanos += (nanos - averageNanos) * AVERAGE_WEIGHT;
+
+		if (floorScale > minScale)
+			checkFloor();
+
+		if (settleFrames > 0)
+		{
+			if (--settleFrames == 0)
+				checkStep();
+			return;
+		}
+
+		if (averageNanos > budgetNanos * STEP_DOWN_LOAD)
+		{
+			slowFrames++;
+			fastFrames = 0;
+		}
+		else if (averageNanos < budgetNanos * STEP_UP_LOAD)
+		{
+			fastFrames++;
+			slowFrames = 0;
+		}
+		else
+		{
+			slowFrames = 0;
+			fastFrames = 0;
+		}
+
+		if ((slowFrames >= STEP_DOWN_FRAMES) && (scale > floorScale))
+		{
+			float from = scale;
+			changeScale(Math.max(scale - step, floorScale));
+			stepFromScale = from;
+			stepFromNanos = averageNanos;
+		}
+		else if ((fastFrames >= STEP_UP_FRAMES) && (scale < maxScale))
+			changeScale(Math.min(scale + step, maxScale));
+	}
+
+	/**
+	 * go back up if the last step down didn't make frames any faster,
+	 * and don't step below that again
+	 */
+	protected void checkStep()
+	{
+		if (stepFromScale < 0f)
+			return;
+
+		if (averageNanos > stepFromNanos * STEP_DOWN_LOAD)
+		{
+			floorScale = stepFromScale;
+			floorNanos = stepFromNanos;
+			floorFrames = 0;
+			changeScale(stepFromScale);
+		}
+		stepFromScale = -1f;
+	}
+
+	/**
+	 * clear the floor if frames have got much slower since it was set,
+	 * or it has lasted long enough
+	 */
+	protected void checkFloor()
+	{
+		if ((averageNanos > floorNanos * FLOOR_RESET_LOAD) || (++floorFrames >= FLOOR_FRAMES))
+			floorScale = minScale;
+	}
+
+	protected void changeScale(float newScale)
+	{
+		scale = newScale;
+		renderWidth = Math.max(1, Math.round(width * scale));
+		renderHeight = Math.max(1, Math.round(height * scale));
+		images = (scale < 1f) ? cacheFor(scale) : null;
+
+		slowFrames = 0;
+		fastFrames = 0;
+		settleFrames = SETTLE_FRAMES;
+		stepFromScale = -1f;
+	}
+
+	/**
+	 * @return the image copies for a scale, made the first time
+	 */
+	protected ScaledImageCache cacheFor(float scale)
+	{
+		for (int i = 0; i < caches.size(); i++)
+		{
+			if (caches.get(i).getScale() == scale)
+				return caches.get(i);
+		}
+
+		ScaledImageCache cache = new ScaledImageCache(scale);
+		caches.add(cache);
+		return cache;
+	}
+
+	/**
+	 * Draw at a scale until the frame times move it again. Forgets any
+	 * step down that didn't help.
+	 * @param scale scale to draw at, kept within the scaler's range
+	 */
+	public void setScale(float scale)
+	{
+		floorScale = minScale;
+		changeScale(Math.max(minScale, Math.min(scale, maxScale)));
+	}
+
+	/**
+	 * @return scale the next frame is drawn at, 1 for full size
+	 */
+	public float getScale()			{	return scale;	}
+
+	/**
+	 * @return size the next frame is drawn at, in pixels
+	 */
+	public int getRenderWidth()		{	return renderWidth;	}
+	public int getRenderHeight()	{	return renderHeight;	}
+
+	public float getMinScale()		{	return minScale;	}
+	public float getMaxScale()		{	return maxScale;	}
+
+	/**
+	 * @return least scale the scaler will step down to, raised when a
+	 * step down didn't help
+	 */
+	public float getFloorScale()	{	return floorScale;	}
+
+	/**
+	 * @return running average of the frame time in ms, 0 before the
+	 * first frame
+	 */
+	public float getAverageMillis()
+	{
+		return (averageNanos < 0f) ? 0f : averageNanos / 1000000f;
+	}
+
+	/**
+	 * Forgets any step down that didn't help.
+	 * @param budgetMillis most time a frame should take to render, in ms
+	 */
+	public void setBudget(float budgetMillis)
+	{
+		budgetNanos = (long) (budgetMillis * 1000000f);
+		floorScale = minScale;
+	}
+
+	public float getBudgetMillis()	{	return budgetNanos / 1000000f;	}
+
+	/**
+	 * @param step how much the scale changes at a time
+	 */
+	public void setStep(float step)	{	this.step = step;	}
+
+	/**
+	 * Set how the buffer is stretched over the screen.
+	 * @param interpolation RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR
+	 * (the default) for blocky pixels, or VALUE_INTERPOLATION_BILINEAR or
+	 * VALUE_INTERPOLATION_BICUBIC for smoother ones. The smoother ones cost
+	 * several ms a frame under the software loops.
+	 */
+	public void setInterpolation(Object interpolation)
+	{
+		this.interpolation = interpolation;
+	}
+
+	/**
+	 * drop the image copies made at every scale. They're made again
+	 * as they're drawn.
+	 */
+	public void flushImages()
+	{
+		for (int i = 0; i < caches.size(); i++)
+			caches.get(i).flush();
+	}
+}
@@ -0,0 +1,138 @@
+package Waisy.core.graphics;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Copies of sprite images shrunk to one scale, for drawing a frame at
+ * a lower resolution without drawing through a scaling transform.
+ *
+ * Java2D draws an image at its own size much faster than it draws one
+ * scaled, so each image is shrunk once, the first time it's drawn at
+ * this scale, and the copy is drawn from then on. Positions are
+ * scaled with scale(), rounding down, so sprites that touch at full
+ * size still touch; copies are rounded up in size so they don't leave
+ * gaps between tiles.
+ *
+ * Copies are shrunk with nearest neighbour, so pixel art stays sharp.
+ * Opaque images are copied as INT_RGB and everything else as
+ * INT_ARGB_PRE, the types Java2D's software loops draw fastest.
+ *
+ * Like the flyweight factories, the cache keeps a copy of every image
+ * it has been asked for; flush it when a level's images are done
+ * with. Images nothing else uses are dropped on their own, and an
+ * image drawn into after it was copied needs a flush to be copied
+ * again. Use it from the render thread only.
+ * @author waisy
+ * @see ResolutionScaler
+ */
+public class ScaledImageCache
+{
+	protected float scale;
+
+	/**
+	 * shrunk copy of each image. Values don't refer to their image,
+	 * so images are still collected once nothing else uses them.
+	 */
+	protected Map<BufferedImage, BufferedImage> images =
+			new WeakHashMap<BufferedImage, BufferedImage>();
+
+	/**
+	 * last image asked for and its copy. Neighbouring sprites, like a
+	 * run of tiles or a burst of particles, often share an image.
+	 */
+	protected BufferedImage lastImage = null;
+	protected BufferedImage lastScaled = null;
+
+	/**
+	 * @param scale scale to shrink images to, above 0 and up to 1
+	 */
+	public ScaledImageCache(float scale)
+	{
+		if ((scale <= 0f) || (scale > 1f))
+			throw new IllegalArgumentException("scale must be 0 < scale <= 1, not " + scale);
+		this.scale = scale;
+	}
+
+	public float getScale()		{	return scale;	}
+
+	/**
+	 * Get an image's copy at this scale, making it the first time.
+	 * @param image full size image
+	 * @return the shrunk copy. Shared, don't draw into it.
+	 */
+	public BufferedImage get(BufferedImage image)
+	{
+		if (image == lastImage)
+			return lastScaled;
+
+		BufferedImage scaled = images.get(image);
+		if (scaled == null)
+		{
+			scaled = shrink(image);
+			images.put(image, scaled);
+		}
+
+		lastImage = image;
+		lastScaled = scaled;
+		return scaled;
+	}
+
+	/**
+	 * @param coordinate full size coordinate
+	 * @return the coordinate at this scale, rounded down
+	 */
+	public int scale(float coordinate)
+	{
+		return (int) Math.floor(coordinate * scale);
+	}
+
+	/**
+	 * @param length full size length
+	 * @return the length at this scale, rounded up
+	 */
+	public int scaleUp(float length)
+	{
+		return (int) Math.ceil(length * scale);
+	}
+
+	protected BufferedImage shrink(BufferedImage image)
+	{
+		int w = Math.max(1, scaleUp(image.getWidth()));
+		int h = Math.max(1, scaleUp(image.getHeight()));
+		int type = (image.getTransparency() == Transparency.OPAQUE)
+				? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE;
+
+		BufferedImage scaled = new BufferedImage(w, h, type);
+		Graphics2D g = scaled.createGraphics();
+		g.setComposite(AlphaComposite.Src);
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+				RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		g.drawImage(image, 0, 0, w, h, null);
+		g.dispose();
+		return scaled;
+	}
+
+	/**
+	 * drop every copy. They're made again as they're drawn.
+	 */
+	public void flush()
+	{
+		images.clear();
+		lastImage = null;
+		lastScaled = null;
+	}
+
+	/**
+	 * @return number of images copied at this scale
+	 */
+	public int getImageCount()
+	{
+		return images.size();
+	}
+}
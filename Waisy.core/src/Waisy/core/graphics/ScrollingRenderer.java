@@ -0,0 +1,391 @@
+package Waisy.core.graphics;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import Waisy.core.core.GameSettings;
+
+/**
+ * Renderer for scrolling cameras that reuses the previous frame.
+ *
+ * When the camera pans a few pixels, almost all of the last frame is
+ * still good, just shifted. This renderer keeps the last frame in a
+ * back buffer, shifts it by the camera's movement, and only repaints
+ * the strips that scrolled into view plus the areas around sprites
+ * that moved, appeared, or were marked dirty. Side-scrolling levels,
+ * where most of the screen is still tiles, are exactly this case.
+ *
+ * The whole frame is redrawn when:
+ * - it is the first frame, or invalidate() was called
+ * - sprites were removed or the sprite manager was cleared
+ * - the camera jumped a full screen or more
+ * - the sprite manager has a static background. The background
+ *   doesn't pan, so shifted pixels would be wrong over it. Use a
+ *   plain background colour (GameSettings.COLOR_BACKGROUND) with
+ *   this renderer.
+ *
+ * Sprites are tracked by their draw bounds and paint version, kept by
+ * the renderer for each place in the sprite manager's draw lists. When
+ * either changes, or a different sprite fills a place, as when a sorted
+ * layer reorders, the old area and the new one are both repainted. A
+ * sprite that changes how it looks without moving (an animation frame,
+ * say) should either bump its paint version or be passed to markDirty
+ * so it's repainted.
+ * @author waisy
+ *
+ */
+public class ScrollingRenderer implements FrameRenderer
+{
+	/**
+	 * most separate dirty areas kept before they're merged into one
+	 */
+	public static final int MAX_DIRTY_RECTS = 64;
+
+	/**
+	 * extra pixels two touching dirty areas may cost when merged.
+	 * Keeps an L of scrolled-in strips from becoming the whole screen.
+	 */
+	public static final int MERGE_SLACK = 1024;
+
+	/**
+	 * ints kept per sprite in renderedBounds
+	 */
+	protected static final int BOUNDS_SIZE = 5;
+
+	protected int width;
+	protected int height;
+
+	protected BufferedImage buffer;
+	protected Graphics2D bufferGraphics;
+
+	/**
+	 * areas of the buffer to repaint this frame, in screen coordinates
+	 */
+	protected Rectangle[] dirty = new Rectangle[MAX_DIRTY_RECTS];
+	protected int dirtyCount = 0;
+
+	/**
+	 * scratch for the sprite manager's clip bounds, and for each
+	 * sprite's draw bounds
+	 */
+	protected Rectangle clipBounds = new Rectangle();
+	protected Rectangle spriteBounds = new Rectangle();
+
+	//what the buffer currently shows
+	protected boolean valid = false;
+	protected SpriteManager lastManager = null;
+	protected int lastVersion = 0;
+	protected int lastCamX = 0;
+	protected int lastCamY = 0;
+
+	/**
+	 * sprite drawn at each place of each layer's draw list last frame,
+	 * its bounds in world coordinates as x, y, width, height, and its
+	 * paint version
+	 */
+	protected BasicSprite[][] renderedSprites = new BasicSprite[0][];
+	protected int[][] renderedBounds = new int[0][];
+	/**
+	 * places passed to markDirty since the last frame
+	 */
+	protected boolean[][] renderedDirty = new boolean[0][];
+	protected int[] renderedCounts = new int[0];
+
+	//stats
+	protected long fullRedraws = 0;
+	protected long lastRepaintedPixels = 0;
+
+	/**
+	 * create a renderer the size of the screen
+	 */
+	public ScrollingRenderer()
+	{
+		this(GameSettings.SCREEN_WIDTH, GameSettings.SCREEN_HEIGHT);
+	}
+
+	/**
+	 * @param width width of the frame
+	 * @param height height of the frame
+	 */
+	public ScrollingRenderer(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+
+		buffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		bufferGraphics = buffer.createGraphics();
+
+		for (int i = 0; i < dirty.length; i++)
+			dirty[i] = new Rectangle();
+	}
+
+	@Override
+	public void render(SpriteManager mgr, Graphics g)
+	{
+		int camX = mgr.getCameraOffsetX();
+		int camY = mgr.getCameraOffsetY();
+		int dx = camX - lastCamX;
+		int dy = camY - lastCamY;
+
+		boolean full = !valid
+				|| (mgr != lastManager)
+				|| (mgr.getVersion() != lastVersion)
+				|| (mgr.getStaticBackground() != null)
+				|| (Math.abs(dx) >= width) || (Math.abs(dy) >= height);
+
+		mgr.sortLayers();
+
+		if (full)
+		{
+			dirtyCount = 0;
+			addDirty(0, 0, width, height);
+			fullRedraws++;
+		}
+		else if ((dx != 0) || (dy != 0))
+		{
+			//shift what's still on screen, then mark what scrolled in
+			bufferGraphics.copyArea(0, 0, width, height, -dx, -dy);
+
+			if (dx > 0)
+				addDirty(width - dx, 0, dx, height);
+			else if (dx < 0)
+				addDirty(0, 0, -dx, height);
+
+			if (dy > 0)
+				addDirty(0, height - dy, width, dy);
+			else if (dy < 0)
+				addDirty(0, 0, width, -dy);
+		}
+
+		//find sprites that moved and remember where everything is drawn
+		trackSprites(mgr, camX, camY, !full);
+
+		repaint(mgr);
+
+		valid = true;
+		lastManager = mgr;
+		lastVersion = mgr.getVersion();
+		lastCamX = camX;
+		lastCamY = camY;
+
+		g.drawImage(buffer, 0, 0, null);
+	}
+
+	/**
+	 * Go over every sprite, marking the old and new areas of any that
+	 * moved or are new, and recording where each one is now drawn.
+	 * @param collect false to only record positions, such as when the
+	 * whole frame is being redrawn anyway
+	 */
+	protected void trackSprites(SpriteManager mgr, int camX, int camY, boolean collect)
+	{
+		int layers = mgr.getLayerCount();
+		if (renderedCounts.length != layers)
+		{
+			renderedSprites = new BasicSprite[layers][0];
+			renderedBounds = new int[layers][0];
+			renderedDirty = new boolean[layers][0];
+			renderedCounts = new int[layers];
+		}
+
+		//walk the copies taken by sortLayers, which are what gets drawn
+		for (int l = 0; l < layers; l++)
+		{
+			BasicSprite[] layer = mgr.getDrawSprites(l);
+			int count = mgr.getDrawCount(l);
+			int last = renderedCounts[l];
+
+			if (renderedSprites[l].length < count)
+				growLayer(l, count);
+			BasicSprite[] sprites = renderedSprites[l];
+			int[] bounds = renderedBounds[l];
+			boolean[] marked = renderedDirty[l];
+
+			for (int i = 0, b = 0; i < count; i++, b += BOUNDS_SIZE)
+			{
+				BasicSprite s = layer[i];
+				BasicSprite old = (i < last) ? sprites[i] : null;
+
+				int x = 0, y = 0, w = 0, h = 0, version = 0;
+				if (s != null)
+				{
+					Rectangle r = spriteBounds;
+					s.getDrawBounds(r);
+					x = r.x;
+					y = r.y;
+					w = r.width;
+					h = r.height;
+					version = s.getPaintVersion();
+				}
+
+				if (collect && ((old != s) || marked[i] || (x != bounds[b]) || (y != bounds[b + 1])
+						|| (w != bounds[b + 2]) || (h != bounds[b + 3]) || (version != bounds[b + 4])))
+				{
+					//moved, new, or marked. clear where the last sprite
+					//here was and draw where this one is
+					if (old != null)
+						addDirty(bounds[b] - camX, bounds[b + 1] - camY, bounds[b + 2], bounds[b + 3]);
+					if (s != null)
+						addDirty(x - camX, y - camY, w, h);
+				}
+
+				sprites[i] = s;
+				bounds[b] = x;
+				bounds[b + 1] = y;
+				bounds[b + 2] = w;
+				bounds[b + 3] = h;
+				bounds[b + 4] = version;
+				marked[i] = false;
+			}
+
+			//drop references to sprites that have gone
+			if (last > count)
+				Arrays.fill(sprites, count, last, null);
+			renderedCounts[l] = count;
+		}
+	}
+
+	/**
+	 * make room to track at least count sprites in a layer
+	 */
+	protected void growLayer(int l, int count)
+	{
+		int size = Math.max(count, 16) * 3 / 2;
+		renderedSprites[l] = Arrays.copyOf(renderedSprites[l], size);
+		renderedBounds[l] = Arrays.copyOf(renderedBounds[l], size * BOUNDS_SIZE);
+		renderedDirty[l] = Arrays.copyOf(renderedDirty[l], size);
+	}
+
+	/**
+	 * clear and redraw each dirty area of the buffer
+	 */
+	protected void repaint(SpriteManager mgr)
+	{
+		long pixels = 0;
+		bufferGraphics.setColor(GameSettings.COLOR_BACKGROUND);
+
+		for (int i = 0; i < dirtyCount; i++)
+		{
+			Rectangle r = dirty[i];
+			bufferGraphics.setClip(r.x, r.y, r.width, r.height);
+			bufferGraphics.fillRect(r.x, r.y, r.width, r.height);
+			mgr.renderSprites(bufferGraphics, clipBounds, null);
+			pixels += (long) r.width * r.height;
+		}
+
+		bufferGraphics.setClip(null);
+		dirtyCount = 0;
+		lastRepaintedPixels = pixels;
+	}
+
+	/**
+	 * mark an area of the screen for repainting. Areas that touch an
+	 * existing dirty area are merged into it, as long as the merged
+	 * area isn't much bigger than the two apart.
+	 */
+	protected void addDirty(int x, int y, int w, int h)
+	{
+		//clip to the screen
+		if (x < 0)
+		{
+			w += x;
+			x = 0;
+		}
+		if (y < 0)
+		{
+			h += y;
+			y = 0;
+		}
+		w = Math.min(w, width - x);
+		h = Math.min(h, height - y);
+		if ((w <= 0) || (h <= 0))
+			return;
+
+		for (int i = 0; i < dirtyCount; i++)
+		{
+			Rectangle r = dirty[i];
+			if ((x <= r.x + r.width) && (x + w >= r.x) && (y <= r.y + r.height) && (y + h >= r.y)
+					&& (unionArea(r, x, y, w, h) <= (long) w * h + (long) r.width * r.height + MERGE_SLACK))
+			{
+				union(r, x, y, w, h);
+				return;
+			}
+		}
+
+		if (dirtyCount == dirty.length)
+		{
+			//too many pieces. repaint one area covering them all
+			for (int i = 1; i < dirtyCount; i++)
+				union(dirty[0], dirty[i].x, dirty[i].y, dirty[i].width, dirty[i].height);
+			dirtyCount = 1;
+			union(dirty[0], x, y, w, h);
+			return;
+		}
+
+		dirty[dirtyCount++].setBounds(x, y, w, h);
+	}
+
+	protected static long unionArea(Rectangle r, int x, int y, int w, int h)
+	{
+		long uw = Math.max(r.x + r.width, x + w) - Math.min(r.x, x);
+		long uh = Math.max(r.y + r.height, y + h) - Math.min(r.y, y);
+		return uw * uh;
+	}
+
+	protected static void union(Rectangle r, int x, int y, int w, int h)
+	{
+		int x2 = Math.max(r.x + r.width, x + w);
+		int y2 = Math.max(r.y + r.height, y + h);
+		r.x = Math.min(r.x, x);
+		r.y = Math.min(r.y, y);
+		r.width = x2 - r.x;
+		r.height = y2 - r.y;
+	}
+
+	/**
+	 * redraw the whole frame next render
+	 */
+	public void invalidate()
+	{
+		valid = false;
+	}
+
+	/**
+	 * Repaint a sprite next render even if it hasn't moved. Use this
+	 * for sprites that changed how they look, such as animations.
+	 * Looks the sprite up in the last frame's draw lists, so it costs
+	 * a walk over them; invalidate() is cheaper for a frame where most
+	 * sprites changed.
+	 * @param s sprite to repaint. Sprites that weren't drawn last
+	 * frame are painted anyway.
+	 */
+	public void markDirty(BasicSprite s)
+	{
+		for (int l = 0; l < renderedCounts.length; l++)
+		{
+			BasicSprite[] sprites = renderedSprites[l];
+			for (int i = 0; i < renderedCounts[l]; i++)
+			{
+				if (sprites[i] == s)
+				{
+					renderedDirty[l][i] = true;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of frames that were redrawn in full
+	 */
+	public long getFullRedrawCount()		{	return fullRedraws;	}
+
+	/**
+	 * @return pixels repainted in the last frame. Compare to
+	 * width * height to see how much the scroll blit saved.
+	 */
+	public long getLastRepaintedPixels()	{	return lastRepaintedPixels;	}
+}
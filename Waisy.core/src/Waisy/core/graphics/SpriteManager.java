@@ -1,8 +1,13 @@
 package Waisy.core.graphics;
 
 import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.util.Arrays;
 import java.util.Vector;
 
+import Waisy.core.core.FrameProfiler;
+import Waisy.core.core.GameSettings;
+
 /**
  * This is the most basic renderer used within the engine.
  * Major modules may make their own child version of this 
@@ -72,8 +77,63 @@ public class SpriteManager
 	public static final int CHARACTERS = 3;
 	public static final int FOREGROUND = 4;
 	
+	/**
+	 * number of layers held by the manager
+	 */
+	public static final int LAYER_COUNT = 5;
+	
+	/**
+	 * reused by renderList to hold the clip bounds
+	 */
+	protected Rectangle clip = new Rectangle();
+	
+	/**
+	 * position of the camera in the world. Layers are drawn
+	 * offset so this point is at the top-left of the screen.
+	 */
+	protected float cameraX = 0f;
+	protected float cameraY = 0f;
+	
+	/**
+	 * changes whenever sprites are removed or the static background is
+	 * changed. see getVersion()
+	 */
+	protected int version = 0;
+	
+	/**
+	 * depth sort key of each layer. null layers are drawn
+	 * in the order sprites were added.
+	 */
+	protected DepthSortKey[] sortKeys = new DepthSortKey[LAYER_COUNT];
+	
+	/**
+	 * depth of each sprite in a sorted layer, in draw order.
+	 * reused every frame and only grown when a layer grows.
+	 */
+	protected float[][] depths = new float[LAYER_COUNT][];
+	
+	/**
+	 * scratch for full re-sorts. depth and index packed into a long
+	 */
+	protected long[] sortScratch = new long[0];
+	protected long[] sortSwap = new long[0];
+	protected int[] radixCounts = new int[256];
+	
+	/**
+	 * Plain copy of each layer, in draw order, taken by sortLayers().
+	 * Drawing walks these rather than going through the vectors'
+	 * synchronized get for every sprite, and several threads can
+	 * read them at once.
+	 */
+	protected BasicSprite[][] drawSprites = new BasicSprite[LAYER_COUNT][0];
+	protected int[] drawCounts = new int[LAYER_COUNT];
+	
+	/**
+	 * updates far sprites less often. null updates every sprite every tick.
+	 */
+	protected UpdateLOD updateLOD = null;
+	
 	
-
 	public SpriteManager()
 	{
 		spriteList = new Vector<Vector<BasicSprite>>(3);
@@ -107,6 +167,339 @@ public class SpriteManager
 		}
 	}	
 	
+	/**
+	 * Remove a sprite from a layer
+	 * @param s sprite to remove
+	 * @param layer The layer holding the sprite.
+	 * @return true if the sprite was found and removed
+	 */
+	public boolean removeSprite(BasicSprite s, int layer)
+	{
+		boolean removed = spriteList.get(layer).removeElement(s);
+		if (removed)
+			version++;
+		return removed;
+	}
+	
+	/**
+	 * Make sure a layer can hold at least the given number of
+	 * sprites without growing. Use this before adding a large
+	 * batch of sprites, such as when loading a level.
+	 * @param layer The layer to size. Use the static constants.
+	 * @param capacity minimum number of sprites the layer should hold
+	 */
+	public void ensureLayerCapacity(int layer, int capacity)
+	{
+		spriteList.get(layer).ensureCapacity(capacity);
+	}
+
+	/**
+	 * remove every sprite from every layer, as well as the
+	 * static background.
+	 */
+	public void clear()
+	{
+		for (int i = 0; i < spriteList.size(); i++)
+		{
+			spriteList.get(i).clear();
+			Arrays.fill(drawSprites[i], 0, drawCounts[i], null);
+			drawCounts[i] = 0;
+		}
+
+		staticBackground = null;
+		version++;
+	}
+
+	/**
+	 * @return the number of layers held by the manager
+	 */
+	public int getLayerCount()
+	{
+		return spriteList.size();
+	}
+
+	/**
+	 * @param layer layer to check. Use the static constants.
+	 * @return the number of sprites in the layer
+	 */
+	public int getLayerSize(int layer)
+	{
+		return spriteList.get(layer).size();
+	}
+
+	/**
+	 * Retrieve a sprite within a layer.
+	 * @param layer layer holding the sprite. Use the static constants.
+	 * @param index position of the sprite within the layer's draw order
+	 * @return the sprite
+	 */
+	public BasicSprite getSprite(int layer, int index)
+	{
+		return spriteList.get(layer).get(index);
+	}
+
+	/**
+	 * Sprites of a layer in the order they are drawn, as copied by
+	 * the last sortLayers(). For renderers that walk the layers
+	 * themselves.
+	 * @param layer layer to get. Use the static constants.
+	 * @return the layer's copy. Shared and reused every frame, so
+	 * don't modify it or keep it. Only the first getDrawCount(layer)
+	 * entries are in use, and any of them may be null.
+	 */
+	public BasicSprite[] getDrawSprites(int layer)
+	{
+		return drawSprites[layer];
+	}
+
+	/**
+	 * @param layer layer to check. Use the static constants.
+	 * @return number of sprites in the layer's copy from the last sortLayers()
+	 */
+	public int getDrawCount(int layer)
+	{
+		return drawCounts[layer];
+	}
+
+	/**
+	 * @return the static background, or null if none is set
+	 */
+	public BasicSprite getStaticBackground()
+	{
+		return staticBackground;
+	}
+
+	/**
+	 * Move the camera. Every layer except the static background is
+	 * drawn shifted so the camera position is at the top-left of
+	 * the screen.
+	 * @param x world x at the left edge of the screen
+	 * @param y world y at the top edge of the screen
+	 */
+	public void setCamera(float x, float y)
+	{
+		cameraX = x;
+		cameraY = y;
+	}
+	
+	public float getCameraX()	{	return cameraX;	}
+	public float getCameraY()	{	return cameraY;	}
+	
+	/**
+	 * @return the whole-pixel horizontal offset layers are drawn at
+	 */
+	public int getCameraOffsetX()	{	return (int) Math.floor(cameraX);	}
+	
+	/**
+	 * @return the whole-pixel vertical offset layers are drawn at
+	 */
+	public int getCameraOffsetY()	{	return (int) Math.floor(cameraY);	}
+	
+	/**
+	 * Incremented whenever sprites are removed or the static background
+	 * changes, so renderers that keep the previous frame know it's stale.
+	 * @return the current version
+	 */
+	public int getVersion()
+	{
+		return version;
+	}
+	
+	/**
+	 * Update sprites far from the player or camera less often.
+	 * @param lod level of detail settings. null to update every
+	 * sprite every tick.
+	 */
+	public void setUpdateLOD(UpdateLOD lod)
+	{
+		updateLOD = lod;
+	}
+	
+	public UpdateLOD getUpdateLOD()
+	{
+		return updateLOD;
+	}
+	
+	/**
+	 * Keep a layer sorted by depth instead of drawing it in the
+	 * order sprites were added. The layer is re-sorted before every
+	 * render. Sprites rarely change order from one frame to the next,
+	 * so the sort only moves the few sprites that did, rather than
+	 * sorting the whole layer from scratch.
+	 * @param layer The layer to sort. Use the static constants.
+	 * @param key depth of each sprite, such as DepthSortKey.BOTTOM.
+	 * null to go back to drawing in insertion order.
+	 */
+	public void setLayerSortKey(int layer, DepthSortKey key)
+	{
+		sortKeys[layer] = key;
+	}
+	
+	/**
+	 * Sort every layer that has a sort key, and take the copy of each
+	 * layer that renderSprites draws from. Called by renderList;
+	 * only call this yourself when rendering the layers another way.
+	 */
+	public void sortLayers()
+	{
+		for (int i = 0; i < spriteList.size(); i++)
+		{
+			Vector<BasicSprite> layer = spriteList.get(i);
+			int n = layer.size();
+			int last = drawCounts[i];
+			
+			if (drawSprites[i].length <= n)
+				drawSprites[i] = new BasicSprite[Math.max(n, 16) * 3 / 2];
+			BasicSprite[] sprites = layer.toArray(drawSprites[i]);
+			drawCounts[i] = n;
+			
+			//drop references to sprites removed since last time
+			if (last > n)
+				Arrays.fill(sprites, n, last, null);
+			
+			if ((sortKeys[i] != null) && (n > 1))
+				sortLayer(i, layer, sprites, n);
+		}
+	}
+	
+	protected void sortLayer(int l, Vector<BasicSprite> layer, BasicSprite[] sprites, int n)
+	{
+		DepthSortKey key = sortKeys[l];
+		
+		if ((depths[l] == null) || (depths[l].length < n))
+			depths[l] = new float[Math.max(n, 16) * 3 / 2];
+		float[] d = depths[l];
+		
+		//sort the plain copy rather than going through the
+		//vector's synchronized get and set for every move
+		
+		//measure every sprite, counting the ones out of order
+		int descents = 0;
+		for (int i = 0; i < n; i++)
+		{
+			BasicSprite s = sprites[i];
+			d[i] = (s != null) ? key.getDepth(s) : Float.NEGATIVE_INFINITY;
+			if ((i > 0) && (d[i] < d[i - 1]))
+				descents++;
+		}
+		
+		if (descents == 0)
+			return; //nothing moved. the usual case
+		
+		if (descents > n / 8)
+		{
+			//too scrambled for an insertion sort to be quick,
+			//such as right after a batch of sprites was added
+			fullSort(layer, sprites, d, n);
+			return;
+		}
+		
+		//insertion sort. only sprites that moved past a neighbour
+		//do any work, so nearly sorted layers sort in about O(n)
+		int first = n;
+		for (int i = 1; i < n; i++)
+		{
+			float depth = d[i];
+			if (depth >= d[i - 1])
+				continue;
+			
+			BasicSprite s = sprites[i];
+			int j = i - 1;
+			while ((j >= 0) && (d[j] > depth))
+			{
+				d[j + 1] = d[j];
+				sprites[j + 1] = sprites[j];
+				j--;
+			}
+			d[j + 1] = depth;
+			sprites[j + 1] = s;
+			
+			if (j + 1 < first)
+				first = j + 1;
+		}
+		
+		//copy back everything from the first sprite that moved
+		for (int i = first; i < n; i++)
+			layer.set(i, sprites[i]);
+	}
+	
+	/**
+	 * stable O(n) sort, used when a layer is badly out of order
+	 */
+	protected void fullSort(Vector<BasicSprite> layer, BasicSprite[] sprites, float[] d, int n)
+	{
+		if (sortScratch.length < n)
+		{
+			sortScratch = new long[n * 3 / 2];
+			sortSwap = new long[n * 3 / 2];
+		}
+		
+		//pack the depth, as an int that sorts the same way as the float,
+		//above the index. sorting the longs then sorts by depth, and by
+		//original position between equal depths.
+		for (int i = 0; i < n; i++)
+		{
+			int bits = Float.floatToIntBits(d[i]);
+			bits ^= (bits >> 31) & 0x7FFFFFFF;
+			sortScratch[i] = ((long) bits << 32) | i;
+		}
+		long[] sorted = radixSort(n);
+		
+		for (int i = 0; i < n; i++)
+			layer.set(i, sprites[(int) sorted[i]]);
+		
+		//and put the copy in the same order
+		for (int i = 0; i < n; i++)
+			sprites[i] = layer.get(i);
+	}
+	
+	/**
+	 * Sort the first n packed longs of sortScratch on their depth, a
+	 * byte at a time. The indices start out in order and each pass is
+	 * stable, so equal depths keep their order. Unlike Arrays.sort,
+	 * this never allocates; Arrays.sort makes working space for input
+	 * that's partly in order, which is just what a scrambled layer is.
+	 * @return sortScratch or sortSwap, whichever ended up sorted
+	 */
+	protected long[] radixSort(int n)
+	{
+		long[] from = sortScratch;
+		long[] to = sortSwap;
+		int[] counts = radixCounts;
+		
+		for (int shift = 32; shift < 64; shift += 8)
+		{
+			//the top byte holds the sign. flip it so negatives go first
+			int flip = (shift == 56) ? 0x80 : 0;
+			
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < n; i++)
+				counts[((int) (from[i] >>> shift) & 0xFF) ^ flip]++;
+			
+			//every depth has the same byte here. nothing to move
+			if (counts[((int) (from[0] >>> shift) & 0xFF) ^ flip] == n)
+				continue;
+			
+			int total = 0;
+			for (int b = 0; b < 256; b++)
+			{
+				int c = counts[b];
+				counts[b] = total;
+				total += c;
+			}
+			for (int i = 0; i < n; i++)
+			{
+				long v = from[i];
+				to[counts[((int) (v >>> shift) & 0xFF) ^ flip]++] = v;
+			}
+			
+			long[] swap = from;
+			from = to;
+			to = swap;
+		}
+		return from;
+	}
+	
 	/**
 	 * tells the renderer to render the static background.
 	 * The renderer will let the sprite do all the placement
@@ -119,6 +512,7 @@ public class SpriteManager
 	public void setStaticBackground(BasicSprite bkg)
 	{
 		staticBackground = bkg;
+		version++;
 	}
 	
 	
@@ -131,62 +525,272 @@ public class SpriteManager
 	 */
 	public void renderList(Graphics g)
 	{
+		//put any depth sorted layers in order
+		sortLayers();
+		
+		renderSprites(g, clip, GameSettings.profiler);
+	}
+	
+	/**
+	 * Render the available sprites without sorting the layers first.
+	 * This is the drawing half of renderList, for renderers that
+	 * draw the same frame in several pieces: they call sortLayers()
+	 * once, then this once per piece, with the piece set as the clip.
+	 * Sprites are drawn as they were when sortLayers() was last called.
+	 * 
+	 * Pannable layers are drawn offset by the camera; the static
+	 * background is not.
+	 * @param g graphics to draw into. Sprites outside its clip are skipped.
+	 * @param clipBounds rectangle to hold the clip bounds while drawing.
+	 * Give each thread its own when drawing pieces in parallel.
+	 * @param profiler profiler to record layer times and sprite counts
+	 * in. null to skip recording.
+	 */
+	public void renderSprites(Graphics g, Rectangle clipBounds, FrameProfiler profiler)
+	{
+		int drawn = 0;
+		int culled = 0;
+		
 		//render the static background
 		if (staticBackground != null)
 			staticBackground.paint(g);
 		
 		//TODO: render background parallax
 		
+		//pan everything else by the camera
+		int camX = getCameraOffsetX();
+		int camY = getCameraOffsetY();
+		g.translate(-camX, -camY);
+		
+		//anything outside the clip won't show up, so don't draw it.
+		//with no clip set, the rectangle is left as is and nothing is culled.
+		clipBounds.setBounds(-Integer.MAX_VALUE / 2, -Integer.MAX_VALUE / 2,
+				Integer.MAX_VALUE, Integer.MAX_VALUE);
+		g.getClipBounds(clipBounds);
+		
 		//render the sprite list
 		for (int i = 0; i < spriteList.size(); i++)
 		{
+			BasicSprite[] layer = drawSprites[i];
+			int count = drawCounts[i];
+			
 			//if there are no sprites in the list,
 			//simply jump to the next one in the masterlist.
-			if (spriteList.get(i).size() < 1)
+			if (count < 1)
 				continue;
 			
-			for (int j = 0; j < spriteList.get(i).size(); j++)
+			long start = (profiler != null) ? System.nanoTime() : 0;
+			
+			for (int j = 0; j < count; j++)
 			{
-				BasicSprite s = spriteList.get(i).get(j);
+				BasicSprite s = layer[j];
 				if (s != null)
 				{
-					//TODO: add off-screen check
+					if (!s.isOnScreen(clipBounds))
+					{
+						culled++;
+						continue;
+					}
 					
 					//this is a valid, on-screen sprite
-					spriteList.get(i).get(j).paint(g);
+					s.paint(g);
+					drawn++;
 				}
 			}
+			
+			if (profiler != null)
+				profiler.recordLayerRender(i, System.nanoTime() - start);
 		}
 		
 		//TODO: render foreground parallax
+		
+		g.translate(camX, camY);
+		
+		if (profiler != null)
+			profiler.countSprites(drawn, culled);
 	}
 	
+	/**
+	 * Render the available sprites straight into a frame's pixels,
+	 * without sorting the layers first. The same as renderSprites
+	 * with a Graphics, but each sprite is drawn with paint(IntFrameBuffer).
+	 * @param fb frame to draw into. Sprites outside its clip are skipped.
+	 * @param clipBounds rectangle to hold the clip bounds while drawing.
+	 * @param profiler profiler to record layer times and sprite counts
+	 * in. null to skip recording.
+	 * @see RasterBlitter
+	 */
+	public void renderSprites(IntFrameBuffer fb, Rectangle clipBounds, FrameProfiler profiler)
+	{
+		int drawn = 0;
+		int culled = 0;
+		
+		if (staticBackground != null)
+			staticBackground.paint(fb);
+		
+		int camX = getCameraOffsetX();
+		int camY = getCameraOffsetY();
+		fb.translate(-camX, -camY);
+		fb.getClipBounds(clipBounds);
+		
+		for (int i = 0; i < spriteList.size(); i++)
+		{
+			BasicSprite[] layer = drawSprites[i];
+			int count = drawCounts[i];
+			if (count < 1)
+				continue;
+			
+			long start = (profiler != null) ? System.nanoTime() : 0;
+			
+			for (int j = 0; j < count; j++)
+			{
+				BasicSprite s = layer[j];
+				if (s != null)
+				{
+					if (!s.isOnScreen(clipBounds))
+					{
+						culled++;
+						continue;
+					}
+					
+					s.paint(fb);
+					drawn++;
+				}
+			}
+			
+			if (profiler != null)
+				profiler.recordLayerRender(i, System.nanoTime() - start);
+		}
+		
+		fb.translate(camX, camY);
+
+		if (profiler != null)
+			profiler.countSprites(drawn, culled);
+	}
+
+	/**
+	 * Render the available sprites into a frame drawn at a lower
+	 * resolution, without sorting the layers first. The same as
+	 * renderSprites with a Graphics, but each sprite is drawn with
+	 * paint(Graphics, ScaledImageCache), at its position times the
+	 * cache's scale.
+	 * @param g Graphics of the smaller frame. Sprites outside its clip
+	 * are skipped.
+	 * @param images copies of images at the frame's scale
+	 * @param clipBounds rectangle to hold the clip bounds while drawing.
+	 * @param profiler profiler to record layer times and sprite counts
+	 * in. null to skip recording.
+	 * @see ResolutionScaler
+	 */
+	public void renderSprites(Graphics g, ScaledImageCache images, Rectangle clipBounds,
+			FrameProfiler profiler)
+	{
+		int drawn = 0;
+		int culled = 0;
+
+		if (staticBackground != null)
+			staticBackground.paint(g, images);
+
+		int camX = images.scale(getCameraOffsetX());
+		int camY = images.scale(getCameraOffsetY());
+		g.translate(-camX, -camY);
+
+		//cull against the clip at full size, with a pixel to spare
+		//each side for rounding
+		clipBounds.setBounds(-Integer.MAX_VALUE / 2, -Integer.MAX_VALUE / 2,
+				Integer.MAX_VALUE, Integer.MAX_VALUE);
+		g.getClipBounds(clipBounds);
+		if (clipBounds.width < Integer.MAX_VALUE)
+		{
+			float scale = images.getScale();
+			clipBounds.setBounds((int) Math.floor(clipBounds.x / scale) - 1,
+					(int) Math.floor(clipBounds.y / scale) - 1,
+					(int) Math.ceil(clipBounds.width / scale) + 2,
+					(int) Math.ceil(clipBounds.height / scale) + 2);
+		}
+
+		for (int i = 0; i < spriteList.size(); i++)
+		{
+			BasicSprite[] layer = drawSprites[i];
+			int count = drawCounts[i];
+			if (count < 1)
+				continue;
+
+			long start = (profiler != null) ? System.nanoTime() : 0;
+
+			for (int j = 0; j < count; j++)
+			{
+				BasicSprite s = layer[j];
+				if (s != null)
+				{
+					if (!s.isOnScreen(clipBounds))
+					{
+						culled++;
+						continue;
+					}
+
+					s.paint(g, images);
+					drawn++;
+				}
+			}
+
+			if (profiler != null)
+				profiler.recordLayerRender(i, System.nanoTime() - start);
+		}
+
+		g.translate(camX, camY);
+
+		if (profiler != null)
+			profiler.countSprites(drawn, culled);
+	}
+
 	public void updateList(float dT)
 	{
+		FrameProfiler profiler = GameSettings.profiler;
+		
 		if (staticBackground != null)
 			staticBackground.update(dT);
 		
 		//TODO: update parallax
+		
+		UpdateLOD lod = updateLOD;
+		if (lod != null)
+			lod.beginTick(this);
 
 		//update the sprite list
 		for (int i = 0; i < spriteList.size(); i++)
 		{
+			Vector<BasicSprite> layer = spriteList.get(i);
+			
 			//if there are no sprites in the list,
 			//simply jump to the next one in the masterlist.
-			if (spriteList.get(i).size() < 1)
+			if (layer.size() < 1)
 				continue;
 			
-			for (int j = 0; j < spriteList.get(i).size(); j++)
+			long start = (profiler != null) ? System.nanoTime() : 0;
+			
+			if ((lod != null) && !lod.isLayerExempt(i))
 			{
-				BasicSprite s = spriteList.get(i).get(j);
-				if (s != null)
+				//let the lod decide who's due
+				for (int j = 0; j < layer.size(); j++)
 				{
-					//TODO: add off-screen check
-					
-					//this is a valid, on-screen sprite
-					spriteList.get(i).get(j).update(dT);
+					BasicSprite s = layer.get(j);
+					if (s != null)
+						lod.update(s, dT);
 				}
 			}
+			else
+			{
+				for (int j = 0; j < layer.size(); j++)
+				{
+					BasicSprite s = layer.get(j);
+					if (s != null)
+						s.update(dT);
+				}
+			}
+			
+			if (profiler != null)
+				profiler.recordLayerUpdate(i, System.nanoTime() - start);
 		}
 	}
 }
@@ -0,0 +1,236 @@
+package Waisy.core.graphics;
+
+import Waisy.core.core.GameSettings;
+
+/**
+ * Update level of detail. Sprites far from the action are updated
+ * less often, and sprites very far away not at all.
+ *
+ * Each tick, every sprite is put in a tier by its distance from the
+ * focus: the player, if one has been set with setFocus, otherwise the
+ * middle of the camera's view. Sprites in the nearest tier are updated
+ * every tick. Sprites in further tiers are updated every few ticks
+ * with all the time that passed since their last update, so they
+ * still move the right distance, just in bigger steps. Sprites past
+ * the last tier sleep: they aren't updated, and the time doesn't
+ * build up, so they carry on from where they were once they're back
+ * in range.
+ *
+ * Far sprites don't all update on the same tick; each is given its
+ * own offset the first time it's seen, in turn, so the work is spread
+ * evenly. The offset and the held time stay with the sprite, so
+ * sprites keep them however their layer is sorted or shuffled.
+ *
+ * The CHARACTERS layer is always updated every tick. Use
+ * setLayerExempt to change which layers are. The static background
+ * is always updated.
+ *
+ * Turn it on with SpriteManager.setUpdateLOD.
+ * @author waisy
+ *
+ */
+public class UpdateLOD
+{
+	/**
+	 * furthest distance of each tier from the focus, in pixels
+	 */
+	protected float[] distances;
+	protected float[] distancesSquared;
+	/**
+	 * ticks between updates in each tier
+	 */
+	protected int[] intervals;
+
+	protected boolean[] exempt = new boolean[SpriteManager.LAYER_COUNT];
+
+	protected BasicSprite focusSprite = null;
+	protected float focusX = 0f;
+	protected float focusY = 0f;
+
+	protected int tick = 0;
+
+	/**
+	 * offset given to the next sprite seen for the first time
+	 */
+	protected int nextPhase = 0;
+
+	//sprites in each tier last tick. the last entry is the sleepers
+	protected int[] tierCounts;
+	protected int[] lastTierCounts;
+	protected int updatedCount = 0;
+	protected int lastUpdatedCount = 0;
+
+	/**
+	 * Default tiers, measured in screen widths from the focus:
+	 * within 1, every tick; within 2, every 2nd tick; within 4, every
+	 * 8th tick; further, asleep.
+	 */
+	public UpdateLOD()
+	{
+		float w = GameSettings.SCREEN_WIDTH;
+		setTiers(new float[] { w, w * 2, w * 4 }, new int[] { 1, 2, 8 });
+		exempt[SpriteManager.CHARACTERS] = true;
+	}
+
+	/**
+	 * Set the tiers. Sprites further than the last distance sleep;
+	 * use Float.POSITIVE_INFINITY as the last distance to never sleep.
+	 * @param maxDistances furthest distance of each tier from the
+	 * focus in pixels, nearest first
+	 * @param updateIntervals ticks between updates in each tier.
+	 * 1 updates every tick.
+	 */
+	public void setTiers(float[] maxDistances, int[] updateIntervals)
+	{
+		if (maxDistances.length != updateIntervals.length)
+			throw new IllegalArgumentException("need an interval for every tier");
+
+		distances = maxDistances.clone();
+		intervals = updateIntervals.clone();
+		distancesSquared = new float[distances.length];
+		for (int i = 0; i < distances.length; i++)
+		{
+			distancesSquared[i] = distances[i] * distances[i];
+			if (intervals[i] < 1)
+				intervals[i] = 1;
+		}
+
+		tierCounts = new int[distances.length + 1];
+		lastTierCounts = new int[distances.length + 1];
+	}
+
+	/**
+	 * Measure distance from a sprite, normally the player.
+	 * @param s sprite to follow. null to use the middle of the camera.
+	 */
+	public void setFocus(BasicSprite s)
+	{
+		focusSprite = s;
+	}
+
+	/**
+	 * Always update a layer's sprites every tick, or put them
+	 * back under the LOD.
+	 * @param layer layer to set. Use the SpriteManager constants.
+	 * @param alwaysUpdate true to update every tick
+	 */
+	public void setLayerExempt(int layer, boolean alwaysUpdate)
+	{
+		exempt[layer] = alwaysUpdate;
+	}
+
+	public boolean isLayerExempt(int layer)
+	{
+		return (layer < exempt.length) && exempt[layer];
+	}
+
+	//------------------ updating. called by the SpriteManager
+
+	/**
+	 * Start a tick: find the focus and reset the counts.
+	 */
+	public void beginTick(SpriteManager mgr)
+	{
+		tick = (tick + 1) & 0x7FFFFFFF;
+
+		if (focusSprite != null)
+		{
+			focusX = focusSprite.getX() + focusSprite.getWidth() * 0.5f;
+			focusY = focusSprite.getY() + focusSprite.getHeight() * 0.5f;
+		}
+		else
+		{
+			focusX = mgr.getCameraX() + GameSettings.SCREEN_WIDTH * 0.5f;
+			focusY = mgr.getCameraY() + GameSettings.SCREEN_HEIGHT * 0.5f;
+		}
+
+		int[] swap = lastTierCounts;
+		lastTierCounts = tierCounts;
+		tierCounts = swap;
+		for (int i = 0; i < tierCounts.length; i++)
+			tierCounts[i] = 0;
+
+		lastUpdatedCount = updatedCount;
+		updatedCount = 0;
+	}
+
+	/**
+	 * Update a sprite if its tier is due this tick, or hold on to the
+	 * time until it is.
+	 * @param s sprite to update
+	 * @param dT delta time in ms
+	 */
+	public void update(BasicSprite s, float dT)
+	{
+		float dx = s.getX() + s.getWidth() * 0.5f - focusX;
+		float dy = s.getY() + s.getHeight() * 0.5f - focusY;
+		float d2 = dx * dx + dy * dy;
+
+		int tier = 0;
+		while ((tier < distancesSquared.length) && (d2 > distancesSquared[tier]))
+			tier++;
+		tierCounts[tier]++;
+
+		if (tier == distancesSquared.length)
+		{
+			//asleep. drop the time so it doesn't jump on waking
+			s.lodPendingDT = 0f;
+			return;
+		}
+
+		if (s.lodPhase < 0)
+		{
+			s.lodPhase = nextPhase;
+			nextPhase = (nextPhase + 1) & 0x7FFFFFFF;
+		}
+
+		float pending = s.lodPendingDT + dT;
+		int interval = intervals[tier];
+		if ((interval > 1) && (((tick + s.lodPhase) & 0x7FFFFFFF) % interval != 0))
+		{
+			s.lodPendingDT = pending;
+			return;
+		}
+
+		s.lodPendingDT = 0f;
+		s.update(pending);
+		updatedCount++;
+	}
+
+	//------------------ polling
+
+	/**
+	 * @return number of tiers, not counting the sleepers
+	 */
+	public int getTierCount()
+	{
+		return distances.length;
+	}
+
+	/**
+	 * @param tier tier to check
+	 * @return number of sprites in the tier last tick. Exempt layers
+	 * aren't counted.
+	 */
+	public int getSpritesInTier(int tier)
+	{
+		return lastTierCounts[tier];
+	}
+
+	/**
+	 * @return number of sprites asleep last tick
+	 */
+	public int getSleepingCount()
+	{
+		return lastTierCounts[distances.length];
+	}
+
+	/**
+	 * @return number of sprites under the LOD that were updated
+	 * last tick
+	 */
+	public int getUpdatedCount()
+	{
+		return lastUpdatedCount;
+	}
+}
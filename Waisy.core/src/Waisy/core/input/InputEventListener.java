@@ -0,0 +1,19 @@
+package Waisy.core.input;
+
+/**
+ * Receives raw input events. Input is described only by an event
+ * type and a code (for example a key press and its key code) so
+ * that events can be recorded and replayed without knowing
+ * which input system produced them.
+ * @author waisy
+ *
+ */
+public interface InputEventListener
+{
+	/**
+	 * handle an input event
+	 * @param type game-defined event type (press, release, etc)
+	 * @param code game-defined event code (key code, button, etc)
+	 */
+	public void inputEvent(int type, int code);
+}
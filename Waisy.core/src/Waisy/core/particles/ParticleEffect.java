@@ -0,0 +1,168 @@
+package Waisy.core.particles;
+
+import java.awt.image.BufferedImage;
+
+import Waisy.core.graphics.RasterBlitter;
+
+/**
+ * How a kind of particle looks and moves: its images, how long it
+ * lives, how fast and which way it's thrown, and the gravity on it.
+ * Set one up for each kind of effect (dust, sparks, coins) and share
+ * it between every emitter showing that effect, the same way sprites
+ * share flyweight images.
+ *
+ * Times are in ms, like the rest of the engine. Speeds are in pixels
+ * per second and gravity in pixels per second per second. Angles are
+ * in degrees clockwise from right, so with y pointing down the
+ * screen, -90 is up.
+ * @author waisy
+ * @see ParticleEmitter
+ */
+public class ParticleEffect
+{
+	/**
+	 * images a particle goes through over its life, first to last
+	 */
+	protected BufferedImage[] frames;
+	protected RasterBlitter[] blitters = null;
+
+	/**
+	 * size of the largest frame, for culling
+	 */
+	protected int frameWidth = 0;
+	protected int frameHeight = 0;
+
+	protected float minLife = 500f;
+	protected float maxLife = 1000f;
+
+	protected float minSpeed = 50f;
+	protected float maxSpeed = 100f;
+
+	protected float direction = -90f;
+	protected float spread = 360f;
+
+	protected float gravityX = 0f;
+	protected float gravityY = 0f;
+
+	protected float spawnWidth = 0f;
+	protected float spawnHeight = 0f;
+
+	protected float rate = 0f;
+
+	/**
+	 * @param frames images a particle goes through over its life,
+	 * shown for an equal share of the life each. One image for
+	 * particles that don't change.
+	 */
+	public ParticleEffect(BufferedImage... frames)
+	{
+		setFrames(frames);
+	}
+
+	/**
+	 * Change the images. Clear any emitters showing the effect first,
+	 * as their particles may be on frames the new images don't have.
+	 * @param frames images a particle goes through over its life,
+	 * shown for an equal share of the life each
+	 */
+	public void setFrames(BufferedImage... frames)
+	{
+		if (frames.length == 0)
+			throw new IllegalArgumentException("a particle needs at least one frame");
+
+		this.frames = frames.clone();
+		blitters = null;
+
+		frameWidth = 0;
+		frameHeight = 0;
+		for (int i = 0; i < frames.length; i++)
+		{
+			frameWidth = Math.max(frameWidth, frames[i].getWidth());
+			frameHeight = Math.max(frameHeight, frames[i].getHeight());
+		}
+	}
+
+	/**
+	 * How long each particle lives, picked at random between the two.
+	 * @param minLife shortest life in ms
+	 * @param maxLife longest life in ms
+	 */
+	public void setLife(float minLife, float maxLife)
+	{
+		this.minLife = Math.max(1f, minLife);
+		this.maxLife = Math.max(this.minLife, maxLife);
+	}
+
+	/**
+	 * How fast particles are thrown, picked at random between the two.
+	 * @param minSpeed slowest speed in pixels per second
+	 * @param maxSpeed fastest speed in pixels per second
+	 */
+	public void setSpeed(float minSpeed, float maxSpeed)
+	{
+		this.minSpeed = minSpeed;
+		this.maxSpeed = Math.max(minSpeed, maxSpeed);
+	}
+
+	/**
+	 * Which way particles are thrown.
+	 * @param direction middle of the spray in degrees
+	 * @param spread width of the spray in degrees. 360 throws
+	 * particles every way.
+	 */
+	public void setDirection(float direction, float spread)
+	{
+		this.direction = direction;
+		this.spread = spread;
+	}
+
+	/**
+	 * @param x sideways pull in pixels per second per second
+	 * @param y downwards pull in pixels per second per second
+	 */
+	public void setGravity(float x, float y)
+	{
+		gravityX = x;
+		gravityY = y;
+	}
+
+	/**
+	 * Start particles anywhere within a box centred on the emitter,
+	 * rather than all at one point. Good for dust trails and rain.
+	 * @param width width of the box
+	 * @param height height of the box
+	 */
+	public void setSpawnArea(float width, float height)
+	{
+		spawnWidth = width;
+		spawnHeight = height;
+	}
+
+	/**
+	 * @param particlesPerSecond particles made each second by an
+	 * emitter that has been started. Bursts ignore this.
+	 */
+	public void setRate(float particlesPerSecond)
+	{
+		rate = particlesPerSecond;
+	}
+
+	public BufferedImage[] getFrames()	{	return frames;	}
+	public float getRate()				{	return rate;	}
+
+	/**
+	 * @return the blitter of each frame, made the first time they're needed
+	 */
+	protected RasterBlitter[] getBlitters()
+	{
+		RasterBlitter[] b = blitters;
+		if (b == null)
+		{
+			b = new RasterBlitter[frames.length];
+			for (int i = 0; i < frames.length; i++)
+				b[i] = RasterBlitter.forImage(frames[i]);
+			blitters = b;
+		}
+		return b;
+	}
+}
@@ -0,0 +1,442 @@
+package Waisy.core.particles;
+
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import Waisy.core.graphics.BasicSprite;
+import Waisy.core.graphics.IntFrameBuffer;
+import Waisy.core.graphics.RasterBlitter;
+import Waisy.core.graphics.ScaledImageCache;
+
+/**
+ * A sprite that throws out and draws particles. Add it to a layer
+ * like any other sprite and its particles are updated and drawn with
+ * the layer, all in one go, rather than each particle being a sprite
+ * of its own.
+ *
+ * Particles are kept in plain arrays, one per field (position,
+ * velocity, life, frame), made once at the emitter's capacity. The
+ * update runs a simple loop over each array in turn, which the JIT
+ * can turn into SIMD code, and nothing is allocated once the emitter
+ * is made. Dead particles are replaced by the last live one, so the
+ * draw order of particles shuffles a little as they die.
+ *
+ * An emitter sits at its x, y. Move it to follow something, such as
+ * the player's feet for a dust trail. Particles already thrown don't
+ * move with it.
+ *
+ * Particles are drawn fastest by the RasterRenderer. The emitter's
+ * draw bounds cover its live particles, and its paint version changes
+ * whenever they do, so renderers that only repaint what changed, like
+ * the ScrollingRenderer, repaint the particles every frame they move.
+ * @author waisy
+ * @see ParticleEffect
+ * @see ParticlePool
+ */
+public class ParticleEmitter extends BasicSprite
+{
+	/**
+	 * seed of the next emitter made. Emitters are seeded in the order
+	 * they're made, so replays throw the same particles.
+	 */
+	protected static int nextSeed = 0x2545F491;
+
+	protected ParticleEffect effect = null;
+	protected int capacity;
+
+	//the particles, a field per array. only the first count are alive.
+	protected float[] px;
+	protected float[] py;
+	protected float[] vx;
+	protected float[] vy;
+	/**
+	 * ms left to live, and one over the ms the particle was given
+	 */
+	protected float[] life;
+	protected float[] invLifeSpan;
+	/**
+	 * frame of the effect each particle is showing
+	 */
+	protected int[] frame;
+	protected int count = 0;
+
+	protected boolean emitting = false;
+	/**
+	 * part of a particle owed from the rate, carried to the next update
+	 */
+	protected float spawnDebt = 0f;
+
+	protected int seed;
+
+	/**
+	 * area covered by the live particles' positions, for culling
+	 */
+	protected float minX, minY, maxX, maxY;
+
+	/**
+	 * bumped whenever the particles change, see getPaintVersion
+	 */
+	protected int paintVersion = 0;
+
+	/**
+	 * @param capacity most particles alive at once. Particles past
+	 * this aren't made.
+	 */
+	public ParticleEmitter(int capacity)
+	{
+		this.capacity = capacity;
+		px = new float[capacity];
+		py = new float[capacity];
+		vx = new float[capacity];
+		vy = new float[capacity];
+		life = new float[capacity];
+		invLifeSpan = new float[capacity];
+		frame = new int[capacity];
+
+		nextSeed += 0x9E3779B9;
+		seed = nextSeed | 1;
+		clearBounds();
+	}
+
+	/**
+	 * @param capacity most particles alive at once
+	 * @param effect effect to show
+	 */
+	public ParticleEmitter(int capacity, ParticleEffect effect)
+	{
+		this(capacity);
+		setEffect(effect);
+	}
+
+	/**
+	 * Show a different effect. Any live particles are dropped.
+	 */
+	public void setEffect(ParticleEffect effect)
+	{
+		this.effect = effect;
+		clear();
+	}
+
+	public ParticleEffect getEffect()	{	return effect;	}
+
+	/**
+	 * start making particles at the effect's rate
+	 */
+	public void start()
+	{
+		emitting = true;
+	}
+
+	/**
+	 * stop making particles. Particles already made live out their lives.
+	 */
+	public void stop()
+	{
+		emitting = false;
+		spawnDebt = 0f;
+	}
+
+	public boolean isEmitting()		{	return emitting;	}
+
+	/**
+	 * Throw out a number of particles at once.
+	 * @param n particles to make
+	 * @return particles made, fewer than n if the emitter filled up
+	 */
+	public int burst(int n)
+	{
+		return spawn(n);
+	}
+
+	/**
+	 * drop every particle and stop emitting
+	 */
+	public void clear()
+	{
+		count = 0;
+		emitting = false;
+		spawnDebt = 0f;
+		clearBounds();
+		paintVersion++;
+	}
+
+	/**
+	 * @return true if the emitter isn't emitting and has no particles
+	 * left, so it has nothing to do
+	 */
+	public boolean isIdle()
+	{
+		return !emitting && (count == 0);
+	}
+
+	public int getParticleCount()	{	return count;	}
+	public int getCapacity()		{	return capacity;	}
+
+	//------------------ updating
+
+	/**
+	 * make new particles, move the live ones and drop the dead
+	 * @param dT delta time in ms
+	 */
+	@Override
+	public void update(float dT)
+	{
+		if (effect == null)
+			return;
+
+		float seconds = dT * 0.001f;
+		if (emitting && (effect.rate > 0f))
+		{
+			spawnDebt += effect.rate * seconds;
+			int n = (int) spawnDebt;
+			spawnDebt -= n;
+			spawn(n);
+		}
+
+		int n = count;
+		if (n == 0)
+			return;
+
+		//one array or two per loop, with nothing else in the loop,
+		//so the JIT can vectorize each of them
+		float[] px = this.px;
+		float[] py = this.py;
+		float[] vx = this.vx;
+		float[] vy = this.vy;
+		float[] life = this.life;
+
+		float gx = effect.gravityX * seconds;
+		float gy = effect.gravityY * seconds;
+		if (gx != 0f)
+		{
+			for (int i = 0; i < n; i++)
+				vx[i] += gx;
+		}
+		if (gy != 0f)
+		{
+			for (int i = 0; i < n; i++)
+				vy[i] += gy;
+		}
+
+		for (int i = 0; i < n; i++)
+			px[i] += vx[i] * seconds;
+		for (int i = 0; i < n; i++)
+			py[i] += vy[i] * seconds;
+		for (int i = 0; i < n; i++)
+			life[i] -= dT;
+
+		int frames = effect.frames.length;
+		if (frames > 1)
+		{
+			float[] invLifeSpan = this.invLifeSpan;
+			int[] frame = this.frame;
+			int last = frames - 1;
+			for (int i = 0; i < n; i++)
+				frame[i] = Math.min((int) ((1f - life[i] * invLifeSpan[i]) * frames), last);
+		}
+
+		removeDead();
+		updateBounds();
+		paintVersion++;
+	}
+
+	/**
+	 * replace each dead particle with the last live one
+	 */
+	protected void removeDead()
+	{
+		int n = count;
+		int i = 0;
+		while (i < n)
+		{
+			if (life[i] > 0f)
+			{
+				i++;
+				continue;
+			}
+
+			n--;
+			px[i] = px[n];
+			py[i] = py[n];
+			vx[i] = vx[n];
+			vy[i] = vy[n];
+			life[i] = life[n];
+			invLifeSpan[i] = invLifeSpan[n];
+			frame[i] = frame[n];
+		}
+		count = n;
+	}
+
+	protected void updateBounds()
+	{
+		clearBounds();
+
+		//plain compares rather than Math.min and max, which are much
+		//slower for floats as they have to handle NaN and -0
+		float[] px = this.px;
+		float[] py = this.py;
+		float lowX = minX, highX = maxX, lowY = minY, highY = maxY;
+		for (int i = 0; i < count; i++)
+		{
+			float v = px[i];
+			lowX = (v < lowX) ? v : lowX;
+			highX = (v > highX) ? v : highX;
+		}
+		for (int i = 0; i < count; i++)
+		{
+			float v = py[i];
+			lowY = (v < lowY) ? v : lowY;
+			highY = (v > highY) ? v : highY;
+		}
+		minX = lowX;
+		maxX = highX;
+		minY = lowY;
+		maxY = highY;
+	}
+
+	protected void clearBounds()
+	{
+		minX = Float.POSITIVE_INFINITY;
+		minY = Float.POSITIVE_INFINITY;
+		maxX = Float.NEGATIVE_INFINITY;
+		maxY = Float.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * make up to n particles at the emitter
+	 * @return particles made
+	 */
+	protected int spawn(int n)
+	{
+		ParticleEffect e = effect;
+		if (e == null)
+			return 0;
+
+		n = Math.min(n, capacity - count);
+		if (n > 0)
+			paintVersion++;
+		for (int k = 0; k < n; k++)
+		{
+			int i = count++;
+
+			double angle = Math.toRadians(e.direction + (random() - 0.5f) * e.spread);
+			float speed = e.minSpeed + random() * (e.maxSpeed - e.minSpeed);
+			float span = e.minLife + random() * (e.maxLife - e.minLife);
+
+			float sx = x + (random() - 0.5f) * e.spawnWidth;
+			float sy = y + (random() - 0.5f) * e.spawnHeight;
+			px[i] = sx;
+			py[i] = sy;
+			vx[i] = (float) Math.cos(angle) * speed;
+			vy[i] = (float) Math.sin(angle) * speed;
+			life[i] = span;
+			invLifeSpan[i] = 1f / span;
+			frame[i] = 0;
+
+			minX = Math.min(minX, sx);
+			maxX = Math.max(maxX, sx);
+			minY = Math.min(minY, sy);
+			maxY = Math.max(maxY, sy);
+		}
+		return n;
+	}
+
+	/**
+	 * @return a random number from 0 up to 1. xorshift, so it's cheap
+	 * and the same every run
+	 */
+	protected float random()
+	{
+		int s = seed;
+		s ^= s << 13;
+		s ^= s >>> 17;
+		s ^= s << 5;
+		seed = s;
+		return (s >>> 8) * (1f / (1 << 24));
+	}
+
+	//------------------ drawing
+
+	/**
+	 * @return true if any particle may be drawn inside the clip
+	 */
+	@Override
+	public boolean isOnScreen(Rectangle clip)
+	{
+		if ((count == 0) || (effect == null))
+			return false;
+
+		return (minX < clip.x + clip.width) && (maxX + effect.frameWidth > clip.x)
+				&& (minY < clip.y + clip.height) && (maxY + effect.frameHeight > clip.y);
+	}
+
+	/**
+	 * Get the area the live particles are drawn over. Empty when there
+	 * are none.
+	 */
+	@Override
+	public void getDrawBounds(Rectangle r)
+	{
+		if ((count == 0) || (effect == null))
+		{
+			r.setBounds(0, 0, 0, 0);
+			return;
+		}
+
+		//particles are drawn at their positions cast to int
+		int left = (int) minX;
+		int top = (int) minY;
+		r.setBounds(left, top, (int) maxX - left + effect.frameWidth,
+				(int) maxY - top + effect.frameHeight);
+	}
+
+	/**
+	 * @return a number that changes every update the particles move,
+	 * and whenever particles are made or dropped
+	 */
+	@Override
+	public int getPaintVersion()	{	return paintVersion;	}
+
+	/**
+	 * draw every particle
+	 */
+	@Override
+	public void paint(Graphics g)
+	{
+		if ((count == 0) || (effect == null))
+			return;
+
+		BufferedImage[] images = effect.frames;
+		for (int i = 0; i < count; i++)
+			g.drawImage(images[frame[i]], (int) px[i], (int) py[i], null);
+	}
+
+	/**
+	 * draw every particle into a frame drawn at a lower resolution
+	 */
+	@Override
+	public void paint(Graphics g, ScaledImageCache scaled)
+	{
+		if ((count == 0) || (effect == null))
+			return;
+
+		BufferedImage[] images = effect.frames;
+		for (int i = 0; i < count; i++)
+			g.drawImage(scaled.get(images[frame[i]]), scaled.scale(px[i]), scaled.scale(py[i]), null);
+	}
+
+	/**
+	 * draw every particle straight into the frame's pixels
+	 */
+	@Override
+	public void paint(IntFrameBuffer fb)
+	{
+		if ((count == 0) || (effect == null))
+			return;
+
+		RasterBlitter[] blitters = effect.getBlitters();
+		for (int i = 0; i < count; i++)
+			blitters[frame[i]].blit(fb, (int) px[i], (int) py[i]);
+	}
+}
@@ -0,0 +1,139 @@
+package Waisy.core.particles;
+
+import Waisy.core.graphics.SpriteManager;
+
+/**
+ * A fixed set of emitters for short effects, such as sparks when an
+ * enemy is hit or a burst of coins from a box.
+ *
+ * The emitters are made up front and added to a layer for good.
+ * Playing an effect hands it to an emitter that has nothing to do,
+ * rather than making an emitter and adding it to the layer, so
+ * nothing is allocated and the layer never changes. Idle emitters
+ * are skipped by the update and culled by the renderer, so spare
+ * ones cost next to nothing.
+ *
+ * Emitters aren't saved with the state. Make the pool again after
+ * loading a save.
+ * @author waisy
+ *
+ */
+public class ParticlePool
+{
+	protected ParticleEmitter[] emitters;
+
+	/**
+	 * where to start looking for an idle emitter
+	 */
+	protected int next = 0;
+
+	/**
+	 * Make the emitters and add them to a layer.
+	 * @param mgr sprite manager to draw the particles with
+	 * @param layer layer to add the emitters to. Use the SpriteManager constants.
+	 * @param emitterCount most effects playing at once
+	 * @param particlesPerEmitter most particles in one effect
+	 */
+	public ParticlePool(SpriteManager mgr, int layer, int emitterCount, int particlesPerEmitter)
+	{
+		emitters = new ParticleEmitter[emitterCount];
+		mgr.ensureLayerCapacity(layer, mgr.getLayerSize(layer) + emitterCount);
+		for (int i = 0; i < emitterCount; i++)
+		{
+			emitters[i] = new ParticleEmitter(particlesPerEmitter);
+			mgr.addSprite(emitters[i], layer);
+		}
+	}
+
+	/**
+	 * Throw out a burst of particles.
+	 * @param effect effect to show
+	 * @param x where to throw them from
+	 * @param y where to throw them from
+	 * @param count particles to throw
+	 * @return the emitter used, or null if every emitter is busy, in
+	 * which case the effect isn't shown
+	 */
+	public ParticleEmitter burst(ParticleEffect effect, float x, float y, int count)
+	{
+		ParticleEmitter e = obtain(effect, x, y);
+		if (e != null)
+			e.burst(count);
+		return e;
+	}
+
+	/**
+	 * Start an effect that keeps making particles at its rate until
+	 * stopped, such as a dust trail. Move the emitter to move the
+	 * effect. Once stopped, the emitter goes back to the pool as soon
+	 * as its particles have died, so don't hold on to it after that.
+	 * @param effect effect to show
+	 * @param x where to start it
+	 * @param y where to start it
+	 * @return the emitter used, or null if every emitter is busy
+	 */
+	public ParticleEmitter start(ParticleEffect effect, float x, float y)
+	{
+		ParticleEmitter e = obtain(effect, x, y);
+		if (e != null)
+			e.start();
+		return e;
+	}
+
+	/**
+	 * find an idle emitter and set it up for an effect
+	 */
+	protected ParticleEmitter obtain(ParticleEffect effect, float x, float y)
+	{
+		for (int n = 0; n < emitters.length; n++)
+		{
+			int i = (next + n) % emitters.length;
+			ParticleEmitter e = emitters[i];
+			if (e.isIdle())
+			{
+				next = (i + 1) % emitters.length;
+				e.setEffect(effect);
+				e.setX(x);
+				e.setY(y);
+				return e;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * stop every effect and drop every particle
+	 */
+	public void clear()
+	{
+		for (int i = 0; i < emitters.length; i++)
+			emitters[i].clear();
+	}
+
+	/**
+	 * @return particles alive across every emitter
+	 */
+	public int getParticleCount()
+	{
+		int total = 0;
+		for (int i = 0; i < emitters.length; i++)
+			total += emitters[i].getParticleCount();
+		return total;
+	}
+
+	/**
+	 * @return emitters showing an effect
+	 */
+	public int getBusyCount()
+	{
+		int busy = 0;
+		for (int i = 0; i < emitters.length; i++)
+		{
+			if (!emitters[i].isIdle())
+				busy++;
+		}
+		return busy;
+	}
+
+	public int getEmitterCount()	{	return emitters.length;	}
+}
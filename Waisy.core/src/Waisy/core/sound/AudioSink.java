@@ -0,0 +1,41 @@
+package Waisy.core.sound;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * Where the SoundMixer sends each mixed block of audio.
+ * Games use a SourceDataLineSink to play through the speakers;
+ * tests and headless runs use a MemoryAudioSink.
+ * @author waisy
+ *
+ */
+public interface AudioSink
+{
+	/**
+	 * Prepare the sink. Called once by the mixer before any writes.
+	 * @param format format of the blocks that will be written
+	 * @param blockBytes size of one block in bytes
+	 * @throws LineUnavailableException the audio device couldn't be opened
+	 */
+	public void open(AudioFormat format, int blockBytes)
+			throws LineUnavailableException;
+
+	/**
+	 * Write a mixed block. Sinks that play audio block here until
+	 * there is room, which is what paces the mixer thread.
+	 * @param block PCM data. Reused by the mixer after this returns.
+	 * @param length number of bytes to write
+	 */
+	public void write(byte[] block, int length);
+
+	/**
+	 * @return number of times the sink ran dry waiting for the mixer
+	 */
+	public int getUnderrunCount();
+
+	/**
+	 * release the sink
+	 */
+	public void close();
+}
@@ -0,0 +1,86 @@
+package Waisy.core.sound;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Keeps mixed audio in memory instead of playing it. Used for tests,
+ * benchmarks, and headless runs, where the mixer is driven by calling
+ * SoundMixer.mixBlock directly.
+ *
+ * The sink holds a fixed amount of audio. Once it is full, the
+ * oldest audio is overwritten, so it never grows.
+ * @author waisy
+ *
+ */
+public class MemoryAudioSink implements AudioSink
+{
+	protected byte[] data;
+	protected int position = 0;
+	protected long bytesWritten = 0;
+
+	/**
+	 * @param capacity number of bytes of audio to keep
+	 */
+	public MemoryAudioSink(int capacity)
+	{
+		data = new byte[capacity];
+	}
+
+	@Override
+	public void open(AudioFormat format, int blockBytes)
+	{
+	}
+
+	@Override
+	public void write(byte[] block, int length)
+	{
+		int offset = 0;
+		while (offset < length)
+		{
+			int n = Math.min(length - offset, data.length - position);
+			System.arraycopy(block, offset, data, position, n);
+			offset += n;
+			position = (position + n) % data.length;
+		}
+		bytesWritten += length;
+	}
+
+	/**
+	 * @return the audio held by the sink. Once the sink has wrapped,
+	 * the oldest audio starts at getPosition().
+	 */
+	public byte[] getData()
+	{
+		return data;
+	}
+
+	/**
+	 * @return where the next write will go
+	 */
+	public int getPosition()
+	{
+		return position;
+	}
+
+	/**
+	 * @return total bytes written since the sink was created
+	 */
+	public long getBytesWritten()
+	{
+		return bytesWritten;
+	}
+
+	/**
+	 * a memory sink never runs dry
+	 */
+	@Override
+	public int getUnderrunCount()
+	{
+		return 0;
+	}
+
+	@Override
+	public void close()
+	{
+	}
+}
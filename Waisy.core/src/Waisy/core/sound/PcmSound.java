@@ -0,0 +1,77 @@
+package Waisy.core.sound;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * A short sound decoded once into memory in the mixer's format.
+ * The samples are shared by every voice playing the sound, so
+ * playing it again costs nothing but a voice.
+ *
+ * Use this for sound effects. Long music tracks should be
+ * streamed with StreamingSound instead.
+ * @author waisy
+ * @see StreamingSound
+ */
+public class PcmSound
+{
+	/**
+	 * interleaved 16-bit samples, left then right
+	 */
+	protected short[] samples;
+
+	/**
+	 * Wrap already decoded samples.
+	 * @param samples interleaved stereo samples in the mixer's format
+	 */
+	public PcmSound(short[] samples)
+	{
+		this.samples = samples;
+	}
+
+	/**
+	 * Load and decode a sound from a location within the main game.
+	 * @param relativeLocation relative location of the sound file
+	 * @throws IOException the file couldn't be read or converted
+	 */
+	public PcmSound(String relativeLocation)
+			throws IOException
+	{
+		try (AudioInputStream in = SoundMixer.openStream(relativeLocation))
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] chunk = new byte[16 * 1024];
+			int n;
+			while ((n = in.read(chunk)) > 0)
+				bytes.write(chunk, 0, n);
+
+			samples = SoundMixer.toSamples(bytes.toByteArray(), bytes.size());
+		}
+	}
+
+	/**
+	 * @return the decoded samples. Shared, don't modify.
+	 */
+	public short[] getSamples()
+	{
+		return samples;
+	}
+
+	/**
+	 * @return length of the sound in frames (one left and right sample pair)
+	 */
+	public int getFrameCount()
+	{
+		return samples.length / SoundMixer.CHANNELS;
+	}
+
+	/**
+	 * @return memory held by the decoded samples, in bytes
+	 */
+	public int getByteSize()
+	{
+		return samples.length * 2;
+	}
+}
@@ -0,0 +1,670 @@
+package Waisy.core.sound;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import Waisy.core.core.LatencyHistogram;
+
+/**
+ * Software sound mixer. Mixes every playing voice into a block of
+ * 16-bit stereo PCM and hands the block to an AudioSink.
+ *
+ * All mixing buffers are allocated up front, so mixing a block
+ * allocates nothing no matter how many sounds are playing.
+ * Short sounds are played from PcmSounds decoded once into memory;
+ * music is streamed from disk with StreamingSound.
+ *
+ * In a game, give the mixer a SourceDataLineSink and call startThread().
+ * The mixer thread mixes a block, then blocks writing it to the line
+ * until there's room, so the line paces the mixer. For tests and
+ * headless runs, give it a MemoryAudioSink and call mixBlock() directly.
+ *
+ * Every sound must be 44.1kHz 16-bit stereo once decoded; other
+ * formats are converted when loaded if javax.sound can convert them.
+ * @author waisy
+ * @see PcmSound
+ * @see StreamingSound
+ */
+public class SoundMixer
+{
+	public static final float SAMPLE_RATE = 44100f;
+	public static final int CHANNELS = 2;
+	/**
+	 * bytes in one frame (a left and right sample)
+	 */
+	public static final int FRAME_BYTES = 2 * CHANNELS;
+
+	/**
+	 * format of everything the mixer plays
+	 */
+	public static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, CHANNELS, true, false);
+
+	/**
+	 * default block size in frames. about 11.6ms of audio.
+	 */
+	public static final int DEFAULT_BLOCK_FRAMES = 512;
+
+	/**
+	 * default number of voices
+	 */
+	public static final int DEFAULT_MAX_VOICES = 32;
+
+	protected AudioSink sink;
+	protected int blockFrames;
+
+	/**
+	 * voice pool. Guarded by itself; the game thread starts and stops
+	 * voices while the mixer thread mixes them.
+	 */
+	protected Voice[] voices;
+
+	/**
+	 * copies of the playing voices, mixed without holding the pool
+	 */
+	protected Voice[] mixing;
+	protected int mixingCount = 0;
+
+	//mixing buffers, all reused every block
+	protected int[] mix;
+	protected short[] scratch;
+	protected byte[] block;
+
+	protected float masterVolume = 1f;
+
+	protected Thread mixerThread = null;
+	protected volatile boolean running = false;
+
+	//stats
+	protected LatencyHistogram mixTimes = new LatencyHistogram();
+	//only counted by the mixer thread, read by anyone
+	protected volatile long blockCount = 0;
+	protected int nextGeneration = 0;
+	/**
+	 * number of voices started, guarded by voices
+	 */
+	protected long startCount = 0;
+	protected long stealCount = 0;
+
+	/**
+	 * which voice gives way when a limited play is over its budget
+	 */
+	public enum StealPolicy
+	{
+		/**
+		 * the voice that has been playing the longest
+		 */
+		OLDEST,
+		/**
+		 * the voice with the lowest volume, oldest first on a tie
+		 */
+		QUIETEST
+	}
+
+	protected StealPolicy stealPolicy = StealPolicy.OLDEST;
+
+	public SoundMixer(AudioSink sink)
+			throws LineUnavailableException
+	{
+		this(sink, DEFAULT_MAX_VOICES, DEFAULT_BLOCK_FRAMES);
+	}
+
+	/**
+	 * @param sink where mixed blocks are sent. Opened here.
+	 * @param maxVoices number of sounds that can play at once
+	 * @param blockFrames frames mixed per block. Smaller blocks mean
+	 * lower latency but more chance of underruns.
+	 * @throws LineUnavailableException the sink couldn't be opened
+	 */
+	public SoundMixer(AudioSink sink, int maxVoices, int blockFrames)
+			throws LineUnavailableException
+	{
+		this.sink = sink;
+		this.blockFrames = blockFrames;
+
+		voices = new Voice[maxVoices];
+		mixing = new Voice[maxVoices];
+		for (int i = 0; i < maxVoices; i++)
+		{
+			voices[i] = new Voice();
+			mixing[i] = new Voice();
+		}
+
+		mix = new int[blockFrames * CHANNELS];
+		scratch = new short[blockFrames * CHANNELS];
+		block = new byte[blockFrames * FRAME_BYTES];
+
+		sink.open(FORMAT, block.length);
+	}
+
+	//------------------ playing
+
+	/**
+	 * Play a sound.
+	 * @param sound sound to play
+	 * @param volume volume between 0 and 1
+	 * @param pan -1 for full left, 0 for center, 1 for full right
+	 * @param loop keep playing from the start when the sound ends
+	 * @return id of the voice playing the sound, or -1 if every
+	 * voice is busy
+	 */
+	public int play(PcmSound sound, float volume, float pan, boolean loop)
+	{
+		synchronized (voices)
+		{
+			Voice v = freeVoice();
+			if (v == null)
+				return -1;
+
+			v.pcm = sound;
+			v.position = 0;
+			return startVoice(v, volume, pan, loop);
+		}
+	}
+
+	/**
+	 * Play a sound within a voice budget. If the sound already has
+	 * maxPerSound voices playing, one of them is stolen for the new
+	 * play. If maxEffects pcm voices are playing, or every voice is
+	 * busy, one of the pcm voices is stolen instead. Streamed sounds
+	 * are never stolen, so effects can't cut off the music.
+	 * @param sound sound to play
+	 * @param volume volume between 0 and 1
+	 * @param pan -1 for full left, 0 for center, 1 for full right
+	 * @param loop keep playing from the start when the sound ends
+	 * @param maxPerSound most voices this sound may use at once
+	 * @param maxEffects most voices all pcm sounds together may use at once
+	 * @return id of the voice playing the sound, or -1 if there was
+	 * no voice to play or steal
+	 * @see #setStealPolicy(StealPolicy)
+	 */
+	public int play(PcmSound sound, float volume, float pan, boolean loop,
+			int maxPerSound, int maxEffects)
+	{
+		synchronized (voices)
+		{
+			int playing = 0;
+			int effects = 0;
+			for (int i = 0; i < voices.length; i++)
+			{
+				Voice v = voices[i];
+				if (v.active && (v.pcm != null))
+				{
+					effects++;
+					if (v.pcm == sound)
+						playing++;
+				}
+			}
+
+			Voice v = null;
+			if (playing >= maxPerSound)
+				v = victim(sound);
+			else if (effects >= maxEffects)
+				v = victim(null);
+			else
+			{
+				v = freeVoice();
+				if (v == null)
+					v = victim(null);
+			}
+
+			if (v == null)
+				return -1;
+
+			if (v.active)
+			{
+				v.clear();
+				stealCount++;
+			}
+
+			v.pcm = sound;
+			v.position = 0;
+			return startVoice(v, volume, pan, loop);
+		}
+	}
+
+	/**
+	 * pick a pcm voice to steal under the steal policy
+	 * @param sound only consider voices playing this sound. null for any pcm sound.
+	 * @return the voice to steal, or null if there is none
+	 */
+	protected Voice victim(PcmSound sound)
+	{
+		Voice victim = null;
+		for (int i = 0; i < voices.length; i++)
+		{
+			Voice v = voices[i];
+			if (!v.active || (v.pcm == null) || ((sound != null) && (v.pcm != sound)))
+				continue;
+
+			if (victim == null)
+				victim = v;
+			else if ((stealPolicy == StealPolicy.QUIETEST) && (v.volume != victim.volume))
+			{
+				if (v.volume < victim.volume)
+					victim = v;
+			}
+			else if (v.startOrder < victim.startOrder)
+				victim = v;
+		}
+		return victim;
+	}
+
+	/**
+	 * @param policy which voice gives way when a limited play is over budget
+	 */
+	public void setStealPolicy(StealPolicy policy)
+	{
+		stealPolicy = policy;
+	}
+
+	/**
+	 * Play a streamed sound, such as a music track.
+	 * @param sound sound to stream. Starts from the beginning.
+	 * @param volume volume between 0 and 1
+	 * @param loop start over at the end of the track
+	 * @return id of the voice playing the sound, or -1 if every
+	 * voice is busy
+	 */
+	public int play(StreamingSound sound, float volume, boolean loop)
+	{
+		synchronized (voices)
+		{
+			Voice v = freeVoice();
+			if (v == null)
+				return -1;
+
+			//the loader decodes the first chunks before the voice is mixed
+			sound.start(loop);
+			v.stream = sound;
+			return startVoice(v, volume, 0f, loop);
+		}
+	}
+
+	/**
+	 * stop a voice. Does nothing if the voice has already stopped
+	 * or has been reused for another sound.
+	 * @param id voice id returned by play
+	 */
+	public void stop(int id)
+	{
+		synchronized (voices)
+		{
+			Voice v = voice(id);
+			if (v != null)
+				v.clear();
+		}
+	}
+
+	/**
+	 * stop every voice
+	 */
+	public void stopAll()
+	{
+		synchronized (voices)
+		{
+			for (int i = 0; i < voices.length; i++)
+			{
+				if (voices[i].active)
+					voices[i].clear();
+			}
+		}
+	}
+
+	/**
+	 * @param id voice id returned by play
+	 * @return true if the voice is still playing its sound
+	 */
+	public boolean isPlaying(int id)
+	{
+		synchronized (voices)
+		{
+			return voice(id) != null;
+		}
+	}
+
+	/**
+	 * change the volume of a playing voice
+	 * @param id voice id returned by play
+	 * @param volume volume between 0 and 1
+	 */
+	public void setVolume(int id, float volume)
+	{
+		synchronized (voices)
+		{
+			Voice v = voice(id);
+			if (v != null)
+				v.volume = clamp(volume, 0f, 1f);
+		}
+	}
+
+	/**
+	 * @param volume volume of everything the mixer plays, between 0 and 1
+	 */
+	public void setMasterVolume(float volume)
+	{
+		masterVolume = clamp(volume, 0f, 1f);
+	}
+
+	protected Voice freeVoice()
+	{
+		for (int i = 0; i < voices.length; i++)
+		{
+			if (!voices[i].active)
+				return voices[i];
+		}
+		return null;
+	}
+
+	/**
+	 * set a voice playing. Call holding voices.
+	 * @return the voice's id
+	 */
+	protected int startVoice(Voice v, float volume, float pan, boolean loop)
+	{
+		int index = indexOf(v);
+		nextGeneration = (nextGeneration + 1) & 0x7FFF;
+
+		v.id = (nextGeneration << 16) | index;
+		v.volume = clamp(volume, 0f, 1f);
+		v.pan = clamp(pan, -1f, 1f);
+		v.loop = loop;
+		v.startOrder = ++startCount;
+		v.active = true;
+		return v.id;
+	}
+
+	/**
+	 * @return the active voice with the given id, or null
+	 */
+	protected Voice voice(int id)
+	{
+		if (id < 0)
+			return null;
+
+		int index = id & 0xFFFF;
+		if (index >= voices.length)
+			return null;
+
+		Voice v = voices[index];
+		return (v.active && (v.id == id)) ? v : null;
+	}
+
+	protected int indexOf(Voice v)
+	{
+		for (int i = 0; i < voices.length; i++)
+		{
+			if (voices[i] == v)
+				return i;
+		}
+		return -1;
+	}
+
+	//------------------ mixing
+
+	/**
+	 * Mix one block of every playing voice and write it to the sink.
+	 * Called by the mixer thread, or directly for headless use.
+	 *
+	 * The pool is only held to copy the playing voices and to write
+	 * their positions back, so the game thread never waits on a mix.
+	 */
+	public void mixBlock()
+	{
+		long start = System.nanoTime();
+
+		Arrays.fill(mix, 0);
+		synchronized (voices)
+		{
+			mixingCount = 0;
+			for (int i = 0; i < voices.length; i++)
+			{
+				Voice v = voices[i];
+				if (!v.active)
+					continue;
+
+				Voice m = mixing[mixingCount++];
+				m.copyFrom(v);
+				m.index = i;
+
+				//constant power is overkill here. a linear pan is fine
+				float gain = v.volume * masterVolume * 65536f;
+				m.gainL = (int) (gain * Math.min(1f, 1f - v.pan));
+				m.gainR = (int) (gain * Math.min(1f, 1f + v.pan));
+			}
+		}
+
+		for (int i = 0; i < mixingCount; i++)
+		{
+			Voice m = mixing[i];
+			//a voice that comes up short is over
+			m.active = (m.mix(mix, scratch, blockFrames, m.gainL, m.gainR) == blockFrames);
+		}
+
+		synchronized (voices)
+		{
+			for (int i = 0; i < mixingCount; i++)
+			{
+				Voice m = mixing[i];
+				Voice v = voices[m.index];
+
+				//skip voices stopped or reused while mixing
+				if (v.active && (v.id == m.id))
+				{
+					v.position = m.position;
+					if (!m.active)
+						v.clear();
+				}
+
+				//don't keep sounds alive through the copies
+				m.pcm = null;
+				m.stream = null;
+			}
+		}
+
+		//clip to 16 bits and write out little-endian
+		for (int i = 0, b = 0; i < mix.length; i++, b += 2)
+		{
+			int sample = mix[i];
+			if (sample > Short.MAX_VALUE)
+				sample = Short.MAX_VALUE;
+			else if (sample < Short.MIN_VALUE)
+				sample = Short.MIN_VALUE;
+
+			block[b] = (byte) sample;
+			block[b + 1] = (byte) (sample >> 8);
+		}
+
+		blockCount++;
+		mixTimes.record(System.nanoTime() - start);
+
+		sink.write(block, block.length);
+	}
+
+	/**
+	 * start mixing on a background thread. Only use this with a sink
+	 * that blocks until it has room, like SourceDataLineSink.
+	 */
+	public synchronized void startThread()
+	{
+		if (running)
+			return;
+
+		running = true;
+		mixerThread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				while (running)
+					mixBlock();
+			}
+		}, "Waisy sound mixer");
+		mixerThread.setDaemon(true);
+		mixerThread.setPriority(Thread.MAX_PRIORITY);
+		mixerThread.start();
+	}
+
+	/**
+	 * stop the mixer thread and wait for it to finish its block
+	 */
+	public synchronized void stopThread()
+	{
+		running = false;
+		if (mixerThread != null)
+		{
+			try
+			{
+				mixerThread.join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			mixerThread = null;
+		}
+	}
+
+	/**
+	 * stop mixing, stop every voice and close the sink
+	 */
+	public void close()
+	{
+		stopThread();
+		stopAll();
+		sink.close();
+	}
+
+	//------------------ stats
+
+	/**
+	 * @return time spent mixing each block, in ns. Compare against
+	 * getBlockNanos() to see how much of the audio budget mixing uses.
+	 */
+	public LatencyHistogram getMixTimes()	{	return mixTimes;	}
+
+	/**
+	 * @return length of audio in one block, in ns
+	 */
+	public long getBlockNanos()
+	{
+		return (long) (blockFrames * 1000000000.0 / SAMPLE_RATE);
+	}
+
+	public long getBlockCount()				{	return blockCount;	}
+
+	/**
+	 * @return number of voices stolen by limited plays
+	 */
+	public long getStealCount()				{	return stealCount;	}
+	public int getBlockFrames()				{	return blockFrames;	}
+
+	/**
+	 * @return number of times the sink ran dry waiting for a block
+	 */
+	public int getUnderrunCount()			{	return sink.getUnderrunCount();	}
+
+	/**
+	 * @return number of voices playing
+	 */
+	public int getActiveVoiceCount()
+	{
+		synchronized (voices)
+		{
+			int count = 0;
+			for (int i = 0; i < voices.length; i++)
+			{
+				if (voices[i].active)
+					count++;
+			}
+			return count;
+		}
+	}
+
+	//------------------ decoding helpers
+
+	/**
+	 * Open a sound file from a location within the main game,
+	 * converted to the mixer's format.
+	 * @param relativeLocation relative location of the sound file
+	 * @return stream of PCM in the mixer's format
+	 * @throws IOException the file couldn't be found, read or converted
+	 */
+	public static AudioInputStream openStream(String relativeLocation)
+			throws IOException
+	{
+		InputStream stream = SoundMixer.class.getClassLoader().
+				getResourceAsStream(relativeLocation);
+		if (stream == null)
+			throw new IOException("Sound " + relativeLocation + " not found");
+
+		try
+		{
+			//audio system needs mark/reset to detect the file type
+			AudioInputStream in = AudioSystem.getAudioInputStream(new BufferedInputStream(stream));
+			return toMixerFormat(in, relativeLocation);
+		}
+		catch (UnsupportedAudioFileException e)
+		{
+			stream.close();
+			throw new IOException("Sound " + relativeLocation + " is not a supported format", e);
+		}
+	}
+
+	/**
+	 * Convert an open sound to the mixer's format.
+	 * @param in sound as read from its file
+	 * @param relativeLocation location of the file, for errors
+	 * @return in if it is already in the mixer's format, otherwise a
+	 * stream converting it
+	 * @throws IOException javax.sound can't convert it. in is closed.
+	 */
+	public static AudioInputStream toMixerFormat(AudioInputStream in, String relativeLocation)
+			throws IOException
+	{
+		if (in.getFormat().matches(FORMAT))
+			return in;
+
+		if (!AudioSystem.isConversionSupported(FORMAT, in.getFormat()))
+		{
+			in.close();
+			throw new IOException("Sound " + relativeLocation + " can't be converted from "
+					+ in.getFormat() + " to " + FORMAT);
+		}
+		return AudioSystem.getAudioInputStream(FORMAT, in);
+	}
+
+	/**
+	 * convert little-endian 16-bit PCM bytes to samples
+	 */
+	public static short[] toSamples(byte[] bytes, int length)
+	{
+		short[] samples = new short[length / 2];
+		toSamples(bytes, 0, samples, 0, samples.length);
+		return samples;
+	}
+
+	/**
+	 * convert little-endian 16-bit PCM bytes to samples
+	 */
+	public static void toSamples(byte[] bytes, int offset, short[] out, int outOffset, int count)
+	{
+		for (int i = 0; i < count; i++)
+		{
+			int b = offset + i * 2;
+			out[outOffset + i] = (short) ((bytes[b] & 0xFF) | (bytes[b + 1] << 8));
+		}
+	}
+
+	protected static float clamp(float value, float min, float max)
+	{
+		return Math.max(min, Math.min(max, value));
+	}
+}
@@ -0,0 +1,91 @@
+package Waisy.core.sound;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Plays mixed audio through a javax.sound SourceDataLine.
+ *
+ * The line is given room for a few blocks. A smaller buffer means
+ * less delay between playing a sound and hearing it, but leaves
+ * the mixer less slack before it underruns.
+ * @author waisy
+ *
+ */
+public class SourceDataLineSink implements AudioSink
+{
+	/**
+	 * default number of blocks the line can hold
+	 */
+	public static final int DEFAULT_BUFFERED_BLOCKS = 4;
+
+	protected SourceDataLine line = null;
+	protected int bufferedBlocks;
+	protected boolean started = false;
+	protected int underruns = 0;
+
+	public SourceDataLineSink()
+	{
+		this(DEFAULT_BUFFERED_BLOCKS);
+	}
+
+	/**
+	 * @param bufferedBlocks number of mixed blocks the line can hold
+	 */
+	public SourceDataLineSink(int bufferedBlocks)
+	{
+		this.bufferedBlocks = bufferedBlocks;
+	}
+
+	@Override
+	public void open(AudioFormat format, int blockBytes)
+			throws LineUnavailableException
+	{
+		line = AudioSystem.getSourceDataLine(format);
+		line.open(format, blockBytes * bufferedBlocks);
+	}
+
+	@Override
+	public void write(byte[] block, int length)
+	{
+		if (!started)
+		{
+			//fill the line before starting it so it doesn't
+			//underrun on the first block
+			line.write(block, 0, length);
+			if (line.available() < length)
+			{
+				line.start();
+				started = true;
+			}
+			return;
+		}
+
+		//if the line is completely empty it ran out before
+		//this block arrived
+		if (line.available() >= line.getBufferSize())
+			underruns++;
+
+		line.write(block, 0, length);
+	}
+
+	@Override
+	public int getUnderrunCount()
+	{
+		return underruns;
+	}
+
+	@Override
+	public void close()
+	{
+		if (line != null)
+		{
+			line.stop();
+			line.close();
+			line = null;
+		}
+		started = false;
+	}
+}
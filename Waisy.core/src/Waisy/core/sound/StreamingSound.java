@@ -0,0 +1,608 @@
+package Waisy.core.sound;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * A long sound, such as a music track, decoded from disk a chunk at
+ * a time as it plays instead of being loaded all at once.
+ *
+ * Chunks are decoded ahead of time on a shared loader thread into a
+ * small ring, and the mixer only copies samples out of chunks that
+ * are ready, so the mixer never waits on the disk. If the loader
+ * falls behind, the voice plays silence until the next chunk is
+ * ready; getStarvedCount() says how often that happened.
+ *
+ * A track in a file is looped by seeking back to the start of its
+ * samples, keeping the file open. A track inside a jar can't seek,
+ * so it's opened again at the end, ahead of time on the loader.
+ *
+ * A streaming sound holds its own read position, so it can only be
+ * played by one voice at a time.
+ * @author waisy
+ * @see PcmSound
+ */
+public class StreamingSound
+{
+	/**
+	 * default chunk size in frames. about 0.2s of audio.
+	 */
+	public static final int DEFAULT_CHUNK_FRAMES = 8192;
+
+	/**
+	 * number of chunks decoded ahead
+	 */
+	protected static final int CHUNK_COUNT = 3;
+
+	/**
+	 * sounds the loader keeps decoding. Guarded by itself.
+	 */
+	protected static final ArrayList<StreamingSound> loading = new ArrayList<>();
+	protected static Thread loader = null;
+
+	protected String relativeLocation;
+
+	//only touched by the loader thread
+	protected FileChannel channel = null;
+	/**
+	 * stream as read from the file, marked at the start of the samples
+	 * if it can seek back
+	 */
+	protected AudioInputStream source = null;
+	/**
+	 * source converted to the mixer's format
+	 */
+	protected AudioInputStream stream = null;
+	protected boolean seekable = false;
+	protected byte[] bytes;
+
+	//ring of decoded chunks. Guarded by this.
+	protected short[][] chunks;
+	/**
+	 * frames decoded into each chunk
+	 */
+	protected int[] chunkLengths;
+	/**
+	 * true for the chunk that ends a track
+	 */
+	protected boolean[] lastChunk;
+	protected int readChunk = 0;
+	protected int readFrame = 0;
+	protected int writeChunk = 0;
+	protected int filled = 0;
+
+	protected boolean playing = false;
+	protected boolean loop = false;
+	/**
+	 * true once the loader has decoded the end of a track that doesn't loop
+	 */
+	protected boolean endQueued = false;
+	protected boolean ended = false;
+	/**
+	 * true when the loader has to start the track over before decoding
+	 */
+	protected boolean rewindPending = false;
+	/**
+	 * changes every start, so the loader drops a chunk decoded for
+	 * the play before
+	 */
+	protected int generation = 0;
+	protected long starvedCount = 0;
+
+	protected volatile IOException lastError = null;
+
+	/**
+	 * @param relativeLocation relative location of the sound file.
+	 * The file isn't opened until the sound starts playing.
+	 */
+	public StreamingSound(String relativeLocation)
+	{
+		this(relativeLocation, DEFAULT_CHUNK_FRAMES);
+	}
+
+	/**
+	 * @param relativeLocation relative location of the sound file
+	 * @param chunkFrames number of frames read from disk at a time
+	 */
+	public StreamingSound(String relativeLocation, int chunkFrames)
+	{
+		this.relativeLocation = relativeLocation;
+		bytes = new byte[chunkFrames * SoundMixer.FRAME_BYTES];
+		chunks = new short[CHUNK_COUNT][chunkFrames * SoundMixer.CHANNELS];
+		chunkLengths = new int[CHUNK_COUNT];
+		lastChunk = new boolean[CHUNK_COUNT];
+	}
+
+	//------------------ playing
+
+	/**
+	 * Start the track from the beginning and have the loader decode
+	 * ahead of it. Called by the mixer when the sound is played.
+	 * @param loop start over at the end of the track
+	 */
+	protected void start(boolean loop)
+	{
+		synchronized (this)
+		{
+			generation++;
+			this.loop = loop;
+			playing = true;
+			ended = false;
+			endQueued = false;
+			rewindPending = true;
+			readChunk = 0;
+			readFrame = 0;
+			writeChunk = 0;
+			filled = 0;
+			lastError = null;
+		}
+
+		synchronized (loading)
+		{
+			if (!loading.contains(this))
+				loading.add(this);
+			startLoader();
+			loading.notifyAll();
+		}
+	}
+
+	/**
+	 * Stop playing. The loader closes the file.
+	 */
+	protected void stop()
+	{
+		synchronized (this)
+		{
+			playing = false;
+		}
+		wakeLoader();
+	}
+
+	/**
+	 * Copy decoded samples out of the chunks that are ready. Never
+	 * touches the disk.
+	 * @param out buffer for interleaved stereo samples
+	 * @param frames number of frames wanted
+	 * @return frames read. Less than asked for if the track has ended
+	 * or the loader has fallen behind.
+	 * @see #hasEnded()
+	 */
+	public int read(short[] out, int frames)
+	{
+		int read = 0;
+		boolean used = false;
+		synchronized (this)
+		{
+			while ((read < frames) && (filled > 0) && !ended)
+			{
+				int n = Math.min(frames - read, chunkLengths[readChunk] - readFrame);
+				System.arraycopy(chunks[readChunk], readFrame * SoundMixer.CHANNELS,
+						out, read * SoundMixer.CHANNELS, n * SoundMixer.CHANNELS);
+				readFrame += n;
+				read += n;
+
+				if (readFrame >= chunkLengths[readChunk])
+				{
+					//chunk used up. hand it back to the loader
+					ended = lastChunk[readChunk];
+					readChunk = (readChunk + 1) % CHUNK_COUNT;
+					readFrame = 0;
+					filled--;
+					used = true;
+				}
+			}
+
+			if ((read < frames) && !ended && playing)
+				starvedCount++;
+		}
+
+		//never wake the loader while holding this, it locks the other way
+		if (used)
+			wakeLoader();
+		return read;
+	}
+
+	/**
+	 * @return true once a non-looping track has played to the end,
+	 * or the file couldn't be read
+	 */
+	public synchronized boolean hasEnded()
+	{
+		return ended;
+	}
+
+	/**
+	 * @return number of reads that came up short because the loader
+	 * hadn't decoded the next chunk yet, including the first read of
+	 * a track if it was played just before being mixed
+	 */
+	public synchronized long getStarvedCount()
+	{
+		return starvedCount;
+	}
+
+	/**
+	 * @return the error that stopped the track, or null if it is
+	 * playing, or played, without one
+	 */
+	public IOException getLastError()
+	{
+		return lastError;
+	}
+
+	//------------------ loading
+
+	protected static void wakeLoader()
+	{
+		synchronized (loading)
+		{
+			loading.notifyAll();
+		}
+	}
+
+	protected static void startLoader()
+	{
+		if (loader != null)
+			return;
+
+		loader = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				loadLoop();
+			}
+		}, "Waisy sound streamer");
+		loader.setDaemon(true);
+		loader.start();
+	}
+
+	protected static void loadLoop()
+	{
+		while (true)
+		{
+			StreamingSound next = null;
+			synchronized (loading)
+			{
+				while (next == null)
+				{
+					for (int i = 0; (i < loading.size()) && (next == null); i++)
+					{
+						if (loading.get(i).wantsLoading())
+							next = loading.get(i);
+					}
+
+					if (next == null)
+					{
+						try
+						{
+							loading.wait();
+						}
+						catch (InterruptedException e)
+						{
+							//daemon thread. keep serving sounds
+						}
+					}
+				}
+			}
+
+			//decode without holding the list, so the mixer can wake us
+			if (!next.load())
+			{
+				synchronized (loading)
+				{
+					if (!next.wantsLoading())
+						loading.remove(next);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if the loader has something to do for this sound
+	 */
+	protected synchronized boolean wantsLoading()
+	{
+		if (!playing)
+			return (stream != null); //still needs closing
+		return (filled < CHUNK_COUNT) && !endQueued;
+	}
+
+	/**
+	 * Decode chunks until the ring is full, or close the file once the
+	 * sound has stopped. Called on the loader thread.
+	 * @return true if the sound is still playing
+	 */
+	protected boolean load()
+	{
+		while (true)
+		{
+			int slot;
+			int decoding;
+			boolean rewind;
+			synchronized (this)
+			{
+				if (!playing)
+				{
+					closeStream();
+					return false;
+				}
+				if ((filled >= CHUNK_COUNT) || endQueued)
+					return true;
+
+				slot = writeChunk;
+				decoding = generation;
+				rewind = rewindPending;
+				rewindPending = false;
+			}
+
+			int frames = 0;
+			boolean end = false;
+			IOException error = null;
+			try
+			{
+				if (rewind)
+					rewind();
+				frames = decode(chunks[slot]);
+				//a looping track only comes up short if it's empty
+				end = (frames < chunks[slot].length / SoundMixer.CHANNELS);
+			}
+			catch (IOException e)
+			{
+				//a broken stream stops the track rather than the mixer
+				error = e;
+				end = true;
+				closeStream();
+			}
+
+			synchronized (this)
+			{
+				//restarted while decoding. start over for the new play
+				if (decoding != generation)
+					continue;
+
+				chunkLengths[slot] = frames;
+				lastChunk[slot] = end;
+				writeChunk = (slot + 1) % CHUNK_COUNT;
+				filled++;
+				endQueued = end;
+				if (error != null)
+					lastError = error;
+			}
+		}
+	}
+
+	/**
+	 * fill a chunk with whole frames, starting the track over at its
+	 * end if looping
+	 * @return frames decoded. Less than a chunk at the end of a track.
+	 */
+	protected int decode(short[] chunk)
+			throws IOException
+	{
+		int length = 0;
+		boolean rewound = false;
+		while (length < bytes.length)
+		{
+			int n = stream.read(bytes, length, bytes.length - length);
+			if (n > 0)
+			{
+				length += n;
+				rewound = false;
+				continue;
+			}
+
+			//an empty track would loop forever
+			if (!loop || rewound)
+				break;
+			rewind();
+			rewound = true;
+		}
+
+		int frames = length / SoundMixer.FRAME_BYTES;
+		SoundMixer.toSamples(bytes, 0, chunk, 0, frames * SoundMixer.CHANNELS);
+		return frames;
+	}
+
+	/**
+	 * start again from the beginning of the track, seeking back if
+	 * the file allows it
+	 * @throws IOException the file couldn't be opened or read
+	 */
+	protected void rewind()
+			throws IOException
+	{
+		if ((stream != null) && seekable)
+		{
+			source.reset();
+			source.mark(Integer.MAX_VALUE);
+			//a converter holds state from the end of the track
+			if (stream != source)
+				stream = SoundMixer.toMixerFormat(source, relativeLocation);
+			return;
+		}
+
+		closeStream();
+		open();
+	}
+
+	protected void open()
+			throws IOException
+	{
+		URL url = SoundMixer.class.getClassLoader().getResource(relativeLocation);
+		if (url == null)
+			throw new IOException("Sound " + relativeLocation + " not found");
+
+		InputStream in;
+		if ("file".equals(url.getProtocol()))
+		{
+			try
+			{
+				channel = FileChannel.open(Paths.get(url.toURI()));
+			}
+			catch (URISyntaxException e)
+			{
+				throw new IOException("Sound " + relativeLocation + " has a bad location", e);
+			}
+			in = new ChannelInputStream(channel);
+		}
+		else
+		{
+			//audio system needs mark/reset to detect the file type
+			in = new BufferedInputStream(url.openStream());
+		}
+
+		boolean opened = false;
+		try
+		{
+			source = AudioSystem.getAudioInputStream(in);
+			opened = true;
+		}
+		catch (UnsupportedAudioFileException e)
+		{
+			throw new IOException("Sound " + relativeLocation + " is not a supported format", e);
+		}
+		finally
+		{
+			if (!opened)
+			{
+				in.close();
+				channel = null;
+			}
+		}
+
+		//a mark on a channel is only a position, so it can span the
+		//whole track. a buffered stream would have to hold it all.
+		seekable = (channel != null) && source.markSupported();
+		if (seekable)
+			source.mark(Integer.MAX_VALUE);
+
+		try
+		{
+			stream = SoundMixer.toMixerFormat(source, relativeLocation);
+		}
+		catch (IOException e)
+		{
+			//the source was closed
+			source = null;
+			channel = null;
+			seekable = false;
+			throw e;
+		}
+	}
+
+	protected void closeStream()
+	{
+		if (stream != null)
+		{
+			try
+			{
+				stream.close();
+				source.close();
+			}
+			catch (IOException e)
+			{
+				//nothing useful to do
+			}
+		}
+		stream = null;
+		source = null;
+		channel = null;
+		seekable = false;
+	}
+
+	/**
+	 * Input stream over a file channel whose mark is just a position,
+	 * so the start of a track can be marked and returned to without
+	 * buffering the track.
+	 */
+	protected static class ChannelInputStream extends InputStream
+	{
+		protected FileChannel channel;
+		protected long mark = 0;
+		protected byte[] one = new byte[1];
+
+		public ChannelInputStream(FileChannel channel)
+		{
+			this.channel = channel;
+		}
+
+		@Override
+		public int read()
+				throws IOException
+		{
+			int n = read(one, 0, 1);
+			return (n <= 0) ? -1 : (one[0] & 0xFF);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len)
+				throws IOException
+		{
+			if (len == 0)
+				return 0;
+			return channel.read(ByteBuffer.wrap(b, off, len));
+		}
+
+		@Override
+		public long skip(long n)
+				throws IOException
+		{
+			long position = channel.position();
+			long skipped = Math.max(0, Math.min(n, channel.size() - position));
+			channel.position(position + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available()
+				throws IOException
+		{
+			return (int) Math.min(Integer.MAX_VALUE, channel.size() - channel.position());
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return true;
+		}
+
+		@Override
+		public synchronized void mark(int readLimit)
+		{
+			try
+			{
+				mark = channel.position();
+			}
+			catch (IOException e)
+			{
+				mark = 0;
+			}
+		}
+
+		@Override
+		public synchronized void reset()
+				throws IOException
+		{
+			channel.position(mark);
+		}
+
+		@Override
+		public void close()
+				throws IOException
+		{
+			channel.close();
+		}
+	}
+}
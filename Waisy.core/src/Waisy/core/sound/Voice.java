@@ -0,0 +1,138 @@
+package Waisy.core.sound;
+
+/**
+ * One playing sound within the SoundMixer. Voices are pooled by the
+ * mixer and reused, so games refer to them by the id returned from
+ * play rather than holding on to them.
+ * @author waisy
+ *
+ */
+public class Voice
+{
+	protected boolean active = false;
+
+	/**
+	 * id given out by the mixer. Changes every time the voice is reused,
+	 * so an old id can't stop a newer sound.
+	 */
+	protected int id = -1;
+
+	//exactly one of these is set while active
+	protected PcmSound pcm = null;
+	protected StreamingSound stream = null;
+
+	/**
+	 * next frame to play from a pcm sound
+	 */
+	protected int position = 0;
+
+	protected boolean loop = false;
+	protected float volume = 1f;
+	/**
+	 * -1 is full left, 1 is full right
+	 */
+	protected float pan = 0f;
+
+	/**
+	 * order the voice was started in, counted by the mixer. Used to
+	 * find the oldest voice.
+	 */
+	protected long startOrder = 0;
+
+	/**
+	 * where the mixer's copy of the voice came from in the pool, and the
+	 * gains worked out for it. Only set on copies.
+	 */
+	protected int index = -1;
+	protected int gainL = 0;
+	protected int gainR = 0;
+
+	/**
+	 * copy the state the mixer needs, so the voice can be mixed
+	 * without holding the pool
+	 */
+	protected void copyFrom(Voice v)
+	{
+		active = v.active;
+		id = v.id;
+		pcm = v.pcm;
+		stream = v.stream;
+		position = v.position;
+		loop = v.loop;
+		volume = v.volume;
+		pan = v.pan;
+		startOrder = v.startOrder;
+	}
+
+	/**
+	 * Add the voice's next frames into a mix buffer.
+	 * @param mix interleaved stereo mix buffer
+	 * @param scratch buffer for decoding streamed sounds into.
+	 * At least frames * CHANNELS long.
+	 * @param frames number of frames to mix
+	 * @param gainL left gain, 16.16 fixed point
+	 * @param gainR right gain, 16.16 fixed point
+	 * @return frames mixed. Less than asked for once the sound has ended.
+	 */
+	protected int mix(int[] mix, short[] scratch, int frames, int gainL, int gainR)
+	{
+		if (stream != null)
+		{
+			//a stream that isn't decoded yet plays silence, not the end
+			int read = stream.read(scratch, frames);
+			addScaled(scratch, 0, mix, 0, read, gainL, gainR);
+			return stream.hasEnded() ? read : frames;
+		}
+
+		//pcm sounds are mixed straight from the shared samples
+		short[] samples = pcm.samples;
+		int total = samples.length / SoundMixer.CHANNELS;
+		int mixed = 0;
+
+		while (mixed < frames)
+		{
+			if (position >= total)
+			{
+				if (!loop || (total == 0))
+					break;
+				position = 0;
+			}
+
+			int n = Math.min(frames - mixed, total - position);
+			addScaled(samples, position * SoundMixer.CHANNELS, mix, mixed * SoundMixer.CHANNELS,
+					n, gainL, gainR);
+			position += n;
+			mixed += n;
+		}
+
+		return mixed;
+	}
+
+	protected static void addScaled(short[] src, int srcOffset, int[] mix, int mixOffset,
+			int frames, int gainL, int gainR)
+	{
+		int end = srcOffset + frames * SoundMixer.CHANNELS;
+		for (int s = srcOffset, m = mixOffset; s < end; s += 2, m += 2)
+		{
+			mix[m] += (src[s] * gainL) >> 16;
+			mix[m + 1] += (src[s + 1] * gainR) >> 16;
+		}
+	}
+
+	/**
+	 * release the voice back to the pool
+	 */
+	protected void clear()
+	{
+		active = false;
+		pcm = null;
+		if (stream != null)
+			stream.stop();
+		stream = null;
+	}
+
+	public int getId()				{	return id;	}
+	public boolean isActive()		{	return active;	}
+	public float getVolume()		{	return volume;	}
+	public PcmSound getPcmSound()	{	return pcm;	}
+}
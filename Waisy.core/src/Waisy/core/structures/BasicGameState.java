@@ -1,9 +1,20 @@
 package Waisy.core.structures;
 
 import java.awt.Graphics;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 
+import Waisy.core.core.GameSettings;
 import Waisy.core.error.InvalidStateError;
+import Waisy.core.file.BasicSpriteSerializer;
+import Waisy.core.file.LevelCompiler;
+import Waisy.core.file.LevelLoader;
+import Waisy.core.file.SnapshotReader;
+import Waisy.core.file.SpriteSerializer;
 import Waisy.core.graphics.BasicSprite;
+import Waisy.core.graphics.FrameRenderer;
 import Waisy.core.graphics.SpriteManager;
 
 /**
@@ -31,6 +42,18 @@ public class BasicGameState
 	 */
 	protected int state;
 	
+	/**
+	 * serializer used for saving and loading sprites.
+	 * Created on first use if not set.
+	 */
+	protected SpriteSerializer spriteSerializer = null;
+	
+	/**
+	 * renderer used to draw the state. null to use the sprite
+	 * manager's own renderList.
+	 */
+	protected FrameRenderer frameRenderer = null;
+	
 	/**
 	 * indicates this state is currently unusable/uninitialized
 	 */
@@ -135,7 +158,12 @@ public class BasicGameState
 	
 		//all clear
 		if (spriteManager != null) //should always be valid with a valid state
-			spriteManager.renderList(g);
+		{
+			if (frameRenderer != null)
+				frameRenderer.render(spriteManager, g);
+			else
+				spriteManager.renderList(g);
+		}
 	}
 	
 	//------------------ update
@@ -183,6 +211,24 @@ public class BasicGameState
 			spriteManager.addSprite(s, layer);
 	}
 	
+	/**
+	 * Draw this state with a custom renderer instead of the sprite
+	 * manager's renderList.
+	 * @param renderer renderer to draw with. null to go back to renderList.
+	 */
+	public void setFrameRenderer(FrameRenderer renderer)
+	{
+		frameRenderer = renderer;
+	}
+	
+	/**
+	 * @return the state's sprite manager. null if the state hasn't started.
+	 */
+	public SpriteManager getSpriteManager()
+	{
+		return spriteManager;
+	}
+	
 	/**
 	 * Sets the static background sprite for the current state.
 	 * Static doesn't mean unanimated, it simply means it does not
@@ -199,18 +245,145 @@ public class BasicGameState
 	
 	//---------------------- load & save
 	
+	/**
+	 * Load a level xml into this state's sprite manager. The xml is
+	 * compiled in memory first, so this is much slower than loading
+	 * a level compiled ahead of time with LevelCompiler. Use this
+	 * while building levels and loadStateFromBinary when shipping.
+	 * @param xml relative location of the level xml
+	 * @throws IOException the level couldn't be read or is invalid
+	 * @throws InvalidStateError throws if the state hasn't been initialized.
+	 * initialize the state with Start();
+	 * @see Waisy.core.file.LevelFormat
+	 */
 	public void loadStateFromXML(String xml)
+			throws IOException
 	{
-		//TODO:loading from xml
+		//this state isn't valid
+		if ((state == STATE_INVALID) || (state == STATE_ENDED))
+			throw new InvalidStateError();
+
+		InputStream stream = this.getClass().getClassLoader().
+				getResourceAsStream(xml);
+		if (stream == null)
+			throw new IOException("Level " + xml + " not found");
+
+		ByteBuffer level;
+		try
+		{
+			level = new LevelCompiler().compile(stream);
+		}
+		finally
+		{
+			stream.close();
+		}
+
+		new LevelLoader(GameSettings.imageFactory).load(level, spriteManager);
+	}
+
+	/**
+	 * Load a compiled binary level into this state's sprite manager.
+	 * The file is memory-mapped and the layers are built directly
+	 * from it.
+	 * @param level compiled level file
+	 * @throws IOException the level couldn't be read or is invalid
+	 * @throws InvalidStateError throws if the state hasn't been initialized.
+	 * initialize the state with Start();
+	 * @see LevelCompiler
+	 */
+	public void loadStateFromBinary(File level)
+			throws IOException
+	{
+		//this state isn't valid
+		if ((state == STATE_INVALID) || (state == STATE_ENDED))
+			throw new InvalidStateError();
+
+		new LevelLoader(GameSettings.imageFactory).load(level, spriteManager);
 	}
 	
+	/**
+	 * Load the default save file (GameSettings.SAVE_FILE), replacing
+	 * every sprite in this state.
+	 * @throws IOException the save couldn't be read or is invalid
+	 * @throws InvalidStateError throws if the state hasn't been initialized.
+	 * initialize the state with Start();
+	 */
 	public void loadStateFromSave()
+			throws IOException
 	{
-		
+		loadStateFromSave(GameSettings.SAVE_FILE);
 	}
 	
-	public void saveState()
+	/**
+	 * Load a save file written by saveState, replacing every sprite
+	 * in this state. Sprites are rebuilt through the state's
+	 * sprite serializer.
+	 * @param save save file to load
+	 * @throws IOException the save couldn't be read or is invalid
+	 * @throws InvalidStateError throws if the state hasn't been initialized.
+	 * initialize the state with Start();
+	 */
+	public void loadStateFromSave(File save)
+			throws IOException
 	{
-		//TODO: save state. finish when creating save functionality
+		//this state isn't valid
+		if ((state == STATE_INVALID) || (state == STATE_ENDED))
+			throw new InvalidStateError();
+
+		new SnapshotReader().load(save, spriteManager, getSpriteSerializer());
+	}
+	
+	/**
+	 * Save the state to the default save file (GameSettings.SAVE_FILE).
+	 * @return true if the save was captured, false if it was skipped
+	 * @see #saveState(File)
+	 */
+	public boolean saveState()
+	{
+		return saveState(GameSettings.SAVE_FILE);
+	}
+	
+	/**
+	 * Save the state. The state is captured right away into a reusable
+	 * buffer and written to disk on a background thread, so this is
+	 * safe to call mid-game for autosaves.
+	 * 
+	 * If the previous saves are still being written, this save is
+	 * skipped rather than stalling the game. Check the return value
+	 * for saves the player asked for.
+	 * @param save file to save to. Replaced if it exists.
+	 * @return true if the save was captured, false if it was skipped
+	 * @throws InvalidStateError throws if the state hasn't been initialized.
+	 * initialize the state with Start();
+	 * @see Waisy.core.file.SnapshotWriter
+	 */
+	public boolean saveState(File save)
+	{
+		//this state isn't valid
+		if ((state == STATE_INVALID) || (state == STATE_ENDED))
+			throw new InvalidStateError();
+
+		return GameSettings.snapshotWriter.capture(spriteManager, getSpriteSerializer(), save);
+	}
+	
+	/**
+	 * Set the serializer used to save and rebuild sprites. Set this
+	 * when the state uses its own sprite classes or custom sprite data.
+	 * @param serializer sprite serializer. null to use the default.
+	 */
+	public void setSpriteSerializer(SpriteSerializer serializer)
+	{
+		spriteSerializer = serializer;
+	}
+	
+	/**
+	 * @return the serializer used to save and rebuild sprites
+	 */
+	public SpriteSerializer getSpriteSerializer()
+	{
+		if (spriteSerializer == null)
+			spriteSerializer = new BasicSpriteSerializer(GameSettings.imageFactory);
+		
+		return spriteSerializer;
 	}
 }
@@ -96,6 +96,7 @@ public class FlyweightImageFactory
 		if (s == null) //sprite does not yet exist
 		{
 			s = new BasicSprite(path);
+			s.setAssetKey(key);
 			map.put(key, s);
 			//the constructor can potentially throw the IOException
 		}
@@ -0,0 +1,219 @@
+package Waisy.core.structures;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import Waisy.core.sound.PcmSound;
+import Waisy.core.sound.SoundMixer;
+
+/**
+ * A flyweight factory for sound effects, the sound counterpart of
+ * the FlyweightImageFactory. Each effect is decoded to PCM once and
+ * the samples are shared by every play, so a coin sound firing
+ * dozens of times a second costs a voice and nothing else.
+ *
+ * The factory also keeps effects from swamping the mixer. Each effect
+ * may only use so many voices at once (the default, or a per-effect
+ * limit), and all effects together may only use so many. When a play
+ * goes over either limit, a voice is stolen under the mixer's steal
+ * policy (oldest or quietest) instead of the new play being dropped.
+ *
+ * As with the image factory, keys must be unique. I recommend using
+ * the file name. Flush the factory between levels if the effects
+ * won't carry over.
+ *
+ * Music should not go through the factory. Stream it with
+ * StreamingSound instead.
+ * @author waisy
+ * @see FlyweightImageFactory
+ * @see SoundMixer
+ */
+public class FlyweightSoundFactory
+{
+	/**
+	 * default number of voices a single effect may use
+	 */
+	public static final int DEFAULT_VOICES_PER_SOUND = 4;
+
+	/**
+	 * HashMap to hold all the keys and their decoded sounds.
+	 * Please note that a hashmap is not thread safe
+	 */
+	protected HashMap<String, PcmSound> map;
+
+	/**
+	 * per-effect voice limits, for effects that don't use the default
+	 */
+	protected HashMap<String, Integer> voiceLimits;
+
+	protected SoundMixer mixer = null;
+	protected int voicesPerSound = DEFAULT_VOICES_PER_SOUND;
+	protected int effectVoices = SoundMixer.DEFAULT_MAX_VOICES;
+
+	//stats
+	protected long playCount = 0;
+	protected long cacheBytes = 0;
+
+	/**
+	 * Constructor. Initializes an empty map. Set a mixer before playing.
+	 */
+	public FlyweightSoundFactory()
+	{
+		map = new HashMap<>();
+		voiceLimits = new HashMap<>();
+	}
+
+	/**
+	 * Set the mixer effects are played on. Until one is set, plays
+	 * are ignored, so games still run without a sound device.
+	 * @param mixer mixer to play on
+	 */
+	public void setMixer(SoundMixer mixer)
+	{
+		this.mixer = mixer;
+	}
+
+	/**
+	 * Retrieves a sound within the factory map.
+	 * @param key String paired with a sound
+	 * @return a PcmSound if one exists, null if none is found.
+	 */
+	public PcmSound getSound(String key)
+	{
+		return map.get(key);
+	}
+
+	/**
+	 * Add a sound to the factory
+	 * @param key A unique string to be paired with the sound.
+	 * @param s decoded sound
+	 */
+	public void addSound(String key, PcmSound s)
+	{
+		PcmSound old = map.put(key, s);
+		if (old != null)
+			cacheBytes -= old.getByteSize();
+		cacheBytes += s.getByteSize();
+	}
+
+	/**
+	 * Gets a sound. This function will also load and decode the
+	 * sound if it isn't in the factory yet.
+	 * @param key string key for identification
+	 * @param path path to the sound in case the factory needs to load it
+	 * @return the matching sound
+	 * @throws IOException Thrown from loading the sound from file
+	 */
+	public PcmSound getPcmSound(String key, String path)
+			throws IOException
+	{
+		PcmSound s = map.get(key);
+
+		if (s == null) //sound does not yet exist
+		{
+			s = new PcmSound(path);
+			addSound(key, s);
+		}
+
+		return s;
+	}
+
+	/**
+	 * Play a loaded effect centered at full volume.
+	 * @param key key of the effect
+	 * @return voice id, or -1 if it couldn't be played
+	 */
+	public int play(String key)
+	{
+		return play(key, 1f, 0f);
+	}
+
+	/**
+	 * Play a loaded effect within the voice limits.
+	 * @param key key of the effect
+	 * @param volume volume between 0 and 1
+	 * @param pan -1 for full left, 0 for center, 1 for full right
+	 * @return voice id, or -1 if the effect isn't loaded, there is
+	 * no mixer, or there was no voice to play or steal
+	 */
+	public int play(String key, float volume, float pan)
+	{
+		PcmSound s = map.get(key);
+		if ((s == null) || (mixer == null))
+			return -1;
+
+		playCount++;
+
+		Integer limit = voiceLimits.get(key);
+		return mixer.play(s, volume, pan, false,
+				(limit != null) ? limit : voicesPerSound, effectVoices);
+	}
+
+	/**
+	 * @param voices default number of voices a single effect may use
+	 */
+	public void setVoicesPerSound(int voices)
+	{
+		voicesPerSound = voices;
+	}
+
+	/**
+	 * @param key effect to limit
+	 * @param voices number of voices this effect may use
+	 */
+	public void setVoicesPerSound(String key, int voices)
+	{
+		voiceLimits.put(key, voices);
+	}
+
+	/**
+	 * @param voices number of voices all effects together may use.
+	 * Keep this below the mixer's voice count to leave room for music.
+	 */
+	public void setEffectVoices(int voices)
+	{
+		effectVoices = voices;
+	}
+
+	/**
+	 * flushes all stored sounds and marks them for garbage collection
+	 */
+	public void flushFactory()
+	{
+		map.clear();
+		cacheBytes = 0;
+	}
+
+	/**
+	 * get the number of sounds currently in the map
+	 * @return number of sounds
+	 */
+	public int getSoundCount()
+	{
+		return map.size();
+	}
+
+	/**
+	 * @return number of plays asked for, including ones that failed
+	 */
+	public long getPlayCount()
+	{
+		return playCount;
+	}
+
+	/**
+	 * @return number of voices stolen to make room for plays
+	 */
+	public long getStealCount()
+	{
+		return (mixer != null) ? mixer.getStealCount() : 0;
+	}
+
+	/**
+	 * @return memory held by the decoded sounds, in bytes
+	 */
+	public long getCacheBytes()
+	{
+		return cacheBytes;
+	}
+}
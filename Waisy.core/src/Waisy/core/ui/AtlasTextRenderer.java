@@ -0,0 +1,328 @@
+package Waisy.core.ui;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import Waisy.core.graphics.IntFrameBuffer;
+import Waisy.core.graphics.RasterBlitter;
+
+/**
+ * Draws text from a GlyphAtlas, keeping whole strings that are drawn
+ * over and over as images of their own.
+ *
+ * HUD text mostly stays the same from frame to frame: a label, or a
+ * score that only changes when a coin is picked up. The first time a
+ * string is drawn it's drawn glyph by glyph from the atlas. If it's
+ * drawn again while it's still remembered, it's kept as an image, so
+ * from then on drawing it is a single image copy. Strings that change
+ * every frame, such as a timer in ms, are never seen twice and so
+ * never pay for being kept.
+ *
+ * The single copy only pays off on an accelerated pipeline, where
+ * Java2D keeps the kept images on the video card. Under the software
+ * loops, blending a string's image costs about as much as its glyphs,
+ * and TextBenchmark measures both slower than Graphics.drawChars, so
+ * keep using drawString or drawChars with a Graphics there.
+ *
+ * Frames drawn by the RasterRenderer are where kept strings win. A
+ * string drawn into an IntFrameBuffer is kept as a RasterBlitter, and
+ * with an atlas that isn't antialiased its pixels are all solid or
+ * clear, so the whole string is copied run by run with no blending.
+ * TextBenchmark measures a HUD with a timer that changes every frame
+ * at about three quarters of the time of Graphics.drawChars, and the
+ * FrameProfiler overlay, which draws itself this way, takes about
+ * half. Antialiased strings have to be blended, which is slower than
+ * drawing their glyphs from the atlas, so keep strings only from an
+ * atlas without antialiasing.
+ *
+ * The renderer remembers a fixed number of strings, dropping the one
+ * used longest ago to make room. Nothing is allocated to draw a
+ * string it already remembers, or one it doesn't; only when a string
+ * is first kept, and is bigger than the image it replaces.
+ *
+ * Use one renderer per font and colour, from the game thread.
+ * @author waisy
+ *
+ */
+public class AtlasTextRenderer
+{
+	public static final int DEFAULT_CACHE_SIZE = 32;
+
+	/**
+	 * a remembered string, and its image once it has been kept
+	 */
+	protected static class CachedString
+	{
+		char[] text = new char[16];
+		int length = -1;
+		int hash;
+		long lastUsed;
+
+		boolean rendered = false;
+		BufferedImage image = null;
+		Graphics2D graphics = null;
+		/**
+		 * the image's pixels, once the string is drawn into a frame buffer
+		 */
+		RasterBlitter blitter = null;
+	}
+
+	protected GlyphAtlas atlas;
+	protected CachedString[] cache;
+	protected long useCount = 0;
+
+	/**
+	 * CharSequences are copied here to be drawn
+	 */
+	protected char[] scratch = new char[64];
+
+	protected long hits = 0;
+	protected long misses = 0;
+
+	/**
+	 * @param atlas glyphs to draw with
+	 */
+	public AtlasTextRenderer(GlyphAtlas atlas)
+	{
+		this(atlas, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * @param atlas glyphs to draw with
+	 * @param cacheSize number of strings to remember. 0 to always draw
+	 * glyph by glyph.
+	 */
+	public AtlasTextRenderer(GlyphAtlas atlas, int cacheSize)
+	{
+		this.atlas = atlas;
+		cache = new CachedString[cacheSize];
+		for (int i = 0; i < cacheSize; i++)
+			cache[i] = new CachedString();
+	}
+
+	/**
+	 * Draw text, like Graphics.drawString.
+	 * @param g graphics to draw into
+	 * @param text text to draw. Take care building it not to allocate
+	 * every frame, such as by reusing a StringBuilder.
+	 * @param x left of the text
+	 * @param y baseline of the text
+	 */
+	public void drawString(Graphics g, CharSequence text, int x, int y)
+	{
+		int length = copy(text);
+		drawChars(g, scratch, 0, length, x, y);
+	}
+
+	/**
+	 * Draw text, like Graphics.drawChars.
+	 * @param g graphics to draw into
+	 * @param text characters to draw
+	 * @param offset first character to draw
+	 * @param length number of characters to draw
+	 * @param x left of the text
+	 * @param y baseline of the text
+	 */
+	public void drawChars(Graphics g, char[] text, int offset, int length, int x, int y)
+	{
+		CachedString s = lookup(text, offset, length);
+		if (s == null)
+			atlas.drawChars(g, text, offset, length, x, y);
+		else
+			g.drawImage(s.image, x + atlas.left, y + atlas.top, null);
+	}
+
+	/**
+	 * Draw text straight into a frame's pixels.
+	 * @param fb frame to draw into. Its clip and translation apply.
+	 * @param text text to draw
+	 * @param x left of the text
+	 * @param y baseline of the text
+	 */
+	public void drawString(IntFrameBuffer fb, CharSequence text, int x, int y)
+	{
+		int length = copy(text);
+		drawChars(fb, scratch, 0, length, x, y);
+	}
+
+	/**
+	 * Draw text straight into a frame's pixels.
+	 * @param fb frame to draw into. Its clip and translation apply.
+	 * @param text characters to draw
+	 * @param offset first character to draw
+	 * @param length number of characters to draw
+	 * @param x left of the text
+	 * @param y baseline of the text
+	 */
+	public void drawChars(IntFrameBuffer fb, char[] text, int offset, int length, int x, int y)
+	{
+		CachedString s = lookup(text, offset, length);
+		if (s == null)
+			atlas.drawChars(fb, text, offset, length, x, y);
+		else
+		{
+			if (s.blitter == null)
+				s.blitter = new RasterBlitter(s.image);
+			s.blitter.blit(fb, x + atlas.left, y + atlas.top);
+		}
+	}
+
+	/**
+	 * find the text in the cache, drawing it into its image if this is
+	 * its second sighting
+	 * @return the remembered string to draw as one image, or null to
+	 * draw the text glyph by glyph
+	 */
+	protected CachedString lookup(char[] text, int offset, int length)
+	{
+		if (length <= 0)
+			return null;
+
+		int hash = 0;
+		for (int i = offset; i < offset + length; i++)
+			hash = 31 * hash + text[i];
+
+		useCount++;
+		CachedString s = find(text, offset, length, hash);
+		if (s == null)
+		{
+			//first sighting. it's drawn glyph by glyph, and remembered
+			misses++;
+			if (cache.length > 0)
+				remember(text, offset, length, hash);
+			return null;
+		}
+
+		hits++;
+		s.lastUsed = useCount;
+		if (!s.rendered)
+			render(s);
+		return s;
+	}
+
+	/**
+	 * @return width of the text in pixels
+	 */
+	public int stringWidth(CharSequence text)
+	{
+		int length = copy(text);
+		return atlas.charsWidth(scratch, 0, length);
+	}
+
+	/**
+	 * copy text into the scratch array
+	 * @return its length
+	 */
+	protected int copy(CharSequence text)
+	{
+		int length = text.length();
+		if (scratch.length < length)
+			scratch = new char[length * 3 / 2];
+
+		if (text instanceof String)
+			((String) text).getChars(0, length, scratch, 0);
+		else
+		{
+			for (int i = 0; i < length; i++)
+				scratch[i] = text.charAt(i);
+		}
+		return length;
+	}
+
+	protected CachedString find(char[] text, int offset, int length, int hash)
+	{
+		for (int i = 0; i < cache.length; i++)
+		{
+			CachedString s = cache[i];
+			if ((s.hash != hash) || (s.length != length))
+				continue;
+
+			int j = 0;
+			while ((j < length) && (s.text[j] == text[offset + j]))
+				j++;
+			if (j == length)
+				return s;
+		}
+		return null;
+	}
+
+	/**
+	 * put a string in place of the one used longest ago
+	 */
+	protected void remember(char[] text, int offset, int length, int hash)
+	{
+		CachedString oldest = cache[0];
+		for (int i = 1; i < cache.length; i++)
+		{
+			if (cache[i].lastUsed < oldest.lastUsed)
+				oldest = cache[i];
+		}
+
+		if (oldest.text.length < length)
+			oldest.text = new char[length * 3 / 2];
+		System.arraycopy(text, offset, oldest.text, 0, length);
+		oldest.length = length;
+		oldest.hash = hash;
+		oldest.lastUsed = useCount;
+		oldest.rendered = false;
+	}
+
+	/**
+	 * draw a remembered string into its own image, reusing the image
+	 * it already has if that's big enough
+	 */
+	protected void render(CachedString s)
+	{
+		int w = atlas.charsWidth(s.text, 0, s.length) - atlas.left + atlas.right;
+		int h = atlas.bottom - atlas.top;
+		w = Math.max(w, 1);
+		h = Math.max(h, 1);
+
+		if ((s.image == null) || (s.image.getWidth() < w) || (s.image.getHeight() < h))
+		{
+			if (s.graphics != null)
+				s.graphics.dispose();
+
+			//room to grow, so a score gaining a digit doesn't need a new image
+			s.image = new BufferedImage(w + 32, h, BufferedImage.TYPE_INT_ARGB_PRE);
+			s.graphics = s.image.createGraphics();
+		}
+
+		Graphics2D g = s.graphics;
+		g.setComposite(AlphaComposite.Clear);
+		g.fillRect(0, 0, s.image.getWidth(), s.image.getHeight());
+		g.setComposite(AlphaComposite.SrcOver);
+		atlas.drawChars(g, s.text, 0, s.length, -atlas.left, -atlas.top);
+		if (s.blitter != null)
+			s.blitter.update(s.image);
+
+		s.rendered = true;
+	}
+
+	/**
+	 * forget every string
+	 */
+	public void clearCache()
+	{
+		for (int i = 0; i < cache.length; i++)
+		{
+			cache[i].length = -1;
+			cache[i].rendered = false;
+			cache[i].lastUsed = 0;
+		}
+	}
+
+	public GlyphAtlas getAtlas()	{	return atlas;	}
+
+	/**
+	 * @return strings drawn from the cache, as one image
+	 */
+	public long getHitCount()		{	return hits;	}
+
+	/**
+	 * @return strings drawn glyph by glyph
+	 */
+	public long getMissCount()		{	return misses;	}
+}
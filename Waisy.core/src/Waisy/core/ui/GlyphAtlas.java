@@ -0,0 +1,341 @@
+package Waisy.core.ui;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.image.BufferedImage;
+
+import Waisy.core.graphics.IntFrameBuffer;
+import Waisy.core.graphics.RasterBlitter;
+
+/**
+ * Every glyph of a font, drawn once into a single image in one colour,
+ * along with how far each glyph moves the pen.
+ *
+ * Graphics.drawString lays out the string and looks up or rasterizes
+ * its glyphs on every call. Drawing from an atlas instead is one
+ * image copy per glyph, with the pen moved by the cached advances.
+ * Text comes out the same as drawString for scripts that don't need
+ * kerning or ligatures, which covers HUD text.
+ *
+ * Under the software renderer each drawImage call has a fixed cost
+ * that outweighs a small glyph, and TextBenchmark measures drawing
+ * from an atlas slower than drawString there. For frames drawn by the
+ * RasterRenderer, draw into the IntFrameBuffer instead, which copies
+ * each glyph's pixels straight into the frame and measures about a
+ * third quicker than drawString for antialiased text. Text without
+ * antialiasing is quicker still drawn with an AtlasTextRenderer, which
+ * keeps the strings that repeat.
+ *
+ * Only the characters the atlas was made with can be drawn. Others
+ * are drawn as '?', or skipped with the width of a space if the atlas
+ * has no '?'.
+ * @author waisy
+ * @see AtlasTextRenderer
+ */
+public class GlyphAtlas
+{
+	/**
+	 * printable ascii, space to tilde
+	 */
+	public static final String ASCII;
+	static
+	{
+		char[] chars = new char[127 - 32];
+		for (int i = 0; i < chars.length; i++)
+			chars[i] = (char) (32 + i);
+		ASCII = new String(chars);
+	}
+
+	/**
+	 * width of the atlas image, unless a glyph is wider
+	 */
+	protected static final int ATLAS_WIDTH = 256;
+
+	protected Font font;
+	protected Color color;
+	protected boolean antialiased;
+
+	protected BufferedImage image;
+
+	/**
+	 * glyph of each character, or -1. Indexed by the character.
+	 */
+	protected int[] glyphIndex;
+	protected int fallback;
+
+	//per glyph: where it is in the atlas, its size, where it's drawn
+	//relative to the pen on the baseline, and how far it moves the pen
+	protected int[] srcX;
+	protected int[] srcY;
+	protected int[] width;
+	protected int[] height;
+	protected int[] offsetX;
+	protected int[] offsetY;
+	protected int[] advance;
+
+	/**
+	 * blitter of each glyph, for drawing into an IntFrameBuffer. made
+	 * the first time they're needed.
+	 */
+	protected RasterBlitter[] blitters = null;
+
+	protected int ascent;
+	protected int descent;
+	protected int lineHeight;
+
+	/**
+	 * furthest any glyph reaches above, below, left of and right of
+	 * its pen position and advance
+	 */
+	protected int top = 0;
+	protected int bottom = 0;
+	protected int left = 0;
+	protected int right = 0;
+
+	/**
+	 * atlas of printable ascii, antialiased
+	 * @param font font and size to draw
+	 * @param color colour to draw the text in
+	 */
+	public GlyphAtlas(Font font, Color color)
+	{
+		this(font, color, true, ASCII);
+	}
+
+	/**
+	 * @param font font and size to draw
+	 * @param color colour to draw the text in
+	 * @param antialiased true for smooth edges, false for hard pixel edges
+	 * @param characters every character the atlas should hold
+	 */
+	public GlyphAtlas(Font font, Color color, boolean antialiased, String characters)
+	{
+		this.font = font;
+		this.color = color;
+		this.antialiased = antialiased;
+
+		int count = characters.length();
+		srcX = new int[count];
+		srcY = new int[count];
+		width = new int[count];
+		height = new int[count];
+		offsetX = new int[count];
+		offsetY = new int[count];
+		advance = new int[count];
+
+		int maxChar = 0;
+		for (int i = 0; i < count; i++)
+			maxChar = Math.max(maxChar, characters.charAt(i));
+		glyphIndex = new int[maxChar + 1];
+		for (int i = 0; i < glyphIndex.length; i++)
+			glyphIndex[i] = -1;
+
+		//measure every glyph the same way drawString will draw it
+		BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB_PRE);
+		Graphics2D sg = scratch.createGraphics();
+		setHints(sg);
+		FontMetrics fm = sg.getFontMetrics();
+		FontRenderContext frc = sg.getFontRenderContext();
+		ascent = fm.getAscent();
+		descent = fm.getDescent();
+		lineHeight = fm.getHeight();
+
+		//pack the glyphs in rows, a pixel apart
+		int penX = 0;
+		int penY = 0;
+		int rowHeight = 0;
+		int atlasWidth = ATLAS_WIDTH;
+		for (int i = 0; i < count; i++)
+		{
+			char c = characters.charAt(i);
+			glyphIndex[c] = i;
+
+			Rectangle bounds = font.createGlyphVector(frc, new char[] { c }).getPixelBounds(frc, 0f, 0f);
+			advance[i] = fm.charWidth(c);
+			offsetX[i] = bounds.x;
+			offsetY[i] = bounds.y;
+			width[i] = bounds.width;
+			height[i] = bounds.height;
+
+			if (bounds.width > 0)
+			{
+				top = Math.min(top, bounds.y);
+				bottom = Math.max(bottom, bounds.y + bounds.height);
+				left = Math.min(left, bounds.x);
+				right = Math.max(right, bounds.x + bounds.width - advance[i]);
+			}
+
+			atlasWidth = Math.max(atlasWidth, bounds.width + 1);
+			if (penX + bounds.width > atlasWidth)
+			{
+				penX = 0;
+				penY += rowHeight + 1;
+				rowHeight = 0;
+			}
+			srcX[i] = penX;
+			srcY[i] = penY;
+			penX += bounds.width + 1;
+			rowHeight = Math.max(rowHeight, bounds.height);
+		}
+		sg.dispose();
+
+		int q = characters.indexOf('?');
+		int space = characters.indexOf(' ');
+		fallback = (q >= 0) ? q : space;
+
+		//draw each glyph into its place
+		image = new BufferedImage(atlasWidth, Math.max(1, penY + rowHeight),
+				BufferedImage.TYPE_INT_ARGB_PRE);
+		Graphics2D g = image.createGraphics();
+		setHints(g);
+		g.setColor(color);
+		char[] one = new char[1];
+		for (int i = 0; i < count; i++)
+		{
+			if (width[i] == 0)
+				continue;
+
+			one[0] = characters.charAt(i);
+			g.setClip(srcX[i], srcY[i], width[i], height[i]);
+			g.drawChars(one, 0, 1, srcX[i] - offsetX[i], srcY[i] - offsetY[i]);
+		}
+		g.dispose();
+	}
+
+	protected void setHints(Graphics2D g)
+	{
+		g.setFont(font);
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, antialiased
+				? RenderingHints.VALUE_TEXT_ANTIALIAS_ON : RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+		g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
+				RenderingHints.VALUE_FRACTIONALMETRICS_OFF);
+	}
+
+	/**
+	 * @return the glyph drawn for a character, or -1 for none
+	 */
+	protected int glyph(char c)
+	{
+		return (c < glyphIndex.length) && (glyphIndex[c] >= 0) ? glyphIndex[c] : fallback;
+	}
+
+	/**
+	 * Draw text glyph by glyph, like drawChars.
+	 * @param g graphics to draw into
+	 * @param text characters to draw
+	 * @param offset first character to draw
+	 * @param length number of characters to draw
+	 * @param x left of the text
+	 * @param y baseline of the text
+	 * @return x after the last character
+	 */
+	public int drawChars(Graphics g, char[] text, int offset, int length, int x, int y)
+	{
+		for (int i = offset; i < offset + length; i++)
+		{
+			int n = glyph(text[i]);
+			if (n < 0)
+				continue;
+
+			int w = width[n];
+			if (w > 0)
+			{
+				int dx = x + offsetX[n];
+				int dy = y + offsetY[n];
+				int sx = srcX[n];
+				int sy = srcY[n];
+				g.drawImage(image, dx, dy, dx + w, dy + height[n],
+						sx, sy, sx + w, sy + height[n], null);
+			}
+			x += advance[n];
+		}
+		return x;
+	}
+
+	/**
+	 * Draw text glyph by glyph straight into a frame's pixels.
+	 * @param fb frame to draw into. Its clip and translation apply.
+	 * @param text characters to draw
+	 * @param offset first character to draw
+	 * @param length number of characters to draw
+	 * @param x left of the text
+	 * @param y baseline of the text
+	 * @return x after the last character
+	 */
+	public int drawChars(IntFrameBuffer fb, char[] text, int offset, int length, int x, int y)
+	{
+		RasterBlitter[] b = getBlitters();
+		for (int i = offset; i < offset + length; i++)
+		{
+			int n = glyph(text[i]);
+			if (n < 0)
+				continue;
+
+			if (b[n] != null)
+				b[n].blit(fb, x + offsetX[n], y + offsetY[n]);
+			x += advance[n];
+		}
+		return x;
+	}
+
+	/**
+	 * @return the blitter of each glyph, made the first time they're
+	 * needed. null for glyphs with nothing to draw.
+	 */
+	protected RasterBlitter[] getBlitters()
+	{
+		RasterBlitter[] b = blitters;
+		if (b == null)
+		{
+			b = new RasterBlitter[width.length];
+			for (int i = 0; i < b.length; i++)
+			{
+				if (width[i] > 0)
+					b[i] = new RasterBlitter(image.getSubimage(srcX[i], srcY[i], width[i], height[i]));
+			}
+			blitters = b;
+		}
+		return b;
+	}
+
+	/**
+	 * @return width of the text in pixels, the same as FontMetrics.charsWidth
+	 */
+	public int charsWidth(char[] text, int offset, int length)
+	{
+		int w = 0;
+		for (int i = offset; i < offset + length; i++)
+		{
+			int n = glyph(text[i]);
+			if (n >= 0)
+				w += advance[n];
+		}
+		return w;
+	}
+
+	/**
+	 * @return true if the atlas draws this font in this colour
+	 */
+	public boolean matches(Font font, Color color)
+	{
+		return this.font.equals(font) && this.color.equals(color);
+	}
+
+	public Font getFont()			{	return font;	}
+	public Color getColor()			{	return color;	}
+	public BufferedImage getImage()	{	return image;	}
+
+	public int getAscent()			{	return ascent;	}
+	public int getDescent()			{	return descent;	}
+
+	/**
+	 * @return distance between baselines of lines of text
+	 */
+	public int getLineHeight()		{	return lineHeight;	}
+}
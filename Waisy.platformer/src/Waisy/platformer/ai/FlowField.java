@@ -0,0 +1,261 @@
+package Waisy.platformer.ai;
+
+import java.util.Arrays;
+
+/**
+ * Distance from every cell of a grid to one target cell, shared by
+ * every enemy heading for that target. An enemy looks up which way
+ * to go from its own cell in constant time, however many enemies
+ * there are and however far away they are.
+ *
+ * Building the field visits every reachable cell, so it is done a
+ * slice at a time over several ticks by a PathService. The last
+ * finished field stays in use while the next one is built, so
+ * enemies keep moving towards where the target was until the new
+ * field is done.
+ *
+ * Enemies move in 8 directions but never cut the corner of a
+ * blocked cell.
+ * @author waisy
+ * @see PathService
+ */
+public class FlowField
+{
+	/**
+	 * direction returned when there's nowhere to go: at the target,
+	 * blocked in, or out of range
+	 */
+	public static final int NONE = 8;
+
+	/**
+	 * cell steps of each direction, clockwise from right, then NONE
+	 */
+	public static final int[] DIR_X = { 1, 1, 0, -1, -1, -1, 0, 1, 0 };
+	public static final int[] DIR_Y = { 0, 1, 1, 1, 0, -1, -1, -1, 0 };
+
+	/**
+	 * distance of cells that can't reach the target
+	 */
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	protected WalkabilityGrid grid;
+	protected int width;
+	protected int height;
+
+	/**
+	 * distances of the finished field, and the one being built
+	 */
+	protected int[] distances;
+	protected int[] building;
+	protected boolean ready = false;
+
+	/**
+	 * the finished field's target, and the target being built
+	 */
+	protected int targetX = -1, targetY = -1;
+	protected int buildX = -1, buildY = -1;
+	protected int buildVersion = -1;
+
+	/**
+	 * breadth first queue of cells for the field being built
+	 */
+	protected int[] queue;
+	protected int head = 0;
+	protected int tail = 0;
+	protected boolean buildDone = true;
+
+	/**
+	 * cells further than this from the target aren't searched
+	 */
+	protected int maxDistance;
+
+	/**
+	 * @param grid grid to path over
+	 * @param maxDistance furthest distance from the target, in cells,
+	 * to build the field out to. Enemies further away get NONE.
+	 */
+	public FlowField(WalkabilityGrid grid, int maxDistance)
+	{
+		this.grid = grid;
+		this.maxDistance = maxDistance;
+		width = grid.getWidth();
+		height = grid.getHeight();
+
+		int cells = width * height;
+		distances = new int[cells];
+		building = new int[cells];
+		queue = new int[cells];
+		Arrays.fill(distances, UNREACHABLE);
+	}
+
+	//------------------ building. driven by the PathService
+
+	/**
+	 * Start building the field towards a cell, dropping any build in
+	 * progress. The finished field stays in use until the new one is done.
+	 */
+	public void rebuild(int cx, int cy)
+	{
+		buildX = cx;
+		buildY = cy;
+		buildVersion = grid.getVersion();
+
+		Arrays.fill(building, UNREACHABLE);
+		head = 0;
+		tail = 0;
+		buildDone = false;
+
+		if (grid.isWalkable(cx, cy))
+		{
+			int i = cy * width + cx;
+			building[i] = 0;
+			queue[tail++] = i;
+		}
+	}
+
+	/**
+	 * Carry on building.
+	 * @param budget most cells to visit
+	 * @return cells visited
+	 */
+	public int build(int budget)
+	{
+		if (buildDone)
+			return 0;
+
+		int visited = 0;
+		while ((head < tail) && (visited < budget))
+		{
+			int i = queue[head++];
+			visited++;
+
+			int d = building[i] + 1;
+			if (d > maxDistance)
+				continue;
+
+			int cx = i % width;
+			int cy = i / width;
+			if ((cx > 0) && visit(i - 1, d))
+				queue[tail++] = i - 1;
+			if ((cx < width - 1) && visit(i + 1, d))
+				queue[tail++] = i + 1;
+			if ((cy > 0) && visit(i - width, d))
+				queue[tail++] = i - width;
+			if ((cy < height - 1) && visit(i + width, d))
+				queue[tail++] = i + width;
+		}
+
+		if (head == tail)
+		{
+			//done. swap it in
+			int[] swap = distances;
+			distances = building;
+			building = swap;
+			targetX = buildX;
+			targetY = buildY;
+			buildDone = true;
+			ready = true;
+		}
+
+		return visited;
+	}
+
+	protected boolean visit(int i, int d)
+	{
+		if ((building[i] != UNREACHABLE) || grid.blocked[i])
+			return false;
+		building[i] = d;
+		return true;
+	}
+
+	/**
+	 * @return true if the field needs rebuilding for this target cell,
+	 * because the target moved cells or the grid changed since
+	 */
+	public boolean isStale(int cx, int cy)
+	{
+		return (cx != buildX) || (cy != buildY) || (grid.getVersion() != buildVersion);
+	}
+
+	/**
+	 * @return true while a build is in progress
+	 */
+	public boolean isBuilding()
+	{
+		return !buildDone;
+	}
+
+	//------------------ queries
+
+	/**
+	 * @return true once a field has been finished
+	 */
+	public boolean isReady()
+	{
+		return ready;
+	}
+
+	/**
+	 * @return steps from a cell to the target, or UNREACHABLE
+	 */
+	public int getDistance(int cx, int cy)
+	{
+		if ((cx < 0) || (cy < 0) || (cx >= width) || (cy >= height))
+			return UNREACHABLE;
+		return distances[cy * width + cx];
+	}
+
+	/**
+	 * Which way to go from a cell to get closer to the target.
+	 * @return an index into DIR_X and DIR_Y, or NONE
+	 */
+	public int getDirection(int cx, int cy)
+	{
+		int here = getDistance(cx, cy);
+		if ((here == UNREACHABLE) || (here == 0))
+			return NONE;
+
+		//score each move as twice the distance left plus its cost:
+		//2 for a straight step, 3 for a diagonal, which covers about
+		//one and a half steps of ground. only moves that beat a
+		//straight step closer are taken.
+		int best = here * 2 + 1;
+		int dir = NONE;
+		for (int d = 0; d < 8; d++)
+		{
+			int nx = cx + DIR_X[d];
+			int ny = cy + DIR_Y[d];
+			int nd = getDistance(nx, ny);
+			if (nd == UNREACHABLE)
+				continue;
+
+			int score;
+			if ((d & 1) == 0)
+				score = nd * 2 + 2;
+			else
+			{
+				//diagonals need both of the cells they pass between open
+				if (!grid.isWalkable(nx, cy) || !grid.isWalkable(cx, ny))
+					continue;
+				score = nd * 2 + 3;
+			}
+
+			if (score < best)
+			{
+				best = score;
+				dir = d;
+			}
+		}
+		return dir;
+	}
+
+	/**
+	 * @return column of the target the finished field leads to
+	 */
+	public int getTargetX()		{	return targetX;	}
+
+	/**
+	 * @return row of the target the finished field leads to
+	 */
+	public int getTargetY()		{	return targetY;	}
+}
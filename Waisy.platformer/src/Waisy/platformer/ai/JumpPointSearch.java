@@ -0,0 +1,383 @@
+package Waisy.platformer.ai;
+
+import java.util.Arrays;
+
+/**
+ * A* over a WalkabilityGrid using jump point search, for one-off
+ * path queries such as "can this enemy get to that ledge". For many
+ * enemies chasing the same target, use a FlowField instead.
+ *
+ * Jump point search skips over the long runs of open cells that
+ * plain A* would add to its open list one at a time, and only stops
+ * at cells where the path might have to turn. On open tile maps this
+ * visits far fewer cells than A*.
+ *
+ * Moves are 8-way without cutting the corners of blocked cells, the
+ * same as a FlowField. Working arrays are kept between searches, so
+ * reuse one JumpPointSearch rather than making one per query. Not
+ * safe to use from more than one thread at once.
+ * @author waisy
+ *
+ */
+public class JumpPointSearch
+{
+	protected static final float SQRT2 = 1.4142135f;
+
+	protected WalkabilityGrid grid;
+	protected int width;
+	protected int height;
+
+	//per cell search state. a cell's entries are only valid if its
+	//stamp matches the current search, so nothing is cleared between
+	//searches.
+	protected int[] stamp;
+	protected float[] cost;
+	protected int[] parent;
+	protected boolean[] closed;
+	protected int search = 0;
+
+	/**
+	 * open list: a binary min-heap of cells on their estimated total cost
+	 */
+	protected int[] open;
+	protected float[] openScore;
+	protected int openCount = 0;
+
+	protected int goalX, goalY;
+
+	/**
+	 * cells expanded by the last search
+	 */
+	protected int expanded = 0;
+
+	/**
+	 * @param grid grid to search
+	 */
+	public JumpPointSearch(WalkabilityGrid grid)
+	{
+		this.grid = grid;
+		width = grid.getWidth();
+		height = grid.getHeight();
+
+		int cells = width * height;
+		stamp = new int[cells];
+		cost = new float[cells];
+		parent = new int[cells];
+		closed = new boolean[cells];
+		open = new int[64];
+		openScore = new float[64];
+	}
+
+	/**
+	 * Find a shortest path between two cells.
+	 * @return the cells the path turns at, start and goal included, as
+	 * x,y pairs. Walk straight or diagonally between each pair. null if
+	 * there's no path.
+	 */
+	public int[] findPath(int startX, int startY, int goalX, int goalY)
+	{
+		if (!grid.isWalkable(startX, startY) || !grid.isWalkable(goalX, goalY))
+			return null;
+
+		this.goalX = goalX;
+		this.goalY = goalY;
+		search++;
+		if (search == 0)
+		{
+			//wrapped. every old stamp might match again
+			Arrays.fill(stamp, 0);
+			search = 1;
+		}
+		openCount = 0;
+		expanded = 0;
+
+		int start = startY * width + startX;
+		int goal = goalY * width + goalX;
+		touch(start);
+		cost[start] = 0;
+		parent[start] = -1;
+		push(start, heuristic(startX, startY));
+
+		while (openCount > 0)
+		{
+			int node = pop();
+			if (closed[node])
+				continue;
+			closed[node] = true;
+			expanded++;
+
+			if (node == goal)
+				return buildPath(node);
+
+			expand(node);
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return cells expanded by the last search
+	 */
+	public int getExpandedCount()
+	{
+		return expanded;
+	}
+
+	protected void expand(int node)
+	{
+		int x = node % width;
+		int y = node / width;
+		int p = parent[node];
+
+		if (p < 0)
+		{
+			//the start. try every way out
+			for (int dy = -1; dy <= 1; dy++)
+			{
+				for (int dx = -1; dx <= 1; dx++)
+				{
+					if (((dx != 0) || (dy != 0)) && canStep(x, y, dx, dy))
+						jumpFrom(node, x, y, dx, dy);
+				}
+			}
+			return;
+		}
+
+		//only the directions the path could carry on in
+		int dx = Integer.signum(x - p % width);
+		int dy = Integer.signum(y - p / width);
+
+		if ((dx != 0) && (dy != 0))
+		{
+			boolean v = grid.isWalkable(x, y + dy);
+			boolean h = grid.isWalkable(x + dx, y);
+			if (v)
+				jumpFrom(node, x, y, 0, dy);
+			if (h)
+				jumpFrom(node, x, y, dx, 0);
+			if (v && h)
+				jumpFrom(node, x, y, dx, dy);
+		}
+		else if (dx != 0)
+		{
+			boolean next = grid.isWalkable(x + dx, y);
+			boolean up = grid.isWalkable(x, y - 1);
+			boolean down = grid.isWalkable(x, y + 1);
+			if (next)
+			{
+				jumpFrom(node, x, y, dx, 0);
+				if (up)
+					jumpFrom(node, x, y, dx, -1);
+				if (down)
+					jumpFrom(node, x, y, dx, 1);
+			}
+			if (up)
+				jumpFrom(node, x, y, 0, -1);
+			if (down)
+				jumpFrom(node, x, y, 0, 1);
+		}
+		else
+		{
+			boolean next = grid.isWalkable(x, y + dy);
+			boolean left = grid.isWalkable(x - 1, y);
+			boolean right = grid.isWalkable(x + 1, y);
+			if (next)
+			{
+				jumpFrom(node, x, y, 0, dy);
+				if (left)
+					jumpFrom(node, x, y, -1, dy);
+				if (right)
+					jumpFrom(node, x, y, 1, dy);
+			}
+			if (left)
+				jumpFrom(node, x, y, -1, 0);
+			if (right)
+				jumpFrom(node, x, y, 1, 0);
+		}
+	}
+
+	/**
+	 * jump from a cell in one direction, and open the jump point found
+	 */
+	protected void jumpFrom(int node, int x, int y, int dx, int dy)
+	{
+		int jp = ((dx != 0) && (dy != 0))
+				? jumpDiagonal(x + dx, y + dy, dx, dy)
+				: jumpStraight(x + dx, y + dy, dx, dy);
+		if (jp < 0)
+			return;
+
+		touch(jp);
+		if (closed[jp])
+			return;
+
+		int jx = jp % width;
+		int jy = jp / width;
+		float g = cost[node] + octile(Math.abs(jx - x), Math.abs(jy - y));
+		if (g >= cost[jp])
+			return;
+
+		cost[jp] = g;
+		parent[jp] = node;
+		push(jp, g + heuristic(jx, jy));
+	}
+
+	/**
+	 * walk in a straight line until something forces a turn
+	 * @return the cell to stop at, or -1 if the line hits a wall
+	 */
+	protected int jumpStraight(int x, int y, int dx, int dy)
+	{
+		while (grid.isWalkable(x, y))
+		{
+			if ((x == goalX) && (y == goalY))
+				return y * width + x;
+
+			//a wall just behind, beside an open cell, means the best
+			//path to that cell might turn here
+			if (dx != 0)
+			{
+				if ((grid.isWalkable(x, y - 1) && !grid.isWalkable(x - dx, y - 1))
+						|| (grid.isWalkable(x, y + 1) && !grid.isWalkable(x - dx, y + 1)))
+					return y * width + x;
+			}
+			else
+			{
+				if ((grid.isWalkable(x - 1, y) && !grid.isWalkable(x - 1, y - dy))
+						|| (grid.isWalkable(x + 1, y) && !grid.isWalkable(x + 1, y - dy)))
+					return y * width + x;
+			}
+
+			x += dx;
+			y += dy;
+		}
+		return -1;
+	}
+
+	/**
+	 * walk diagonally until a straight jump from here finds something
+	 * @return the cell to stop at, or -1 if the walk is blocked
+	 */
+	protected int jumpDiagonal(int x, int y, int dx, int dy)
+	{
+		while (grid.isWalkable(x, y))
+		{
+			if ((x == goalX) && (y == goalY))
+				return y * width + x;
+
+			if ((jumpStraight(x + dx, y, dx, 0) >= 0) || (jumpStraight(x, y + dy, 0, dy) >= 0))
+				return y * width + x;
+
+			if (!canStep(x, y, dx, dy))
+				return -1;
+			x += dx;
+			y += dy;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true if a single step is allowed, which for diagonals
+	 * means both cells beside the step are open
+	 */
+	protected boolean canStep(int x, int y, int dx, int dy)
+	{
+		if (!grid.isWalkable(x + dx, y + dy))
+			return false;
+		if ((dx != 0) && (dy != 0))
+			return grid.isWalkable(x + dx, y) && grid.isWalkable(x, y + dy);
+		return true;
+	}
+
+	protected int[] buildPath(int node)
+	{
+		int length = 0;
+		for (int n = node; n >= 0; n = parent[n])
+			length++;
+
+		int[] path = new int[length * 2];
+		int i = length - 1;
+		for (int n = node; n >= 0; n = parent[n], i--)
+		{
+			path[i * 2] = n % width;
+			path[i * 2 + 1] = n / width;
+		}
+		return path;
+	}
+
+	/**
+	 * bring a cell's state into this search, if it isn't yet
+	 */
+	protected void touch(int i)
+	{
+		if (stamp[i] != search)
+		{
+			stamp[i] = search;
+			closed[i] = false;
+			cost[i] = Float.MAX_VALUE;
+		}
+	}
+
+	protected float heuristic(int x, int y)
+	{
+		return octile(Math.abs(x - goalX), Math.abs(y - goalY));
+	}
+
+	/**
+	 * cost of the shortest 8-way walk across dx by dy cells
+	 */
+	protected static float octile(int dx, int dy)
+	{
+		return (dx < dy) ? (SQRT2 * dx + (dy - dx)) : (SQRT2 * dy + (dx - dy));
+	}
+
+	//------------------ open list
+
+	protected void push(int node, float score)
+	{
+		if (openCount == open.length)
+		{
+			open = Arrays.copyOf(open, openCount * 2);
+			openScore = Arrays.copyOf(openScore, openCount * 2);
+		}
+
+		int i = openCount++;
+		while (i > 0)
+		{
+			int up = (i - 1) >> 1;
+			if (openScore[up] <= score)
+				break;
+			open[i] = open[up];
+			openScore[i] = openScore[up];
+			i = up;
+		}
+		open[i] = node;
+		openScore[i] = score;
+	}
+
+	protected int pop()
+	{
+		int top = open[0];
+		int last = open[--openCount];
+		float lastScore = openScore[openCount];
+
+		int i = 0;
+		while (true)
+		{
+			int child = i * 2 + 1;
+			if (child >= openCount)
+				break;
+			if ((child + 1 < openCount) && (openScore[child + 1] < openScore[child]))
+				child++;
+			if (lastScore <= openScore[child])
+				break;
+			open[i] = open[child];
+			openScore[i] = openScore[child];
+			i = child;
+		}
+		open[i] = last;
+		openScore[i] = lastScore;
+
+		return top;
+	}
+}
@@ -0,0 +1,167 @@
+package Waisy.platformer.ai;
+
+import java.util.ArrayList;
+
+import Waisy.core.core.TickListener;
+import Waisy.core.graphics.BasicSprite;
+
+/**
+ * Pathfinding for enemies over a WalkabilityGrid.
+ *
+ * Enemies chasing a target share one FlowField for it, rather than
+ * each running A* every tick. Ask for the field with chase(target)
+ * and look up a direction from the enemy's cell each tick, which
+ * costs the same however many enemies are chasing.
+ *
+ * Each tick the service checks whether each target has moved to
+ * another cell, or the grid has changed, and rebuilds the field if
+ * so. Rebuilding is spread over ticks: the service visits at most
+ * a budget of cells per tick across all fields, and enemies keep
+ * following the last finished field meanwhile. A build in progress
+ * is always finished before the next is started, so a target that
+ * never stops moving still gets fresh fields.
+ *
+ * For one-off paths between two cells, use findPath.
+ *
+ * Add the service to the GameManager to have it ticked with the game.
+ * @author waisy
+ *
+ */
+public class PathService implements TickListener
+{
+	/**
+	 * default number of cells visited building fields per tick
+	 */
+	public static final int DEFAULT_CELL_BUDGET = 20000;
+
+	protected WalkabilityGrid grid;
+	protected JumpPointSearch search;
+
+	//targets being chased and their fields
+	protected ArrayList<BasicSprite> targets = new ArrayList<BasicSprite>();
+	protected ArrayList<FlowField> fields = new ArrayList<FlowField>();
+
+	protected int cellBudget = DEFAULT_CELL_BUDGET;
+	protected int maxDistance;
+
+	/**
+	 * field to start the budget with next tick, so one busy field
+	 * can't starve the others
+	 */
+	protected int nextField = 0;
+
+	protected int lastCellsVisited = 0;
+
+	/**
+	 * @param grid grid to path over
+	 */
+	public PathService(WalkabilityGrid grid)
+	{
+		this.grid = grid;
+		search = new JumpPointSearch(grid);
+		maxDistance = grid.getWidth() + grid.getHeight();
+	}
+
+	/**
+	 * Get the shared field leading to a target, making it if needed.
+	 * The field isn't ready until it has been built over the next
+	 * tick or few.
+	 * @param target sprite to chase, such as the player
+	 * @return the target's field
+	 */
+	public FlowField chase(BasicSprite target)
+	{
+		int i = targets.indexOf(target);
+		if (i >= 0)
+			return fields.get(i);
+
+		FlowField field = new FlowField(grid, maxDistance);
+		targets.add(target);
+		fields.add(field);
+		return field;
+	}
+
+	/**
+	 * stop keeping a target's field up to date
+	 */
+	public void release(BasicSprite target)
+	{
+		int i = targets.indexOf(target);
+		if (i >= 0)
+		{
+			targets.remove(i);
+			fields.remove(i);
+		}
+	}
+
+	/**
+	 * One-off shortest path between two cells.
+	 * @see JumpPointSearch#findPath(int, int, int, int)
+	 */
+	public int[] findPath(int startX, int startY, int goalX, int goalY)
+	{
+		return search.findPath(startX, startY, goalX, goalY);
+	}
+
+	@Override
+	public void tick(float dT)
+	{
+		int count = fields.size();
+		int budget = cellBudget;
+
+		for (int n = 0; (n < count) && (budget > 0); n++)
+		{
+			int i = (nextField + n) % count;
+			FlowField field = fields.get(i);
+
+			if (!field.isBuilding())
+			{
+				BasicSprite t = targets.get(i);
+				int cx = grid.cellX(t.getX() + t.getWidth() * 0.5f);
+				int cy = grid.cellY(t.getY() + t.getHeight() * 0.5f);
+				if (!field.isStale(cx, cy))
+					continue;
+				field.rebuild(cx, cy);
+			}
+
+			budget -= field.build(budget);
+		}
+
+		if (count > 0)
+			nextField = (nextField + 1) % count;
+		lastCellsVisited = cellBudget - budget;
+	}
+
+	/**
+	 * Limit the work done building fields each tick.
+	 * @param cells most cells to visit per tick, across every field
+	 */
+	public void setCellBudget(int cells)
+	{
+		cellBudget = Math.max(1, cells);
+	}
+
+	/**
+	 * Limit how far fields reach from their target. Only affects
+	 * fields made afterwards. Smaller fields build faster.
+	 * @param cells furthest distance in cells. Defaults to the
+	 * grid's width plus height, which reaches every cell.
+	 */
+	public void setMaxDistance(int cells)
+	{
+		maxDistance = cells;
+	}
+
+	/**
+	 * @return cells visited building fields last tick
+	 */
+	public int getLastCellsVisited()
+	{
+		return lastCellsVisited;
+	}
+
+	public WalkabilityGrid getGrid()
+	{
+		return grid;
+	}
+}
@@ -0,0 +1,147 @@
+package Waisy.platformer.ai;
+
+/**
+ * A ScriptProgram running on one entity. Holds where the program is
+ * up to and what it's waiting for, so it can pick up from there on a
+ * later tick. Made by ScriptScheduler.start.
+ * @author waisy
+ *
+ * @param <T> type of entity the script runs on
+ */
+public class Script<T>
+{
+	static final int READY = 0;
+	static final int WAITING_TIME = 1;
+	static final int WAITING_CONDITION = 2;
+	static final int DONE = 3;
+
+	/**
+	 * most steps run in one tick. Stops a loop with no waits in it
+	 * from hanging the game; the script carries on next tick.
+	 */
+	public static final int MAX_STEPS_PER_TICK = 256;
+
+	protected ScriptProgram<T> program;
+	protected T entity;
+
+	//where the script is up to
+	int pc = 0;
+	int state = READY;
+	/**
+	 * scheduler time to wake at, in seconds, while WAITING_TIME
+	 */
+	double wakeTime = 0;
+	/**
+	 * repeats left of each open repeat
+	 */
+	int[] counters;
+	int depth = 0;
+
+	Script(ScriptProgram<T> program, T entity)
+	{
+		this.program = program;
+		this.entity = entity;
+		counters = (program.maxDepth > 0) ? new int[program.maxDepth] : null;
+	}
+
+	/**
+	 * Run steps until the script has to wait or finishes.
+	 * @param now scheduler time in seconds
+	 */
+	@SuppressWarnings("unchecked")
+	void resume(double now)
+	{
+		ScriptProgram<T> p = program;
+		int steps = MAX_STEPS_PER_TICK;
+		state = READY;
+
+		while (steps-- > 0)
+		{
+			if (pc >= p.length)
+			{
+				state = DONE;
+				return;
+			}
+
+			switch (p.ops[pc])
+			{
+			case ScriptProgram.CALL:
+				//move on first, so an action that cancels or
+				//restarts the script isn't undone
+				pc++;
+				((ScriptAction<T>) p.refs[pc - 1]).run(entity);
+				if (state == DONE)
+					return;
+				break;
+
+			case ScriptProgram.WAIT:
+				wakeTime = now + p.seconds[pc];
+				pc++;
+				state = WAITING_TIME;
+				return;
+
+			case ScriptProgram.WAIT_UNTIL:
+				if (!((ScriptCondition<T>) p.refs[pc]).test(entity))
+				{
+					state = WAITING_CONDITION;
+					return;
+				}
+				pc++;
+				break;
+
+			case ScriptProgram.REPEAT:
+				if (p.counts[pc] > 0)
+				{
+					counters[depth++] = p.counts[pc];
+					pc++;
+				}
+				else
+					pc = p.jumps[pc];
+				break;
+
+			case ScriptProgram.END:
+				if (--counters[depth - 1] > 0)
+					pc = p.jumps[pc];
+				else
+				{
+					depth--;
+					pc++;
+				}
+				break;
+
+			case ScriptProgram.LOOP:
+				pc = 0;
+				depth = 0;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * stop the script. It won't run again.
+	 */
+	public void cancel()
+	{
+		state = DONE;
+	}
+
+	/**
+	 * @return true once the script has run off the end of its
+	 * program or been cancelled
+	 */
+	public boolean isDone()
+	{
+		return state == DONE;
+	}
+
+	/**
+	 * @return true while the script is waiting on a condition
+	 */
+	public boolean isWaitingForCondition()
+	{
+		return state == WAITING_CONDITION;
+	}
+
+	public T getEntity()					{	return entity;	}
+	public ScriptProgram<T> getProgram()	{	return program;	}
+}
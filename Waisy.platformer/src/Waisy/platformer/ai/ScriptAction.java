@@ -0,0 +1,16 @@
+package Waisy.platformer.ai;
+
+/**
+ * One step of a script that does something to its entity, such as
+ * starting to walk or firing a shot.
+ * @author waisy
+ *
+ * @param <T> type of entity the script runs on
+ */
+public interface ScriptAction<T>
+{
+	/**
+	 * @param entity entity the script is running on
+	 */
+	public void run(T entity);
+}
@@ -0,0 +1,17 @@
+package Waisy.platformer.ai;
+
+/**
+ * Something a script can wait for, such as landing on the ground
+ * or the player coming into range.
+ * @author waisy
+ *
+ * @param <T> type of entity the script runs on
+ */
+public interface ScriptCondition<T>
+{
+	/**
+	 * @param entity entity the script is running on
+	 * @return true once the script should carry on
+	 */
+	public boolean test(T entity);
+}
@@ -0,0 +1,190 @@
+package Waisy.platformer.ai;
+
+import java.util.Arrays;
+
+/**
+ * An enemy behaviour written as a list of steps, run top to bottom
+ * like ordinary code, that can stop and wait part way through.
+ *
+ * For example, an enemy that walks for 2 seconds, pauses, jumps,
+ * then fires 3 times once it lands, over and over:
+ *
+ * <pre>
+ * ScriptProgram&lt;Enemy&gt; patrol = new ScriptProgram&lt;Enemy&gt;()
+ *     .call(WALK).waitFor(2f)
+ *     .call(STOP).waitFor(0.5f)
+ *     .call(JUMP).waitUntil(ON_GROUND)
+ *     .repeat(3)
+ *         .call(SHOOT).waitFor(0.3f)
+ *     .end()
+ *     .loop();
+ * </pre>
+ *
+ * A program holds no per-entity state, so one program is shared by
+ * every entity running it; the actions and conditions are handed the
+ * entity each time. Start a program on an entity with a
+ * ScriptScheduler. Once a program has been started it can't be
+ * changed.
+ * @author waisy
+ *
+ * @param <T> type of entity the program runs on
+ */
+public class ScriptProgram<T>
+{
+	//instructions
+	static final int CALL = 0;
+	static final int WAIT = 1;
+	static final int WAIT_UNTIL = 2;
+	static final int REPEAT = 3;
+	static final int END = 4;
+	static final int LOOP = 5;
+
+	/**
+	 * Each instruction is an op, plus an int argument (a jump target
+	 * or repeat count), a float argument (seconds) and an object
+	 * argument (action or condition), each used by only some ops.
+	 */
+	int[] ops = new int[8];
+	int[] jumps = new int[8];
+	int[] counts = new int[8];
+	float[] seconds = new float[8];
+	Object[] refs = new Object[8];
+	int length = 0;
+
+	/**
+	 * positions of the repeats not yet closed by end()
+	 */
+	protected int[] openRepeats = new int[4];
+	protected int openCount = 0;
+
+	/**
+	 * deepest nesting of repeats, so each script knows how many
+	 * counters it needs
+	 */
+	int maxDepth = 0;
+
+	protected boolean frozen = false;
+
+	/**
+	 * Run an action, then carry straight on to the next step.
+	 * @param action action to run
+	 * @return this program, to keep adding steps
+	 */
+	public ScriptProgram<T> call(ScriptAction<T> action)
+	{
+		int i = add(CALL);
+		refs[i] = action;
+		return this;
+	}
+
+	/**
+	 * Wait before carrying on. A wait of 0 waits until the next tick.
+	 * @param time seconds to wait
+	 * @return this program, to keep adding steps
+	 */
+	public ScriptProgram<T> waitFor(float time)
+	{
+		int i = add(WAIT);
+		seconds[i] = time;
+		return this;
+	}
+
+	/**
+	 * Wait until a condition is true before carrying on. The condition
+	 * is tested straight away, then once every tick until it's true.
+	 * @param condition condition to wait for
+	 * @return this program, to keep adding steps
+	 */
+	public ScriptProgram<T> waitUntil(ScriptCondition<T> condition)
+	{
+		int i = add(WAIT_UNTIL);
+		refs[i] = condition;
+		return this;
+	}
+
+	/**
+	 * Run the steps up to the matching end() a number of times.
+	 * Repeats can be nested.
+	 * @param times number of times to run the steps. 0 skips them.
+	 * @return this program, to keep adding steps
+	 */
+	public ScriptProgram<T> repeat(int times)
+	{
+		int i = add(REPEAT);
+		counts[i] = times;
+
+		if (openCount == openRepeats.length)
+			openRepeats = Arrays.copyOf(openRepeats, openCount * 2);
+		openRepeats[openCount++] = i;
+		maxDepth = Math.max(maxDepth, openCount);
+		return this;
+	}
+
+	/**
+	 * close the last repeat()
+	 * @return this program, to keep adding steps
+	 */
+	public ScriptProgram<T> end()
+	{
+		if (openCount == 0)
+			throw new IllegalStateException("end() without a repeat()");
+
+		int start = openRepeats[--openCount];
+		int i = add(END);
+		//the end jumps back to the first step of the body, and the
+		//repeat jumps past the end when there's nothing to repeat
+		jumps[i] = start + 1;
+		jumps[start] = i + 1;
+		return this;
+	}
+
+	/**
+	 * Go back to the first step and run the program again, forever.
+	 * Anything after this is never reached.
+	 * @return this program
+	 */
+	public ScriptProgram<T> loop()
+	{
+		add(LOOP);
+		return this;
+	}
+
+	/**
+	 * @return number of steps in the program
+	 */
+	public int getLength()
+	{
+		return length;
+	}
+
+	/**
+	 * stop the program being changed. Called when it's first started.
+	 */
+	void freeze()
+	{
+		if (frozen)
+			return;
+		if (openCount > 0)
+			throw new IllegalStateException("repeat() without an end()");
+		frozen = true;
+	}
+
+	protected int add(int op)
+	{
+		if (frozen)
+			throw new IllegalStateException("program can't be changed once started");
+
+		if (length == ops.length)
+		{
+			int size = length * 2;
+			ops = Arrays.copyOf(ops, size);
+			jumps = Arrays.copyOf(jumps, size);
+			counts = Arrays.copyOf(counts, size);
+			seconds = Arrays.copyOf(seconds, size);
+			refs = Arrays.copyOf(refs, size);
+		}
+
+		ops[length] = op;
+		return length++;
+	}
+}
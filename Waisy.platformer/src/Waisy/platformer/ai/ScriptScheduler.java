@@ -0,0 +1,228 @@
+package Waisy.platformer.ai;
+
+import java.util.Arrays;
+
+import Waisy.core.core.TickListener;
+
+/**
+ * Runs AI scripts, resuming each one once per game tick from where
+ * it left off.
+ *
+ * Each script is a small object holding a step number, a timer and
+ * a few counters, rather than a thread with its own stack, so tens
+ * of thousands of scripted entities cost little memory. Scripts
+ * waiting on a timer sit in a heap ordered by wake time and aren't
+ * touched at all until they're due; only scripts that are ready or
+ * waiting on a condition are visited each tick.
+ *
+ * Add the scheduler to the GameManager to have it ticked with the
+ * game:
+ *
+ * <pre>
+ * ScriptScheduler scripts = new ScriptScheduler();
+ * GameManager.getInstance().addTickListener(scripts);
+ * scripts.start(patrol, enemy);
+ * </pre>
+ *
+ * Scripts should only be started and cancelled from the game thread.
+ * @author waisy
+ * @see ScriptProgram
+ */
+public class ScriptScheduler implements TickListener
+{
+	/**
+	 * scripts to run every tick: ready, or waiting on a condition
+	 */
+	protected Script<?>[] active = new Script<?>[64];
+	protected int activeCount = 0;
+
+	/**
+	 * scripts started during a tick, added to active afterwards
+	 */
+	protected Script<?>[] started = new Script<?>[16];
+	protected int startedCount = 0;
+
+	/**
+	 * scripts waiting on a timer, as a binary min-heap on wake time
+	 */
+	protected Script<?>[] timers = new Script<?>[64];
+	protected int timerCount = 0;
+
+	/**
+	 * seconds ticked since the scheduler was made
+	 */
+	protected double time = 0;
+
+	protected boolean ticking = false;
+
+	/**
+	 * Start running a program on an entity. The script first runs
+	 * on the next tick.
+	 * @param program program to run
+	 * @param entity entity to run it on
+	 * @return the running script, which can be cancelled
+	 */
+	public <T> Script<T> start(ScriptProgram<T> program, T entity)
+	{
+		program.freeze();
+
+		Script<T> script = new Script<T>(program, entity);
+		if (ticking)
+		{
+			if (startedCount == started.length)
+				started = Arrays.copyOf(started, startedCount * 2);
+			started[startedCount++] = script;
+		}
+		else
+			addActive(script);
+
+		return script;
+	}
+
+	@Override
+	public void tick(float dT)
+	{
+		time += dT / 1000.0;
+		ticking = true;
+
+		//wake everything that's due
+		while ((timerCount > 0) && (timers[0].wakeTime <= time))
+		{
+			Script<?> s = popTimer();
+			if (s.state != Script.DONE)
+				addActive(s);
+		}
+
+		//run the active scripts, keeping the ones still active
+		int kept = 0;
+		for (int i = 0; i < activeCount; i++)
+		{
+			Script<?> s = active[i];
+			active[i] = null;
+
+			if (s.state != Script.DONE)
+				s.resume(time);
+
+			if (s.state == Script.WAITING_TIME)
+				pushTimer(s);
+			else if (s.state != Script.DONE)
+				active[kept++] = s;
+		}
+		activeCount = kept;
+
+		ticking = false;
+		for (int i = 0; i < startedCount; i++)
+		{
+			addActive(started[i]);
+			started[i] = null;
+		}
+		startedCount = 0;
+	}
+
+	/**
+	 * cancel every script
+	 */
+	public void clear()
+	{
+		for (int i = 0; i < activeCount; i++)
+		{
+			active[i].cancel();
+			active[i] = null;
+		}
+		for (int i = 0; i < timerCount; i++)
+		{
+			timers[i].cancel();
+			timers[i] = null;
+		}
+		for (int i = 0; i < startedCount; i++)
+		{
+			started[i].cancel();
+			started[i] = null;
+		}
+		activeCount = 0;
+		timerCount = 0;
+		startedCount = 0;
+	}
+
+	/**
+	 * @return number of scripts that haven't finished. Cancelled
+	 * scripts waiting on a timer are counted until the timer runs out.
+	 */
+	public int getScriptCount()
+	{
+		return activeCount + timerCount + startedCount;
+	}
+
+	/**
+	 * @return number of scripts visited every tick, rather than
+	 * sleeping on a timer
+	 */
+	public int getActiveCount()
+	{
+		return activeCount;
+	}
+
+	/**
+	 * @return seconds ticked since the scheduler was made
+	 */
+	public double getTime()
+	{
+		return time;
+	}
+
+	protected void addActive(Script<?> s)
+	{
+		if (activeCount == active.length)
+			active = Arrays.copyOf(active, activeCount * 2);
+		active[activeCount++] = s;
+	}
+
+	//------------------ timer heap
+
+	protected void pushTimer(Script<?> s)
+	{
+		if (timerCount == timers.length)
+			timers = Arrays.copyOf(timers, timerCount * 2);
+
+		//sift up
+		int i = timerCount++;
+		while (i > 0)
+		{
+			int parent = (i - 1) >> 1;
+			Script<?> p = timers[parent];
+			if (p.wakeTime <= s.wakeTime)
+				break;
+			timers[i] = p;
+			i = parent;
+		}
+		timers[i] = s;
+	}
+
+	protected Script<?> popTimer()
+	{
+		Script<?> top = timers[0];
+
+		Script<?> last = timers[--timerCount];
+		timers[timerCount] = null;
+		if (timerCount == 0)
+			return top;
+
+		//sift the last script down from the top
+		int i = 0;
+		while (true)
+		{
+			int child = i * 2 + 1;
+			if (child >= timerCount)
+				break;
+			if ((child + 1 < timerCount) && (timers[child + 1].wakeTime < timers[child].wakeTime))
+				child++;
+			if (last.wakeTime <= timers[child].wakeTime)
+				break;
+			timers[i] = timers[child];
+			i = child;
+		}
+		timers[i] = last;
+
+		return top;
+	}
+}
@@ -0,0 +1,120 @@
+package Waisy.platformer.ai;
+
+import Waisy.core.graphics.BasicSprite;
+import Waisy.core.graphics.SpriteManager;
+
+/**
+ * The level cut into square cells, each either walkable or blocked.
+ * Pathfinding works on cells rather than pixels.
+ *
+ * Every change to the grid bumps its version, so flow fields built
+ * from it know to rebuild.
+ * @author waisy
+ *
+ */
+public class WalkabilityGrid
+{
+	protected int width;
+	protected int height;
+	protected int cellSize;
+
+	/**
+	 * blocked cells, a row at a time
+	 */
+	protected boolean[] blocked;
+
+	protected int version = 0;
+
+	/**
+	 * @param width width in cells
+	 * @param height height in cells
+	 * @param cellSize width and height of a cell in pixels, normally
+	 * the level's tile size
+	 */
+	public WalkabilityGrid(int width, int height, int cellSize)
+	{
+		this.width = width;
+		this.height = height;
+		this.cellSize = cellSize;
+		blocked = new boolean[width * height];
+	}
+
+	public int getWidth()		{	return width;	}
+	public int getHeight()		{	return height;	}
+	public int getCellSize()	{	return cellSize;	}
+
+	/**
+	 * @return a number that changes whenever a cell does
+	 */
+	public int getVersion()		{	return version;	}
+
+	/**
+	 * @return true if the cell is inside the grid and not blocked
+	 */
+	public boolean isWalkable(int cx, int cy)
+	{
+		return (cx >= 0) && (cy >= 0) && (cx < width) && (cy < height)
+				&& !blocked[cy * width + cx];
+	}
+
+	/**
+	 * Block or clear a cell. Cells outside the grid are ignored.
+	 */
+	public void setBlocked(int cx, int cy, boolean isBlocked)
+	{
+		if ((cx < 0) || (cy < 0) || (cx >= width) || (cy >= height))
+			return;
+
+		int i = cy * width + cx;
+		if (blocked[i] != isBlocked)
+		{
+			blocked[i] = isBlocked;
+			version++;
+		}
+	}
+
+	/**
+	 * Block every cell covered by a sprite in a layer, such as the
+	 * level's solid tiles.
+	 * @param mgr sprites of the level
+	 * @param layer layer of solid sprites. Use the SpriteManager constants.
+	 */
+	public void blockSprites(SpriteManager mgr, int layer)
+	{
+		int count = mgr.getLayerSize(layer);
+		for (int i = 0; i < count; i++)
+		{
+			BasicSprite s = mgr.getSprite(layer, i);
+			if ((s == null) || (s.getWidth() == 0))
+				continue;
+
+			int minX = cellX(s.getX());
+			int minY = cellY(s.getY());
+			int maxX = cellX(s.getX() + s.getWidth() - 1);
+			int maxY = cellY(s.getY() + s.getHeight() - 1);
+			for (int cy = minY; cy <= maxY; cy++)
+			{
+				for (int cx = minX; cx <= maxX; cx++)
+					setBlocked(cx, cy, true);
+			}
+		}
+	}
+
+	/**
+	 * @param x world x in pixels
+	 * @return the column holding x
+	 */
+	public int cellX(float x)
+	{
+		return (int) Math.floor(x / cellSize);
+	}
+
+	/**
+	 * @param y world y in pixels
+	 * @return the row holding y
+	 */
+	public int cellY(float y)
+	{
+		return (int) Math.floor(y / cellSize);
+	}
+}